@@ -4,6 +4,7 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpMethod;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
@@ -39,6 +40,10 @@ public class LegacyApplication extends SpringBootServletInitializer {
                     .authorizeRequests()
                     .antMatchers("/api/public/**").permitAll()
                     .antMatchers("/api/admin/**").authenticated()
+                    // Stored files can be fed to /api/imports, so only signed-in users change them
+                    .antMatchers(HttpMethod.PUT, "/api/files/**").authenticated()
+                    .antMatchers(HttpMethod.POST, "/api/files/**").authenticated()
+                    .antMatchers(HttpMethod.DELETE, "/api/files/**").authenticated()
                     .anyRequest().permitAll()
                     .and()
                     .httpBasic();
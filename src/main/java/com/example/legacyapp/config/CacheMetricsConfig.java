@@ -0,0 +1,39 @@
+package com.example.legacyapp.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.JCacheMetrics;
+import org.hibernate.cache.jcache.internal.JCacheRegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Publishes the size, hits, misses, puts and evictions of every second-level cache region
+ * as {@code cache.*} metrics tagged with the region name. Hibernate's own per-region
+ * hit and miss counts are published as {@code hibernate.*} metrics by Spring Boot.
+ */
+@Configuration
+public class CacheMetricsConfig {
+
+    @Bean
+    public SmartInitializingSingleton cacheRegionMetrics(EntityManagerFactory entityManagerFactory,
+                                                         MeterRegistry meterRegistry) {
+        // Bound once every singleton exists, so that the session factory is fully built
+        return () -> {
+            SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+            if (!(sessionFactory.getCache().getRegionFactory() instanceof JCacheRegionFactory)) {
+                return;
+            }
+            CacheManager cacheManager = ((JCacheRegionFactory) sessionFactory.getCache().getRegionFactory())
+                    .getCacheManager();
+            for (String name : cacheManager.getCacheNames()) {
+                new JCacheMetrics<>(cacheManager.getCache(name), Tags.empty()).bindTo(meterRegistry);
+            }
+        };
+    }
+}
@@ -7,14 +7,18 @@ import javax.annotation.PostConstruct;
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.x500.X500Principal;
 import java.io.*;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.Base64;
 import java.util.Enumeration;
+import java.util.TimeZone;
 
 @Configuration
 public class KeystoreConfig {
@@ -67,8 +71,8 @@ public class KeystoreConfig {
             }
 
             listKeystoreEntries();
-        } catch (Exception e) {
-            System.err.println("Error initializing keystore: " + e.getMessage());
+        } catch (Exception | LinkageError e) {
+            System.err.println("Error initializing keystore: " + e);
             e.printStackTrace();
         }
     }
@@ -84,33 +88,66 @@ public class KeystoreConfig {
         long notBefore = System.currentTimeMillis();
         long notAfter = notBefore + validity;
 
-        sun.security.x509.X509CertInfo certInfo = new sun.security.x509.X509CertInfo();
-        certInfo.set(sun.security.x509.X509CertInfo.VERSION, 
-                    new sun.security.x509.CertificateVersion(sun.security.x509.CertificateVersion.V3));
-        certInfo.set(sun.security.x509.X509CertInfo.SERIAL_NUMBER, 
-                    new sun.security.x509.CertificateSerialNumber(new java.math.BigInteger(64, new SecureRandom())));
-        certInfo.set(sun.security.x509.X509CertInfo.ALGORITHM_ID,
-                    new sun.security.x509.CertificateAlgorithmId(
-                        sun.security.x509.AlgorithmId.get("SHA256withRSA")));
-        certInfo.set(sun.security.x509.X509CertInfo.SUBJECT, 
-                    new sun.security.x509.X500Name(distinguishedName));
-        certInfo.set(sun.security.x509.X509CertInfo.ISSUER, 
-                    new sun.security.x509.X500Name(distinguishedName));
-        certInfo.set(sun.security.x509.X509CertInfo.KEY, 
-                    new sun.security.x509.CertificateX509Key(keyPair.getPublic()));
-        certInfo.set(sun.security.x509.X509CertInfo.VALIDITY,
-                    new sun.security.x509.CertificateValidity(
-                        new java.util.Date(notBefore), 
-                        new java.util.Date(notAfter)));
-
-        sun.security.x509.X509CertImpl cert = new sun.security.x509.X509CertImpl(certInfo);
-        cert.sign(keyPair.getPrivate(), "SHA256withRSA");
+        byte[] name = new X500Principal(distinguishedName).getEncoded();
+        byte[] tbs = der(0x30,
+                der(0xA0, der(0x02, new byte[] {2})),
+                der(0x02, new java.math.BigInteger(64, new SecureRandom()).toByteArray()),
+                SHA256_WITH_RSA,
+                name,
+                der(0x30, utcTime(notBefore), utcTime(notAfter)),
+                name,
+                keyPair.getPublic().getEncoded());
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update(tbs);
+        byte[] signed = signature.sign();
+        // A BIT STRING starts with the number of unused bits in its last byte
+        byte[] bits = new byte[signed.length + 1];
+        System.arraycopy(signed, 0, bits, 1, signed.length);
+        X509Certificate cert = (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(der(0x30, tbs, SHA256_WITH_RSA, der(0x03, bits))));
 
         Certificate[] chain = new Certificate[] { cert };
         keyStore.setKeyEntry(keystoreAlias, keyPair.getPrivate(),
                            keystorePassword.toCharArray(), chain);
     }
 
+    // AlgorithmIdentifier of sha256WithRSAEncryption (1.2.840.113549.1.1.11) with NULL parameters
+    private static final byte[] SHA256_WITH_RSA = {
+            0x30, 0x0D, 0x06, 0x09, 0x2A, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xF7, 0x0D, 0x01, 0x01, 0x0B, 0x05, 0x00};
+
+    /**
+     * A DER element with {@code tag} whose content is {@code parts} one after another. The
+     * certificate is put together with this rather than sun.security.x509, which is not
+     * exported on Java 9+ and changed its API in Java 20.
+     */
+    private static byte[] der(int tag, byte[]... parts) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            content.write(part, 0, part.length);
+        }
+        int length = content.size();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--) {
+                out.write(length >>> (8 * i));
+            }
+        }
+        out.write(content.toByteArray(), 0, length);
+        return out.toByteArray();
+    }
+
+    private static byte[] utcTime(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat("yyMMddHHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return der(0x17, format.format(new java.util.Date(millis)).getBytes(StandardCharsets.US_ASCII));
+    }
+
     private SecretKey generateSecretKey() throws NoSuchAlgorithmException {
         KeyGenerator keyGen = KeyGenerator.getInstance("AES");
         keyGen.init(256);
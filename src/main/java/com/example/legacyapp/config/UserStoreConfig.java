@@ -0,0 +1,32 @@
+package com.example.legacyapp.config;
+
+import com.example.legacyapp.util.HeapUserStore;
+import com.example.legacyapp.util.OffHeapUserStore;
+import com.example.legacyapp.util.UserStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class UserStoreConfig {
+
+    @Value("${storage.user-store:off-heap}")
+    private String userStoreType;
+
+    @Value("${storage.user-store.slab-size:67108864}")
+    private int slabSize;
+
+    @Value("${storage.user-store.segments:16}")
+    private int segments;
+
+    @Bean
+    public UserStore userStore() {
+        if ("heap".equalsIgnoreCase(userStoreType)) {
+            return new HeapUserStore();
+        }
+        if ("off-heap".equalsIgnoreCase(userStoreType)) {
+            return new OffHeapUserStore(slabSize, segments);
+        }
+        throw new IllegalArgumentException("Unknown storage.user-store: " + userStoreType);
+    }
+}
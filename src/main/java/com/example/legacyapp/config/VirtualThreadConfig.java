@@ -0,0 +1,35 @@
+package com.example.legacyapp.config;
+
+import com.example.legacyapp.util.AppThreads;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * With {@code spring.threads.virtual.enabled}, Tomcat runs every request on a virtual
+ * thread of its own instead of a worker of its {@code server.tomcat.threads.max} pool, so
+ * a request blocked on I/O no longer holds a platform thread. Open requests are then
+ * bounded by {@code server.tomcat.max-connections} only.
+ *
+ * The connector is switched to NIO2 as well. The NIO connector of Tomcat 9 waits for a
+ * slow client in {@code Object.wait}, which on Java 21 pins the virtual thread to its
+ * carrier and so caps slow requests at the carrier pool (256 threads); NIO2 waits on a
+ * future, which parks it. NIO2 completes socket I/O on the JDK's default channel group,
+ * whose platform threads grow with bursts of completions and expire after a minute idle.
+ */
+@Configuration
+public class VirtualThreadConfig {
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadRequests(AppThreads appThreads) {
+        return factory -> {
+            if (appThreads.isVirtual()) {
+                factory.setProtocol("org.apache.coyote.http11.Http11Nio2Protocol");
+                factory.addConnectorCustomizers(connector -> connector.getProtocolHandler()
+                        .setExecutor(new VirtualThreadExecutor("http-virtual-")));
+            }
+        };
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.legacyapp.controller;
+
+import com.example.legacyapp.util.BackupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/admin/backups")
+public class BackupController {
+
+    @Autowired
+    private BackupService backupService;
+
+    @GetMapping
+    public ResponseEntity<List<String>> listBackups() throws IOException {
+        return new ResponseEntity<>(backupService.listBackupFiles(), HttpStatus.OK);
+    }
+
+    @PostMapping
+    public ResponseEntity<Void> requestBackup() {
+        backupService.requestBackup();
+        return new ResponseEntity<>(HttpStatus.ACCEPTED);
+    }
+
+    @PostMapping("/restore")
+    public ResponseEntity<String> restore(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date at) throws IOException {
+        try {
+            Path restored = backupService.restore(at);
+            return new ResponseEntity<>(restored.toString(), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.legacyapp.controller;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.repository.CustomUserRepositoryImpl;
+import com.example.legacyapp.repository.LegacyUserRepository;
+import com.example.legacyapp.service.UserBulkService;
+import com.example.legacyapp.service.UserExportService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to the users table in the database, as opposed to the file-backed users served
+ * by {@link UserController}.
+ */
+@RestController
+@RequestMapping("/api/db/users")
+public class DatabaseUserController {
+
+    @Autowired
+    private LegacyUserRepository legacyUserRepository;
+
+    @Autowired
+    private CustomUserRepositoryImpl customUserRepository;
+
+    @Autowired
+    private UserExportService userExportService;
+
+    @Autowired
+    private UserBulkService userBulkService;
+
+    /**
+     * One page of users in id order, fetched with a keyset query. A {@code Link} header
+     * points to the next page while more rows follow.
+     */
+    @GetMapping
+    public ResponseEntity<List<User>> getUsers(@RequestParam(required = false) String cursor,
+                                               @RequestParam(defaultValue = "" + UserCursors.DEFAULT_LIMIT) int limit) {
+        long afterId;
+        try {
+            afterId = UserCursors.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        if (limit < 1 || limit > UserCursors.MAX_LIMIT) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        List<User> users = legacyUserRepository.findPageAfter(afterId, PageRequest.of(0, limit + 1));
+        return UserCursors.page(users, limit);
+    }
+
+    /**
+     * Users created in [{@code from}, {@code to}), oldest first or, with {@code order=desc},
+     * newest first. Either bound may be left out. Pages are keyset queries on
+     * {@code (createdAt, id)} over idx_users_created_at, linked like {@link #getUsers}.
+     */
+    @GetMapping("/created")
+    public ResponseEntity<List<User>> getUsersCreated(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to,
+            @RequestParam(defaultValue = "asc") String order,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "" + UserCursors.DEFAULT_LIMIT) int limit) {
+        boolean descending = "desc".equalsIgnoreCase(order);
+        if (!descending && !"asc".equalsIgnoreCase(order) || limit < 1 || limit > UserCursors.MAX_LIMIT) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        UserCursors.TimeKey after;
+        try {
+            after = UserCursors.decodeTime(cursor);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        Date start = from != null ? from : new Date(0L);
+        Date end = to != null ? to : new Date(LegacyUserRepository.MAX_CREATED_AT_MILLIS);
+        PageRequest page = PageRequest.of(0, limit + 1);
+        List<User> users = descending
+                ? legacyUserRepository.findCreatedBefore(start, after != null ? after.createdAt : end,
+                        after != null ? after.id : 0L, page)
+                : legacyUserRepository.findCreatedAfter(after != null ? after.createdAt : start,
+                        after != null ? after.id : 0L, end, page);
+        return UserCursors.page(users, limit, user -> UserCursors.encodeTime(user.getCreatedAt(), user.getId()));
+    }
+
+    /**
+     * Number of users created per {@code day} or {@code month} of [{@code from}, {@code to}),
+     * in the server's time zone. Buckets without users are left out.
+     */
+    @GetMapping("/created/counts")
+    public ResponseEntity<List<Map<String, Object>>> countUsersCreated(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to,
+            @RequestParam(defaultValue = "day") String bucket) {
+        Date start = from != null ? from : new Date(0L);
+        Date end = to != null ? to : new Date(LegacyUserRepository.MAX_CREATED_AT_MILLIS);
+        List<Object[]> rows;
+        if ("day".equalsIgnoreCase(bucket)) {
+            rows = legacyUserRepository.countCreatedByDay(start, end);
+        } else if ("month".equalsIgnoreCase(bucket)) {
+            rows = legacyUserRepository.countCreatedByMonth(start, end);
+        } else {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        List<Map<String, Object>> counts = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Map<String, Object> count = new LinkedHashMap<>();
+            count.put("start", row[0]);
+            count.put("count", ((Number) row[1]).longValue());
+            counts.add(count);
+        }
+        return new ResponseEntity<>(counts, HttpStatus.OK);
+    }
+
+    /**
+     * One user, served from the second-level cache once it has been read.
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<User> getUserById(@PathVariable Long id) {
+        return legacyUserRepository.findById(id)
+                .map(user -> new ResponseEntity<>(user, HttpStatus.OK))
+                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * Users with exactly this username, from a cacheable query: repeated lookups are
+     * answered from the query cache until the users table changes.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<List<User>> findByUsername(@RequestParam String username) {
+        return new ResponseEntity<>(customUserRepository.findWithQueryHints(username), HttpStatus.OK);
+    }
+
+    /**
+     * Streams the users created after {@code createdAfter} (all users by default) as
+     * newline-delimited JSON.
+     */
+    @GetMapping("/export")
+    public void exportUsers(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                    Date createdAfter, HttpServletResponse response) throws IOException {
+        response.setContentType(UserExportService.CONTENT_TYPE);
+        userExportService.exportDatabaseUsers(createdAfter != null ? createdAfter : new Date(0L),
+                response.getOutputStream());
+    }
+
+    /**
+     * Inserts up to {@link UserBulkService#MAX_ITEMS} users in one request, in JDBC batches. Every item is
+     * validated on its own and the response reports the outcome of each, in request order.
+     */
+    @PostMapping("/bulk")
+    public ResponseEntity<UserBulkService.Result> createUsers(@RequestBody List<User> users) {
+        try {
+            return new ResponseEntity<>(userBulkService.createDatabaseUsers(users), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Updates users in bulk; each item must carry the id of the user it updates.
+     */
+    @PutMapping("/bulk")
+    public ResponseEntity<UserBulkService.Result> updateUsers(@RequestBody List<User> users) {
+        try {
+            return new ResponseEntity<>(userBulkService.updateDatabaseUsers(users), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Deletes the users with the ids in the request body.
+     */
+    @DeleteMapping("/bulk")
+    public ResponseEntity<UserBulkService.Result> deleteUsers(@RequestBody List<Long> ids) {
+        try {
+            return new ResponseEntity<>(userBulkService.deleteDatabaseUsers(ids), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+}
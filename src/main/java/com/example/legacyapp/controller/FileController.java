@@ -0,0 +1,148 @@
+package com.example.legacyapp.controller;
+
+import com.example.legacyapp.util.FileStorageService;
+import com.example.legacyapp.util.UploadTooLargeException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.NoSuchFileException;
+
+/**
+ * Upload and download of files in the upload store. Bodies are streamed in both
+ * directions and downloads honour a single HTTP byte range.
+ */
+@RestController
+@RequestMapping("/api/files")
+public class FileController {
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @PutMapping("/{filename:.+}")
+    public ResponseEntity<String> uploadRaw(@PathVariable String filename, HttpServletRequest request)
+            throws IOException {
+        if (request.getContentLengthLong() > fileStorageService.getMaxUploadBytes()) {
+            return new ResponseEntity<>("Upload exceeds " + fileStorageService.getMaxUploadBytes() + " bytes",
+                    HttpStatus.PAYLOAD_TOO_LARGE);
+        }
+        return store(filename, request.getInputStream());
+    }
+
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<String> uploadMultipart(@RequestParam("file") MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            return store(file.getOriginalFilename(), in);
+        }
+    }
+
+    private ResponseEntity<String> store(String filename, InputStream content) throws IOException {
+        try {
+            long size = fileStorageService.storeUpload(filename, content);
+            return new ResponseEntity<>(Long.toString(size), HttpStatus.CREATED);
+        } catch (UploadTooLargeException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.PAYLOAD_TOO_LARGE);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping("/{filename:.+}")
+    public void download(@PathVariable String filename, HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+        long size;
+        try {
+            size = fileStorageService.uploadSize(filename);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        } catch (NoSuchFileException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        long start = 0;
+        long end = size - 1;
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == null) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+        long length = end - start + 1;
+        response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        response.setContentLengthLong(length);
+        if (length <= 0 || "HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        fileStorageService.transferUpload(filename, start, length,
+                Channels.newChannel(response.getOutputStream()));
+    }
+
+    @DeleteMapping("/{filename:.+}")
+    public ResponseEntity<Void> delete(@PathVariable String filename) throws IOException {
+        try {
+            return fileStorageService.deleteUpload(filename) ? new ResponseEntity<>(HttpStatus.NO_CONTENT)
+                    : new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Parses a single {@code bytes=} range. Returns the inclusive bounds, an empty array
+     * when the header should be ignored (multiple ranges or another unit), or null when
+     * the range cannot be satisfied.
+     */
+    private static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1
+                        : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+            }
+            if (start >= size || start > end) {
+                return null;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.legacyapp.controller;
+
+import com.example.legacyapp.model.UserLoginStats;
+import com.example.legacyapp.service.LoginStatisticsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import java.util.List;
+
+/**
+ * Ingestion of login events and the per-user login totals kept from them.
+ */
+@RestController
+@RequestMapping("/api/logins")
+public class LoginStatisticsController {
+
+    @Autowired
+    private LoginStatisticsService loginStatisticsService;
+
+    /**
+     * Records up to {@link LoginStatisticsService#MAX_EVENTS} logins. They are counted at
+     * once and written to the database with the next flush.
+     */
+    @PostMapping
+    public ResponseEntity<Void> recordLogins(@RequestBody List<LoginStatisticsService.LoginEvent> events) {
+        try {
+            loginStatisticsService.recordLogins(events);
+            return new ResponseEntity<>(HttpStatus.ACCEPTED);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping("/statistics")
+    public ResponseEntity<List<UserLoginStats>> getStatistics() {
+        return new ResponseEntity<>(loginStatisticsService.getStatistics(), HttpStatus.OK);
+    }
+
+    @GetMapping("/users/{userId}")
+    public ResponseEntity<UserLoginStats> getUserStats(@PathVariable Long userId) {
+        return loginStatisticsService.getStats(userId)
+                .map(stats -> new ResponseEntity<>(stats, HttpStatus.OK))
+                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+}
@@ -1,15 +1,33 @@
 package com.example.legacyapp.controller;
 
 import com.example.legacyapp.model.User;
+import com.example.legacyapp.service.UserBulkService;
+import com.example.legacyapp.service.UserExportService;
+import com.example.legacyapp.service.UserJsonCache;
 import com.example.legacyapp.service.UserService;
+import com.example.legacyapp.util.UserAttributeIndex;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.util.UriComponentsBuilder;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * The file-backed users. Handlers hand their work to {@link UserRequestExecutor}, which
+ * runs it on the request thread or, in async mode, on a bounded pool of its own.
+ *
+ * Users and user lists carry an {@code ETag} (see {@link UserETags}); a matching
+ * {@code If-None-Match} gets a 304 without a body, and an {@code If-Match} on a PUT or
+ * DELETE that no longer matches the stored user gets a 412. Users are written from the
+ * JSON cached per user by {@link UserJsonCache}.
+ */
 @RestController
 @RequestMapping("/api/users")
 public class UserController {
@@ -17,42 +35,211 @@ public class UserController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private UserExportService userExportService;
+
+    @Autowired
+    private UserBulkService userBulkService;
+
+    @Autowired
+    private UserRequestExecutor userRequestExecutor;
+
+    /**
+     * Without parameters returns every user. With {@code limit} and/or {@code cursor}
+     * returns one page in id order, with a {@code Link: <...>; rel="next"} header while
+     * more users follow. The tag changes with any change to the users, so that a poll
+     * is answered with a 304 before the users are read.
+     */
     @GetMapping
-    public ResponseEntity<List<User>> getAllUsers() {
-        List<User> users = userService.getAllUsers();
-        return new ResponseEntity<>(users, HttpStatus.OK);
+    public CompletableFuture<ResponseEntity<UserJson>> getAllUsers(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        UriComponentsBuilder request = UserCursors.currentRequest();
+        return userRequestExecutor.submit(() -> {
+            // Read before the users, so the tag is never newer than the list it goes out with
+            String etag = UserETags.ofStore(userService.getStoreVersion());
+            if (UserETags.noneMatchFails(ifNoneMatch, etag)) {
+                return UserETags.notModified(etag);
+            }
+            if (cursor == null && limit == null) {
+                List<User> users = userService.getAllUsers();
+                return ResponseEntity.ok().eTag(etag).body(UserJson.ofAll(users));
+            }
+            int pageSize = limit != null ? limit : UserCursors.DEFAULT_LIMIT;
+            long afterId;
+            try {
+                afterId = UserCursors.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            if (pageSize < 1 || pageSize > UserCursors.MAX_LIMIT) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            ResponseEntity<List<User>> page =
+                    UserCursors.page(request, userService.getUsersAfter(afterId, pageSize + 1), pageSize);
+            return ResponseEntity.ok().headers(page.getHeaders()).eTag(etag).body(UserJson.of(page.getBody()));
+        });
+    }
+
+    /**
+     * Creates up to {@link UserBulkService#MAX_ITEMS} users in one request. Every item is
+     * validated on its own and the response reports the outcome of each, in request order.
+     */
+    @PostMapping("/bulk")
+    public CompletableFuture<ResponseEntity<UserBulkService.Result>> createUsers(@RequestBody List<User> users) {
+        return userRequestExecutor.submit(() -> {
+            try {
+                return new ResponseEntity<>(userBulkService.createUsers(users), HttpStatus.OK);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+        });
+    }
+
+    /**
+     * Updates users in bulk; each item must carry the id of the user it updates.
+     */
+    @PutMapping("/bulk")
+    public CompletableFuture<ResponseEntity<UserBulkService.Result>> updateUsers(@RequestBody List<User> users) {
+        return userRequestExecutor.submit(() -> {
+            try {
+                return new ResponseEntity<>(userBulkService.updateUsers(users), HttpStatus.OK);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+        });
+    }
+
+    /**
+     * Deletes the users with the ids in the request body.
+     */
+    @DeleteMapping("/bulk")
+    public CompletableFuture<ResponseEntity<UserBulkService.Result>> deleteUsers(@RequestBody List<Long> ids) {
+        return userRequestExecutor.submit(() -> {
+            try {
+                return new ResponseEntity<>(userBulkService.deleteUsers(ids), HttpStatus.OK);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+        });
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<User> getUserById(@PathVariable Long id) {
-        Optional<User> user = userService.getUserById(id);
-        return user.map(value -> new ResponseEntity<>(value, HttpStatus.OK))
-                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    public CompletableFuture<ResponseEntity<UserJson>> getUserById(
+            @PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return userRequestExecutor.submit(() -> {
+            Optional<User> user = userService.getUserById(id);
+            return user.map(value -> {
+                String etag = UserETags.of(value);
+                if (UserETags.noneMatchFails(ifNoneMatch, etag)) {
+                    return UserETags.<UserJson>notModified(etag);
+                }
+                return ResponseEntity.ok().eTag(etag).body(UserJson.of(value));
+            }).orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+        });
     }
 
     @PostMapping
-    public ResponseEntity<User> createUser(@Valid @RequestBody User user) {
-        User createdUser = userService.createUser(user);
-        return new ResponseEntity<>(createdUser, HttpStatus.CREATED);
+    public CompletableFuture<ResponseEntity<UserJson>> createUser(@Valid @RequestBody User user) {
+        return userRequestExecutor.submit(() -> {
+            User createdUser = userService.createUser(user);
+            return ResponseEntity.status(HttpStatus.CREATED).eTag(UserETags.of(createdUser)).body(UserJson.of(createdUser));
+        });
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<User> updateUser(@PathVariable Long id, @Valid @RequestBody User user) {
-        Optional<User> updatedUser = userService.updateUser(id, user);
-        return updatedUser.map(value -> new ResponseEntity<>(value, HttpStatus.OK))
-                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    public CompletableFuture<ResponseEntity<UserJson>> updateUser(
+            @PathVariable Long id,
+            @Valid @RequestBody User user,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return userRequestExecutor.submit(() -> {
+            Optional<User> updatedUser;
+            try {
+                updatedUser = userService.updateUser(id, user, UserETags.ifMatch(ifMatch));
+            } catch (IllegalStateException e) {
+                return new ResponseEntity<>(HttpStatus.PRECONDITION_FAILED);
+            }
+            return updatedUser
+                    .map(value -> ResponseEntity.ok().eTag(UserETags.of(value)).body(UserJson.of(value)))
+                    .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+        });
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteUser(@PathVariable Long id) {
-        boolean deleted = userService.deleteUser(id);
-        return deleted ? new ResponseEntity<>(HttpStatus.NO_CONTENT) 
-                       : new ResponseEntity<>(HttpStatus.NOT_FOUND);
+    public CompletableFuture<ResponseEntity<Void>> deleteUser(
+            @PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        return userRequestExecutor.submit(() -> {
+            boolean deleted;
+            try {
+                deleted = userService.deleteUser(id, UserETags.ifMatch(ifMatch));
+            } catch (IllegalStateException e) {
+                return new ResponseEntity<>(HttpStatus.PRECONDITION_FAILED);
+            }
+            return deleted ? new ResponseEntity<>(HttpStatus.NO_CONTENT)
+                           : new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        });
     }
 
     @GetMapping("/search")
-    public ResponseEntity<List<User>> searchUsers(@RequestParam String username) {
-        List<User> users = userService.searchByUsername(username);
-        return new ResponseEntity<>(users, HttpStatus.OK);
+    public CompletableFuture<ResponseEntity<UserJson>> searchUsers(@RequestParam String username) {
+        return userRequestExecutor.submit(() -> {
+            List<User> users = userService.searchByUsername(username);
+            return new ResponseEntity<>(UserJson.of(users), HttpStatus.OK);
+        });
+    }
+
+    @GetMapping("/suggest")
+    public CompletableFuture<ResponseEntity<UserJson>> suggestUsers(@RequestParam String q,
+                                                                      @RequestParam(defaultValue = "10") int limit) {
+        return userRequestExecutor.submit(() -> {
+            if (q.isEmpty() || limit < 1 || limit > 100) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            List<User> users = userService.suggest(q, limit);
+            return new ResponseEntity<>(UserJson.of(users), HttpStatus.OK);
+        });
+    }
+
+    /**
+     * Users matching all of the given attributes, one page at a time in id order; at
+     * least one attribute is required. Paged like {@link #getAllUsers}.
+     */
+    @GetMapping("/filter")
+    public CompletableFuture<ResponseEntity<UserJson>> filterUsers(
+            @RequestParam(required = false) String email,
+            @RequestParam(required = false) String tenantId,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) Boolean active,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "" + UserCursors.DEFAULT_LIMIT) int limit) {
+        UriComponentsBuilder request = UserCursors.currentRequest();
+        return userRequestExecutor.submit(() -> {
+            UserAttributeIndex.Filter filter = new UserAttributeIndex.Filter(email, tenantId, status, active);
+            long afterId;
+            try {
+                afterId = UserCursors.decode(cursor);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            if (filter.isEmpty() || limit < 1 || limit > UserCursors.MAX_LIMIT) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+            ResponseEntity<List<User>> page =
+                    UserCursors.page(request, userService.findUsers(filter, afterId, limit + 1), limit);
+            return ResponseEntity.ok().headers(page.getHeaders()).body(UserJson.of(page.getBody()));
+        });
+    }
+
+    /**
+     * Streams every user as newline-delimited JSON. The stream is written by the request
+     * thread in either execution mode.
+     */
+    @GetMapping("/export")
+    public void exportUsers(HttpServletResponse response) throws IOException {
+        response.setContentType(UserExportService.CONTENT_TYPE);
+        userExportService.exportUsers(response.getOutputStream());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,141 @@
+package com.example.legacyapp.controller;
+
+import com.example.legacyapp.model.User;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Opaque cursors for paging through users in id order, or in creation time order. A
+ * cursor wraps the sort key of the last user of the previous page; the link to the next
+ * page goes out in a {@code Link} header so that the response body stays a plain list of
+ * users.
+ */
+final class UserCursors {
+
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1000;
+
+    private static final String PREFIX = "u1:";
+    private static final String TIME_PREFIX = "t1:";
+
+    private UserCursors() {
+    }
+
+    static String encode(long lastId) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((PREFIX + lastId).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * The last id wrapped by {@code cursor}, or 0 for the first page.
+     *
+     * @throws IllegalArgumentException if the cursor was not produced by {@link #encode}
+     */
+    static long decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return 0L;
+        }
+        String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+        if (!value.startsWith(PREFIX)) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return Long.parseLong(value.substring(PREFIX.length()));
+    }
+
+    /**
+     * Cursor for the {@code (createdAt, id)} key of a user. Timestamps read from the
+     * database can be finer than milliseconds, so the nanoseconds are kept too.
+     */
+    static String encodeTime(Date createdAt, long id) {
+        int nanos = createdAt instanceof Timestamp
+                ? ((Timestamp) createdAt).getNanos() : (int) Math.floorMod(createdAt.getTime(), 1000L) * 1_000_000;
+        long seconds = Math.floorDiv(createdAt.getTime(), 1000L);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((TIME_PREFIX + seconds + ":" + nanos + ":" + id).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * The creation time and id wrapped by {@code cursor}, or null for the first page.
+     *
+     * @throws IllegalArgumentException if the cursor was not produced by {@link #encodeTime}
+     */
+    static TimeKey decodeTime(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII);
+        String[] parts = value.startsWith(TIME_PREFIX) ? value.substring(TIME_PREFIX.length()).split(":") : new String[0];
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        Timestamp createdAt = new Timestamp(Long.parseLong(parts[0]) * 1000L);
+        createdAt.setNanos(Integer.parseInt(parts[1]));
+        return new TimeKey(createdAt, Long.parseLong(parts[2]));
+    }
+
+    /**
+     * Builds the response for a page fetched with {@code limit + 1} rows: the extra row
+     * only signals that another page exists and is not returned.
+     */
+    static ResponseEntity<List<User>> page(List<User> fetched, int limit) {
+        return page(currentRequest(), fetched, limit);
+    }
+
+    /**
+     * As {@link #page(List, int)}, with the next cursor made from the last user by
+     * {@code cursor}.
+     */
+    static ResponseEntity<List<User>> page(List<User> fetched, int limit, Function<User, String> cursor) {
+        return page(currentRequest(), fetched, limit, cursor);
+    }
+
+    /**
+     * As {@link #page(List, int)}, with the next link built from {@code request}. Work that
+     * runs off the request thread has no current request, so it must take the builder
+     * from {@link #currentRequest()} before it is handed over.
+     */
+    static ResponseEntity<List<User>> page(UriComponentsBuilder request, List<User> fetched, int limit) {
+        return page(request, fetched, limit, user -> encode(user.getId()));
+    }
+
+    static ResponseEntity<List<User>> page(UriComponentsBuilder request, List<User> fetched, int limit,
+                                           Function<User, String> cursor) {
+        if (fetched.size() <= limit) {
+            return new ResponseEntity<>(fetched, HttpStatus.OK);
+        }
+        List<User> users = fetched.subList(0, limit);
+        String next = request
+                .replaceQueryParam("cursor", cursor.apply(users.get(limit - 1)))
+                .replaceQueryParam("limit", limit)
+                .build().toUriString();
+        return ResponseEntity.ok().header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"").body(users);
+    }
+
+    /**
+     * The URL of the request being handled, for {@link #page(UriComponentsBuilder, List, int)};
+     * call it on the request thread.
+     */
+    static UriComponentsBuilder currentRequest() {
+        return ServletUriComponentsBuilder.fromCurrentRequest();
+    }
+
+    static final class TimeKey {
+        final Timestamp createdAt;
+        final long id;
+
+        TimeKey(Timestamp createdAt, long id) {
+            this.createdAt = createdAt;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.legacyapp.controller;
+
+import com.example.legacyapp.model.User;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.function.Predicate;
+
+/**
+ * Strong entity tags for the file-backed users. A single user is tagged with its id and
+ * version, a list with the store version of {@code UserService}. Both carry the start
+ * time of this process, because the store version restarts from 0 and the text snapshot
+ * does not keep user versions: a tag handed out before a restart never matches after it.
+ */
+final class UserETags {
+
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    private UserETags() {
+    }
+
+    static String of(User user) {
+        return "\"" + EPOCH + "." + user.getId() + "." + user.getVersion() + "\"";
+    }
+
+    static String ofStore(long storeVersion) {
+        return "\"" + EPOCH + ".s" + storeVersion + "\"";
+    }
+
+    /**
+     * Whether an {@code If-None-Match} header lists {@code etag}. Weak comparison, as
+     * RFC 7232 asks for this header.
+     */
+    static boolean noneMatchFails(String ifNoneMatch, String etag) {
+        return ifNoneMatch != null && lists(ifNoneMatch, etag, true);
+    }
+
+    /**
+     * The {@code If-Match} precondition as a test on the stored user: true without the
+     * header, otherwise only when the header lists the user's tag. Strong comparison.
+     */
+    static Predicate<User> ifMatch(String ifMatch) {
+        return user -> ifMatch == null || lists(ifMatch, of(user), false);
+    }
+
+    static <T> ResponseEntity<T> notModified(String etag) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+    }
+
+    private static boolean lists(String header, String etag, boolean weak) {
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (weak && tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
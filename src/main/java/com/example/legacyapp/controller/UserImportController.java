@@ -0,0 +1,80 @@
+package com.example.legacyapp.controller;
+
+import com.example.legacyapp.service.UserImportService;
+import com.example.legacyapp.util.UploadTooLargeException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Background imports of users from CSV into the database. A job is submitted with the
+ * CSV as the request body, or with {@code upload} naming a file already in the upload
+ * store, and is then polled for progress.
+ */
+@RestController
+@RequestMapping("/api/imports")
+public class UserImportController {
+
+    @Autowired
+    private UserImportService userImportService;
+
+    @PostMapping
+    public ResponseEntity<UserImportService.Job> submit(@RequestParam(required = false) String upload,
+                                                        HttpServletRequest request) throws IOException {
+        try {
+            UserImportService.Job job = upload != null
+                    ? userImportService.submit(upload)
+                    : userImportService.importCsv(request.getInputStream());
+            return new ResponseEntity<>(job, HttpStatus.ACCEPTED);
+        } catch (NoSuchFileException e) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        } catch (UploadTooLargeException e) {
+            return new ResponseEntity<>(HttpStatus.PAYLOAD_TOO_LARGE);
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping
+    public ResponseEntity<List<UserImportService.Job>> getJobs() {
+        return new ResponseEntity<>(userImportService.getJobs(), HttpStatus.OK);
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<UserImportService.Job> getJob(@PathVariable String id) {
+        return respond(userImportService.getJob(id), HttpStatus.OK);
+    }
+
+    /**
+     * Restarts a failed, cancelled or interrupted job from its last checkpoint.
+     */
+    @PostMapping("/{id}/resume")
+    public ResponseEntity<UserImportService.Job> resume(@PathVariable String id) {
+        try {
+            return respond(userImportService.resume(id), HttpStatus.ACCEPTED);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(HttpStatus.CONFLICT);
+        }
+    }
+
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<UserImportService.Job> cancel(@PathVariable String id) {
+        try {
+            return respond(userImportService.cancel(id), HttpStatus.ACCEPTED);
+        } catch (IllegalStateException e) {
+            return new ResponseEntity<>(HttpStatus.CONFLICT);
+        }
+    }
+
+    private static ResponseEntity<UserImportService.Job> respond(Optional<UserImportService.Job> job,
+                                                                 HttpStatus status) {
+        return job.map(value -> new ResponseEntity<>(value, status))
+                .orElseGet(() -> new ResponseEntity<>(HttpStatus.NOT_FOUND));
+    }
+}
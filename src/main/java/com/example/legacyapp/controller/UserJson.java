@@ -0,0 +1,52 @@
+package com.example.legacyapp.controller;
+
+import com.example.legacyapp.model.User;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A response body of one file-backed user or a list of them, written by
+ * {@link UserJsonConverter} from the JSON cached per user. The JSON is the same as
+ * returning the users themselves.
+ */
+public final class UserJson {
+
+    private final List<User> users;
+    private final boolean list;
+    private final boolean keep;
+
+    private UserJson(List<User> users, boolean list, boolean keep) {
+        this.users = users;
+        this.list = list;
+        this.keep = keep;
+    }
+
+    static UserJson of(User user) {
+        return new UserJson(Collections.singletonList(user), false, true);
+    }
+
+    static UserJson of(List<User> users) {
+        return new UserJson(users, true, true);
+    }
+
+    /**
+     * A list written from the users already cached without adding the others, for reads
+     * of every user.
+     */
+    static UserJson ofAll(List<User> users) {
+        return new UserJson(users, true, false);
+    }
+
+    List<User> getUsers() {
+        return users;
+    }
+
+    boolean isList() {
+        return list;
+    }
+
+    boolean isKept() {
+        return keep;
+    }
+}
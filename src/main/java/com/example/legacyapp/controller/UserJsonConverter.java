@@ -0,0 +1,64 @@
+package com.example.legacyapp.controller;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.service.UserJsonCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes a {@link UserJson} by copying each user's cached JSON into the response, and
+ * for a list adds the brackets and commas between them. Spring Boot puts converter beans
+ * ahead of its defaults; this one handles no other type.
+ */
+@Component
+class UserJsonConverter extends AbstractHttpMessageConverter<UserJson> {
+
+    @Autowired
+    private UserJsonCache userJsonCache;
+
+    UserJsonConverter() {
+        super(MediaType.APPLICATION_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return UserJson.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected UserJson readInternal(Class<? extends UserJson> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("UserJson is written only", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(UserJson body, HttpOutputMessage outputMessage) throws IOException {
+        OutputStream out = outputMessage.getBody();
+        List<User> users = body.getUsers();
+        if (!body.isList()) {
+            out.write(userJsonCache.json(users.get(0), body.isKept()));
+            return;
+        }
+        out.write('[');
+        for (int i = 0; i < users.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(userJsonCache.json(users.get(i), body.isKept()));
+        }
+        out.write(']');
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.legacyapp.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the work of the {@link UserController} handlers.
+ *
+ * In the default {@code blocking} mode the work runs on the Tomcat worker that took the
+ * request, as it always has. In {@code async} mode it runs on the bounded user-request
+ * pool of {@code users.execution.threads} threads, and the worker is released as soon as
+ * the handler has returned its future. At most {@code users.execution.queue-capacity}
+ * requests wait for a pool thread (0 for none); requests beyond that are answered with
+ * 503 and a {@code Retry-After} header instead of tying up more workers.
+ *
+ * The pool is published as {@code executor.*} metrics named {@code user-requests}, with
+ * the time spent queued as {@code executor.idle}; rejections count in
+ * {@code user.requests.rejected}.
+ */
+@Component
+class UserRequestExecutor {
+
+    @Value("${users.execution.mode:blocking}")
+    private String mode;
+
+    @Value("${users.execution.threads:16}")
+    private int threads;
+
+    @Value("${users.execution.queue-capacity:1000}")
+    private int queueCapacity;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor pool;
+    private ExecutorService executor;
+    private Counter rejected;
+
+    @PostConstruct
+    public void init() {
+        if ("blocking".equalsIgnoreCase(mode)) {
+            return;
+        }
+        if (!"async".equalsIgnoreCase(mode)) {
+            throw new IllegalArgumentException("Unknown users.execution.mode: " + mode);
+        }
+        BlockingQueue<Runnable> queue = queueCapacity > 0
+                ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>();
+        AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "user-request-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor = ExecutorServiceMetrics.monitor(meterRegistry, pool, "user-requests", Tags.empty());
+        rejected = meterRegistry.counter("user.requests.rejected");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (pool == null) {
+            return;
+        }
+        pool.shutdown();
+        try {
+            pool.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The response produced by {@code work}: already complete in blocking mode, completed
+     * by a pool thread in async mode.
+     */
+    <T> CompletableFuture<ResponseEntity<T>> submit(Supplier<ResponseEntity<T>> work) {
+        if (executor == null) {
+            return CompletableFuture.completedFuture(work.get());
+        }
+        try {
+            return CompletableFuture.supplyAsync(work, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1").build());
+        }
+    }
+}
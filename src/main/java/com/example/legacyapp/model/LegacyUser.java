@@ -87,7 +87,8 @@ public class LegacyUser implements Serializable {
     private String email;
 
     // Deprecated: Using @Formula for computed columns
-    @Formula("(SELECT COUNT(*) FROM user_logins ul WHERE ul.user_id = id)")
+    // A key lookup in the running totals; logins not yet flushed by LoginStatisticsService are not included
+    @Formula("(SELECT s.login_count FROM user_login_stats s WHERE s.user_id = id)")
     private Integer loginCount;
 
     @NotBlank(message = "Password is required")
@@ -1,5 +1,9 @@
 package com.example.legacyapp.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 import javax.validation.constraints.Email;
 import javax.validation.constraints.NotBlank;
@@ -9,7 +13,15 @@ import java.util.Date;
 import java.util.List;
 
 @Entity
-@Table(name = "users")
+// Email is looked up when imports skip users that already exist; (created_at, id) serves
+// creation time ranges and their keyset pages. H2 does not scan an index backwards, so
+// newest-first pages need the descending copy.
+@Table(name = "users", indexes = {
+        @Index(name = "idx_users_email", columnList = "email"),
+        @Index(name = "idx_users_created_at", columnList = "createdAt, id"),
+        @Index(name = "idx_users_created_at_desc", columnList = "createdAt DESC, id DESC")
+})
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "userCache")
 public class User implements Serializable {
 
     @Id
@@ -45,13 +57,20 @@ public class User implements Serializable {
     private String status;
 
     @ManyToMany
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "userCache")
     private List<Role> roles;
 
     @ManyToMany
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "userCache")
     private List<Permission> permissions;
 
     private String tenantId;
 
+    // Kept by the file-backed store and raised on every change; not a database column.
+    // Clients see it only through the ETag, so it is left out of the JSON both ways.
+    @Transient
+    private long version;
+
     @PrePersist
     protected void onCreate() {
         createdAt = new Date();
@@ -166,4 +185,13 @@ public class User implements Serializable {
     public void setTenantId(String tenantId) {
         this.tenantId = tenantId;
     }
+
+    @JsonIgnore
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
\ No newline at end of file
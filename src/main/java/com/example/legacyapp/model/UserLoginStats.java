@@ -0,0 +1,70 @@
+package com.example.legacyapp.model;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Running login totals of one user, kept up to date by
+ * {@link com.example.legacyapp.service.LoginStatisticsService} instead of being counted
+ * from the login history on every read.
+ */
+@Entity
+@Table(name = "user_login_stats")
+public class UserLoginStats implements Serializable {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    private String username;
+
+    @Column(name = "login_count", nullable = false)
+    private long loginCount;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "last_login")
+    private Date lastLogin;
+
+    public UserLoginStats() {
+    }
+
+    public UserLoginStats(Long userId, String username, long loginCount, Date lastLogin) {
+        this.userId = userId;
+        this.username = username;
+        this.loginCount = loginCount;
+        this.lastLogin = lastLogin;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public long getLoginCount() {
+        return loginCount;
+    }
+
+    public void setLoginCount(long loginCount) {
+        this.loginCount = loginCount;
+    }
+
+    public Date getLastLogin() {
+        return lastLogin;
+    }
+
+    public void setLastLogin(Date lastLogin) {
+        this.lastLogin = lastLogin;
+    }
+}
@@ -1,10 +1,12 @@
 package com.example.legacyapp.repository;
 
 import com.example.legacyapp.model.User;
+import com.example.legacyapp.model.UserLoginStats;
 import org.hibernate.*;
 import org.hibernate.criterion.*;
 import org.hibernate.transform.Transformers;
 import org.hibernate.type.StandardBasicTypes;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import javax.persistence.EntityManager;
@@ -14,15 +16,33 @@ import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.*;
 
 @Repository
 @SuppressWarnings("deprecation")
 public class CustomUserRepositoryImpl {
 
+    private static final String INSERT_USER = "INSERT INTO users (username, email, password, created_at, "
+            + "updated_at, active, last_login, full_name, status, tenant_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_LOGIN_STATS = "UPDATE user_login_stats SET login_count = login_count + ?, "
+            + "username = ?, last_login = ? WHERE user_id = ?";
+
+    private static final String INSERT_LOGIN_STATS = "INSERT INTO user_login_stats (user_id, username, "
+            + "login_count, last_login) VALUES (?, ?, ?, ?)";
+
     @PersistenceContext
     private EntityManager entityManager;
 
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:100}")
+    private int batchSize;
+
     // Deprecated: Using Hibernate Session and old Criteria API
     public List<User> findUsersUsingCriteria(String username, String email) {
         Session session = entityManager.unwrap(Session.class);
@@ -82,10 +102,11 @@ public class CustomUserRepositoryImpl {
     }
 
     // Deprecated: Using SQLQuery with addScalar
+    // Reads the running totals in user_login_stats rather than grouping the login history
     public List<Map<String, Object>> getUserStatistics() {
         Session session = entityManager.unwrap(Session.class);
         SQLQuery query = session.createSQLQuery(
-            "SELECT username, COUNT(*) as login_count FROM user_logins GROUP BY username"
+            "SELECT username, login_count FROM user_login_stats"
         );
 
         query.addScalar("username", StandardBasicTypes.STRING);
@@ -95,21 +116,193 @@ public class CustomUserRepositoryImpl {
         return query.list();
     }
 
+    public List<UserLoginStats> findAllLoginStats() {
+        return entityManager.createQuery("FROM UserLoginStats", UserLoginStats.class).getResultList();
+    }
+
+    /**
+     * Adds the login count of each entry to the user's row in user_login_stats, creating
+     * the row when the user has none, and sets the username and last login from the entry.
+     */
+    public void addLoginCounts(List<UserLoginStats> deltas) {
+        Session session = entityManager.unwrap(Session.class);
+        session.doWork(connection -> {
+            List<UserLoginStats> missing = new ArrayList<>();
+            try (PreparedStatement update = connection.prepareStatement(UPDATE_LOGIN_STATS)) {
+                for (int start = 0; start < deltas.size(); start += batchSize) {
+                    List<UserLoginStats> batch = deltas.subList(start, Math.min(deltas.size(), start + batchSize));
+                    for (UserLoginStats delta : batch) {
+                        update.setLong(1, delta.getLoginCount());
+                        update.setString(2, delta.getUsername());
+                        update.setTimestamp(3, toTimestamp(delta.getLastLogin()));
+                        update.setLong(4, delta.getUserId());
+                        update.addBatch();
+                    }
+                    int[] counts = update.executeBatch();
+                    for (int i = 0; i < counts.length; i++) {
+                        if (counts[i] == 0) {
+                            missing.add(batch.get(i));
+                        }
+                    }
+                }
+            }
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_LOGIN_STATS)) {
+                for (int start = 0; start < missing.size(); start += batchSize) {
+                    for (UserLoginStats delta : missing.subList(start, Math.min(missing.size(), start + batchSize))) {
+                        insert.setLong(1, delta.getUserId());
+                        insert.setString(2, delta.getUsername());
+                        insert.setLong(3, delta.getLoginCount());
+                        insert.setTimestamp(4, toTimestamp(delta.getLastLogin()));
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                }
+            }
+        });
+    }
+
+    /**
+     * Fills an empty user_login_stats from a user_logins history table, if the database
+     * has one, so that the totals start from the logins recorded before them. Returns the
+     * number of users counted.
+     */
+    public int importLoginHistory() {
+        Session session = entityManager.unwrap(Session.class);
+        return session.doReturningWork(connection -> {
+            DatabaseMetaData metaData = connection.getMetaData();
+            boolean hasHistory = false;
+            for (String table : Arrays.asList("USER_LOGINS", "user_logins")) {
+                try (ResultSet tables = metaData.getTables(null, null, table, null)) {
+                    hasHistory |= tables.next();
+                }
+            }
+            if (!hasHistory) {
+                return 0;
+            }
+            try (Statement statement = connection.createStatement()) {
+                try (ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM user_login_stats")) {
+                    if (rows.next() && rows.getLong(1) > 0) {
+                        return 0;
+                    }
+                }
+                return statement.executeUpdate("INSERT INTO user_login_stats (user_id, username, login_count) "
+                        + "SELECT user_id, MAX(username), COUNT(*) FROM user_logins GROUP BY user_id");
+            }
+        });
+    }
+
+    private static Timestamp toTimestamp(Date date) {
+        return date != null ? new Timestamp(date.getTime()) : null;
+    }
+
     // Deprecated: Using legacy batch processing
     public void batchUpdateUsers(List<User> users) {
         Session session = entityManager.unwrap(Session.class);
         session.setCacheMode(CacheMode.IGNORE);
         session.setFlushMode(FlushMode.MANUAL);
 
-        int batchSize = 25;
         for (int i = 0; i < users.size(); i++) {
             session.update(users.get(i));
-            if (i % batchSize == 0) {
+            // Flush once a full JDBC batch is pending, not after the first row
+            if ((i + 1) % batchSize == 0) {
                 session.flush();
                 session.clear();
             }
         }
         session.flush();
+        session.clear();
+    }
+
+    /**
+     * Inserts {@code users} in JDBC batches and sets the generated ids on them. The id is
+     * an identity column, which keeps Hibernate from batching entity inserts, so the rows
+     * are written with a plain batched statement. Roles and permissions are not written.
+     */
+    public void batchInsertUsers(List<User> users) {
+        Session session = entityManager.unwrap(Session.class);
+        session.flush();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        session.doWork(connection -> {
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_USER, new String[] {"ID"})) {
+                for (int start = 0; start < users.size(); start += batchSize) {
+                    List<User> batch = users.subList(start, Math.min(users.size(), start + batchSize));
+                    for (User user : batch) {
+                        user.setCreatedAt(now);
+                        user.setUpdatedAt(now);
+                        insert.setString(1, user.getUsername());
+                        insert.setString(2, user.getEmail());
+                        insert.setString(3, user.getPassword());
+                        insert.setTimestamp(4, now);
+                        insert.setTimestamp(5, now);
+                        insert.setBoolean(6, user.isActive());
+                        insert.setTimestamp(7, toTimestamp(user.getLastLogin()));
+                        insert.setString(8, user.getFullName());
+                        insert.setString(9, user.getStatus());
+                        insert.setString(10, user.getTenantId());
+                        insert.addBatch();
+                    }
+                    insert.executeBatch();
+                    try (ResultSet keys = insert.getGeneratedKeys()) {
+                        for (User user : batch) {
+                            if (!keys.next()) {
+                                throw new SQLException("Fewer generated keys than inserted users");
+                            }
+                            user.setId(keys.getLong(1));
+                        }
+                    }
+                }
+            }
+        });
+        evictCachedUsers(session, Collections.emptyList());
+    }
+
+    /**
+     * Deletes the users with the given ids, and their role and permission links, in JDBC
+     * batches. The result tells for each id whether a user row was deleted.
+     */
+    public boolean[] batchDeleteUsers(List<Long> ids) {
+        Session session = entityManager.unwrap(Session.class);
+        session.flush();
+        boolean[] deleted = new boolean[ids.size()];
+        session.doWork(connection -> {
+            try (PreparedStatement roles = connection.prepareStatement("DELETE FROM users_roles WHERE user_id = ?");
+                 PreparedStatement permissions = connection.prepareStatement("DELETE FROM users_permissions WHERE user_id = ?");
+                 PreparedStatement users = connection.prepareStatement("DELETE FROM users WHERE id = ?")) {
+                for (int start = 0; start < ids.size(); start += batchSize) {
+                    int end = Math.min(ids.size(), start + batchSize);
+                    for (int i = start; i < end; i++) {
+                        for (PreparedStatement delete : Arrays.asList(roles, permissions, users)) {
+                            delete.setLong(1, ids.get(i));
+                            delete.addBatch();
+                        }
+                    }
+                    roles.executeBatch();
+                    permissions.executeBatch();
+                    int[] counts = users.executeBatch();
+                    for (int i = start; i < end; i++) {
+                        deleted[i] = counts[i - start] > 0;
+                    }
+                }
+            }
+        });
+        // Entities already loaded in this session may refer to deleted rows
+        session.clear();
+        evictCachedUsers(session, ids);
+        return deleted;
+    }
+
+    /**
+     * Rows written with plain JDBC bypass Hibernate, so the second-level cache does not see
+     * them: drops the cached entities of {@code ids} and every cached query result.
+     */
+    private void evictCachedUsers(Session session, Collection<Long> ids) {
+        org.hibernate.Cache cache = session.getSessionFactory().getCache();
+        for (Long id : ids) {
+            cache.evictEntityData(User.class, id);
+            cache.evictCollectionData(User.class.getName() + ".roles", id);
+            cache.evictCollectionData(User.class.getName() + ".permissions", id);
+        }
+        cache.evictQueryRegions();
     }
 
     // Deprecated: Using Hibernate Interceptor pattern
@@ -3,16 +3,22 @@ package com.example.legacyapp.repository;
 import com.example.legacyapp.model.User;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.persistence.QueryHint;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
@@ -22,6 +28,9 @@ import java.util.stream.Stream;
 @Transactional
 public interface LegacyUserRepository extends JpaRepository<User, Long> {
 
+    // Upper bound for created_at ranges without an end: 10000-01-01T00:00:00Z
+    long MAX_CREATED_AT_MILLIS = 253402300800000L;
+
     // Deprecated: Using positional parameters instead of named parameters
     @Query("SELECT u FROM User u WHERE u.username = ?1 AND u.email = ?2")
     Optional<User> findByUsernameAndEmailPositional(String username, String email);
@@ -36,22 +45,68 @@ public interface LegacyUserRepository extends JpaRepository<User, Long> {
     User getUser(@Param("id") Long id);
 
     // Deprecated: Using Hibernate's Query.iterate() pattern (removed in Hibernate 6)
+    // Must be consumed inside a transaction; rows are fetched from the driver 1000 at a time
+    @QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "1000"))
     @Query("SELECT u FROM User u WHERE u.createdAt > :date")
     Stream<User> iterateUsersCreatedAfter(@Param("date") Date date);
 
+    // Keyset pagination: seeks past the last id of the previous page instead of skipping
+    // an offset, so later pages cost the same as the first. Pass PageRequest.of(0, size).
+    @Query("SELECT u FROM User u WHERE u.id > :afterId ORDER BY u.id")
+    List<User> findPageAfter(@Param("afterId") Long afterId, Pageable pageable);
+
+    // [id, username] of the users holding any of the given usernames, for bulk conflict checks
+    @Query("SELECT u.id, u.username FROM User u WHERE u.username IN :usernames")
+    List<Object[]> findIdsByUsernames(@Param("usernames") Collection<String> usernames);
+
+    @Query("SELECT u.email FROM User u WHERE u.email IN :emails")
+    List<String> findExistingEmails(@Param("emails") Collection<String> emails);
+
     // Deprecated: Using old Hibernate Criteria API query hint
     // In Spring Boot 2.x, @QueryHints is not directly supported on repository methods
     // Would need to use EntityManager or @NamedQuery with hints
     @Query("SELECT u FROM User u WHERE u.active = true")
     List<User> findActiveUsersCached();
 
-    // Deprecated: Using DATE function (H2 specific, not portable)
-    @Query(value = "SELECT * FROM users WHERE DATE(created_at) = DATE(?1)", nativeQuery = true)
-    List<User> findUsersCreatedOnDate(Date date);
+    // Time-range queries compare the bare created_at column with a half-open range [from, to),
+    // so that idx_users_created_at can seek to the start of the range instead of scanning
+    @Query("SELECT u FROM User u WHERE u.createdAt >= :from AND u.createdAt < :to ORDER BY u.createdAt, u.id")
+    List<User> findCreatedBetween(@Param("from") Date from, @Param("to") Date to);
+
+    // Keyset pages in (createdAt, id) order: the range starts at the key of the last row of the
+    // previous page, so later pages cost the same as the first. The first page passes
+    // (from, 0). Pass PageRequest.of(0, size).
+    @Query("SELECT u FROM User u WHERE u.createdAt >= :afterCreatedAt AND u.createdAt < :to "
+            + "AND (u.createdAt > :afterCreatedAt OR u.id > :afterId) ORDER BY u.createdAt, u.id")
+    List<User> findCreatedAfter(@Param("afterCreatedAt") Date afterCreatedAt, @Param("afterId") long afterId,
+                                @Param("to") Date to, Pageable pageable);
+
+    // The same in descending order, newest first; the first page passes (to, 0)
+    @Query("SELECT u FROM User u WHERE u.createdAt >= :from AND u.createdAt <= :beforeCreatedAt "
+            + "AND (u.createdAt < :beforeCreatedAt OR u.id < :beforeId) ORDER BY u.createdAt DESC, u.id DESC")
+    List<User> findCreatedBefore(@Param("from") Date from, @Param("beforeCreatedAt") Date beforeCreatedAt,
+                                 @Param("beforeId") long beforeId, Pageable pageable);
+
+    // [day start, count] for each day of [from, to) with users created in it, in the server's time zone
+    @Query(value = "SELECT DATE_TRUNC('DAY', created_at) AS bucket, COUNT(*) FROM users "
+            + "WHERE created_at >= ?1 AND created_at < ?2 GROUP BY bucket ORDER BY bucket", nativeQuery = true)
+    List<Object[]> countCreatedByDay(Date from, Date to);
+
+    @Query(value = "SELECT DATE_TRUNC('MONTH', created_at) AS bucket, COUNT(*) FROM users "
+            + "WHERE created_at >= ?1 AND created_at < ?2 GROUP BY bucket ORDER BY bucket", nativeQuery = true)
+    List<Object[]> countCreatedByMonth(Date from, Date to);
+
+    // The day of {@code date} in the server's time zone, as a range rather than DATE(created_at)
+    default List<User> findUsersCreatedOnDate(Date date) {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate day = date.toInstant().atZone(zone).toLocalDate();
+        return findCreatedBetween(Date.from(day.atStartOfDay(zone).toInstant()),
+                Date.from(day.plusDays(1).atStartOfDay(zone).toInstant()));
+    }
 
-    // Deprecated: Using LIMIT in native query (not portable across databases)
-    @Query(value = "SELECT * FROM users ORDER BY created_at DESC LIMIT ?1", nativeQuery = true)
-    List<User> findRecentUsersWithLimit(int limit);
+    default List<User> findRecentUsersWithLimit(int limit) {
+        return findCreatedBefore(new Date(0L), new Date(MAX_CREATED_AT_MILLIS), 0L, PageRequest.of(0, limit));
+    }
 
     // Deprecated: Using Hibernate-specific flush mode
     @Modifying(flushAutomatically = false, clearAutomatically = false)
@@ -72,9 +127,13 @@ public interface LegacyUserRepository extends JpaRepository<User, Long> {
     @Query("SELECT u FROM User u WHERE u.id IN ?1")
     List<User> findUsersByIds(List<Long> ids);
 
-    // Deprecated: Using Hibernate-specific temporal functions
-    @Query("SELECT u FROM User u WHERE YEAR(u.createdAt) = :year AND MONTH(u.createdAt) = :month")
-    List<User> findUsersByYearAndMonth(@Param("year") int year, @Param("month") int month);
+    // The month as a range on created_at rather than YEAR() and MONTH() of every row
+    default List<User> findUsersByYearAndMonth(int year, int month) {
+        ZoneId zone = ZoneId.systemDefault();
+        YearMonth yearMonth = YearMonth.of(year, month);
+        return findCreatedBetween(Date.from(yearMonth.atDay(1).atStartOfDay(zone).toInstant()),
+                Date.from(yearMonth.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant()));
+    }
 
     // Deprecated: Using implicit type conversion
     @Query("SELECT u FROM User u WHERE u.status = :status")
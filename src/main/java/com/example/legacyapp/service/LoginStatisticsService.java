@@ -0,0 +1,225 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.UserLoginStats;
+import com.example.legacyapp.repository.CustomUserRepositoryImpl;
+import com.example.legacyapp.util.AppThreads;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-user login counts, maintained as login events arrive instead of being counted from
+ * the login history when read.
+ *
+ * Every user with a login has a counter in memory, loaded from user_login_stats at
+ * startup, so counts and statistics are read without touching the database. Recorded
+ * logins are added to user_login_stats in one batched transaction every
+ * {@code login-stats.flush-interval-ms} and on shutdown; a crash loses at most the logins
+ * of the last interval.
+ */
+@Service
+public class LoginStatisticsService {
+
+    public static final int MAX_EVENTS = 10000;
+
+    @Autowired
+    private CustomUserRepositoryImpl customUserRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private AppThreads appThreads;
+
+    @Value("${login-stats.flush-interval-ms:5000}")
+    private long flushIntervalMs;
+
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate.execute(status -> {
+            int imported = customUserRepository.importLoginHistory();
+            if (imported > 0) {
+                System.out.println("Counted the logins of " + imported + " users from user_logins");
+            }
+            for (UserLoginStats stats : customUserRepository.findAllLoginStats()) {
+                Counter counter = new Counter();
+                counter.username = stats.getUsername();
+                counter.count = stats.getLoginCount();
+                counter.lastLogin = stats.getLastLogin() != null ? stats.getLastLogin().getTime() : 0L;
+                counters.put(stats.getUserId(), counter);
+            }
+            return null;
+        });
+        flusher = Executors.newSingleThreadScheduledExecutor(appThreads.named("login-stats-flush"));
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                System.err.println("Error flushing login statistics: " + e.getMessage());
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * Counts one login per event. Every event needs a user id and username; an event
+     * without a time is taken to have happened now.
+     */
+    public void recordLogins(List<LoginEvent> events) {
+        if (events.size() > MAX_EVENTS) {
+            throw new IllegalArgumentException("At most " + MAX_EVENTS + " events per request");
+        }
+        for (LoginEvent event : events) {
+            if (event == null || event.userId == null || event.username == null) {
+                throw new IllegalArgumentException("Every event needs a userId and a username");
+            }
+        }
+        long now = System.currentTimeMillis();
+        for (LoginEvent event : events) {
+            record(event.userId, event.username, event.at != null ? event.at.getTime() : now);
+        }
+    }
+
+    private void record(Long userId, String username, long at) {
+        Counter counter = counters.computeIfAbsent(userId, id -> new Counter());
+        synchronized (counter) {
+            counter.username = username;
+            counter.count++;
+            counter.pending++;
+            counter.lastLogin = Math.max(counter.lastLogin, at);
+        }
+        dirty.add(userId);
+    }
+
+    public long getLoginCount(Long userId) {
+        Counter counter = counters.get(userId);
+        if (counter == null) {
+            return 0L;
+        }
+        synchronized (counter) {
+            return counter.count;
+        }
+    }
+
+    public Optional<UserLoginStats> getStats(Long userId) {
+        Counter counter = counters.get(userId);
+        return counter != null ? Optional.of(counter.snapshot(userId)) : Optional.empty();
+    }
+
+    /**
+     * The totals of every user that has logged in.
+     */
+    public List<UserLoginStats> getStatistics() {
+        List<UserLoginStats> statistics = new ArrayList<>(counters.size());
+        counters.forEach((userId, counter) -> statistics.add(counter.snapshot(userId)));
+        return statistics;
+    }
+
+    /**
+     * Writes the logins recorded since the last flush to user_login_stats and returns the
+     * number of users whose row changed. If the write fails the counts are kept for the
+     * next flush.
+     */
+    public int flush() {
+        flushLock.lock();
+        try {
+            return flushDirty();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private int flushDirty() {
+        List<UserLoginStats> deltas = new ArrayList<>();
+        for (Iterator<Long> ids = dirty.iterator(); ids.hasNext(); ) {
+            Long userId = ids.next();
+            // Removed before reading, so that a login recorded meanwhile marks it again
+            ids.remove();
+            Counter counter = counters.get(userId);
+            synchronized (counter) {
+                if (counter.pending > 0) {
+                    deltas.add(new UserLoginStats(userId, counter.username, counter.pending,
+                            new Date(counter.lastLogin)));
+                    counter.pending = 0;
+                }
+            }
+        }
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+        try {
+            transactionTemplate.execute(status -> {
+                customUserRepository.addLoginCounts(deltas);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            for (UserLoginStats delta : deltas) {
+                Counter counter = counters.get(delta.getUserId());
+                synchronized (counter) {
+                    counter.pending += delta.getLoginCount();
+                }
+                dirty.add(delta.getUserId());
+            }
+            throw e;
+        }
+        return deltas.size();
+    }
+
+    /**
+     * Totals of one user; {@code pending} is the part not yet written to the database.
+     */
+    private static final class Counter {
+        private String username;
+        private long count;
+        private long pending;
+        private long lastLogin;
+
+        synchronized UserLoginStats snapshot(Long userId) {
+            return new UserLoginStats(userId, username, count, lastLogin != 0L ? new Date(lastLogin) : null);
+        }
+    }
+
+    public static class LoginEvent {
+        private Long userId;
+        private String username;
+        private Date at;
+
+        public Long getUserId() { return userId; }
+        public void setUserId(Long userId) { this.userId = userId; }
+        public String getUsername() { return username; }
+        public void setUsername(String username) { this.username = username; }
+        public Date getAt() { return at; }
+        public void setAt(Date at) { this.at = at; }
+    }
+}
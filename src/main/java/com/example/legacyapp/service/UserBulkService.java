@@ -0,0 +1,298 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.repository.CustomUserRepositoryImpl;
+import com.example.legacyapp.repository.LegacyUserRepository;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Creates, updates and deletes users in bulk, for the file-backed users as well as the
+ * database users. Items are validated in parallel, the valid ones are written together,
+ * and the {@link Result} reports the outcome of every item by its position in the request,
+ * so one bad item does not fail the rest.
+ */
+@Service
+public class UserBulkService {
+
+    public static final int MAX_ITEMS = 10000;
+
+    private static final int LOOKUP_CHUNK_SIZE = 1000;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private LegacyUserRepository legacyUserRepository;
+
+    @Autowired
+    private CustomUserRepositoryImpl customUserRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private Validator validator;
+
+    public Result createUsers(List<User> users) {
+        checkSize(users);
+        Result result = new Result(users.size());
+        List<Integer> valid = validate(users, false, result);
+        List<User> created = userService.createUsers(select(users, valid));
+        for (int i = 0; i < valid.size(); i++) {
+            result.set(valid.get(i), 201, created.get(i).getId());
+        }
+        return result;
+    }
+
+    public Result updateUsers(List<User> users) {
+        checkSize(users);
+        Result result = new Result(users.size());
+        List<Integer> valid = validate(users, true, result);
+        List<User> updated = userService.updateUsers(select(users, valid));
+        for (int i = 0; i < valid.size(); i++) {
+            int index = valid.get(i);
+            result.set(index, updated.get(i) != null ? 200 : 404, users.get(index).getId());
+        }
+        return result;
+    }
+
+    public Result deleteUsers(List<Long> ids) {
+        checkSize(ids);
+        Result result = new Result(ids.size());
+        List<Integer> valid = validateIds(ids, result);
+        boolean[] deleted = userService.deleteUsers(select(ids, valid));
+        for (int i = 0; i < valid.size(); i++) {
+            int index = valid.get(i);
+            result.set(index, deleted[i] ? 204 : 404, ids.get(index));
+        }
+        return result;
+    }
+
+    /**
+     * Inserts the valid users into the database in JDBC batches. Users whose username is
+     * already taken, in the table or by an earlier item, are rejected with 409.
+     */
+    @Transactional
+    public Result createDatabaseUsers(List<User> users) {
+        checkSize(users);
+        Result result = new Result(users.size());
+        List<Integer> valid = validate(users, false, result);
+        Map<String, Long> taken = findIdsByUsernames(select(users, valid));
+        List<Integer> accepted = new ArrayList<>(valid.size());
+        for (int index : valid) {
+            if (taken.putIfAbsent(users.get(index).getUsername(), 0L) != null) {
+                result.set(index, 409, null, "username: already exists");
+            } else {
+                accepted.add(index);
+            }
+        }
+        List<User> inserted = select(users, accepted);
+        customUserRepository.batchInsertUsers(inserted);
+        for (int i = 0; i < accepted.size(); i++) {
+            result.set(accepted.get(i), 201, inserted.get(i).getId());
+        }
+        return result;
+    }
+
+    /**
+     * Applies the username and email of each valid item to the database user with its id.
+     * The users are loaded in chunks, detached and written back with batched updates.
+     */
+    @Transactional
+    public Result updateDatabaseUsers(List<User> users) {
+        checkSize(users);
+        Result result = new Result(users.size());
+        List<Integer> valid = validate(users, true, result);
+        Map<String, Long> taken = findIdsByUsernames(select(users, valid));
+        Map<Long, User> existing = new HashMap<>();
+        List<Long> ids = new ArrayList<>(valid.size());
+        for (int index : valid) {
+            ids.add(users.get(index).getId());
+        }
+        for (int start = 0; start < ids.size(); start += LOOKUP_CHUNK_SIZE) {
+            for (User user : legacyUserRepository.findAllById(ids.subList(start,
+                    Math.min(ids.size(), start + LOOKUP_CHUNK_SIZE)))) {
+                existing.put(user.getId(), user);
+            }
+        }
+        entityManager.clear();
+
+        Map<Long, User> changed = new HashMap<>();
+        for (int index : valid) {
+            User update = users.get(index);
+            User user = existing.get(update.getId());
+            Long holder = taken.putIfAbsent(update.getUsername(), update.getId());
+            if (user == null) {
+                result.set(index, 404, update.getId());
+            } else if (holder != null && !holder.equals(update.getId())) {
+                result.set(index, 409, update.getId(), "username: already exists");
+            } else {
+                user.setUsername(update.getUsername());
+                user.setEmail(update.getEmail());
+                changed.put(user.getId(), user);
+                result.set(index, 200, update.getId());
+            }
+        }
+        customUserRepository.batchUpdateUsers(new ArrayList<>(changed.values()));
+        return result;
+    }
+
+    @Transactional
+    public Result deleteDatabaseUsers(List<Long> ids) {
+        checkSize(ids);
+        Result result = new Result(ids.size());
+        List<Integer> valid = validateIds(ids, result);
+        boolean[] deleted = customUserRepository.batchDeleteUsers(select(ids, valid));
+        for (int i = 0; i < valid.size(); i++) {
+            int index = valid.get(i);
+            result.set(index, deleted[i] ? 204 : 404, ids.get(index));
+        }
+        return result;
+    }
+
+    private Map<String, Long> findIdsByUsernames(List<User> users) {
+        List<String> usernames = new ArrayList<>(users.stream()
+                .map(User::getUsername).collect(Collectors.toSet()));
+        Map<String, Long> ids = new HashMap<>();
+        for (int start = 0; start < usernames.size(); start += LOOKUP_CHUNK_SIZE) {
+            for (Object[] row : legacyUserRepository.findIdsByUsernames(usernames.subList(start,
+                    Math.min(usernames.size(), start + LOOKUP_CHUNK_SIZE)))) {
+                ids.put((String) row[1], (Long) row[0]);
+            }
+        }
+        return ids;
+    }
+
+    private static void checkSize(List<?> items) {
+        if (items.size() > MAX_ITEMS) {
+            throw new IllegalArgumentException("At most " + MAX_ITEMS + " items per request");
+        }
+    }
+
+    /**
+     * Validates the users in parallel, records a 400 for each invalid one and returns the
+     * indexes of the valid ones in order.
+     */
+    private List<Integer> validate(List<User> users, boolean requireId, Result result) {
+        List<List<String>> errors = validateAll(users, requireId);
+        List<Integer> valid = new ArrayList<>(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            if (errors.get(i).isEmpty()) {
+                valid.add(i);
+            } else {
+                User user = users.get(i);
+                result.set(i, 400, user != null ? user.getId() : null, errors.get(i).toArray(new String[0]));
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * The constraint violations of each user, validated in parallel; an empty list for a
+     * valid user.
+     */
+    List<List<String>> validateAll(List<User> users, boolean requireId) {
+        return IntStream.range(0, users.size()).parallel()
+                .mapToObj(i -> errors(users.get(i), requireId))
+                .collect(Collectors.toList());
+    }
+
+    private List<String> errors(User user, boolean requireId) {
+        if (user == null) {
+            return Collections.singletonList("user is required");
+        }
+        List<String> errors = new ArrayList<>();
+        if (requireId && user.getId() == null) {
+            errors.add("id: is required");
+        }
+        for (ConstraintViolation<User> violation : validator.validate(user)) {
+            errors.add(violation.getPropertyPath() + ": " + violation.getMessage());
+        }
+        Collections.sort(errors);
+        return errors;
+    }
+
+    private static List<Integer> validateIds(List<Long> ids, Result result) {
+        List<Integer> valid = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            if (ids.get(i) != null) {
+                valid.add(i);
+            } else {
+                result.set(i, 400, null, "id: is required");
+            }
+        }
+        return valid;
+    }
+
+    private static <T> List<T> select(List<T> items, List<Integer> indexes) {
+        List<T> selected = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            selected.add(items.get(index));
+        }
+        return selected;
+    }
+
+    /**
+     * Outcome of a bulk request: one item per request item, in request order, with an
+     * HTTP-style status and, for failures, the reasons.
+     */
+    public static final class Result {
+        private final Item[] items;
+
+        Result(int size) {
+            items = new Item[size];
+        }
+
+        void set(int index, int status, Long id, String... errors) {
+            items[index] = new Item(index, status, id, errors.length > 0 ? Arrays.asList(errors) : null);
+        }
+
+        public int getSucceeded() {
+            return (int) Arrays.stream(items).filter(item -> item.status < 400).count();
+        }
+
+        public int getFailed() {
+            return items.length - getSucceeded();
+        }
+
+        public List<Item> getItems() {
+            return Arrays.asList(items);
+        }
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static final class Item {
+        private final int index;
+        private final int status;
+        private final Long id;
+        private final List<String> errors;
+
+        Item(int index, int status, Long id, List<String> errors) {
+            this.index = index;
+            this.status = status;
+            this.id = id;
+            this.errors = errors;
+        }
+
+        public int getIndex() { return index; }
+        public int getStatus() { return status; }
+        public Long getId() { return id; }
+        public List<String> getErrors() { return errors; }
+    }
+}
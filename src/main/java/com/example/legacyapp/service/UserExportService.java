@@ -0,0 +1,123 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.repository.LegacyUserRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Writes users as newline-delimited JSON, one object per line, straight to an output
+ * stream. Users are read and written in batches, and the output is flushed after each
+ * batch, so memory use does not grow with the number of users and the first lines go
+ * out as soon as the first batch is read.
+ */
+@Service
+public class UserExportService {
+
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private LegacyUserRepository legacyUserRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Exports the file-backed users in id order, paging through the ordered id index.
+     * Returns the number of users written.
+     */
+    public long exportUsers(OutputStream out) throws IOException {
+        try (UserLines lines = new UserLines(out)) {
+            long after = 0L;
+            List<User> batch;
+            do {
+                batch = userService.getUsersAfter(after, BATCH_SIZE);
+                lines.write(batch);
+                if (!batch.isEmpty()) {
+                    after = batch.get(batch.size() - 1).getId();
+                }
+            } while (batch.size() == BATCH_SIZE);
+            return lines.count;
+        }
+    }
+
+    /**
+     * Exports the database users created after {@code createdAfter} from a streamed query.
+     * The persistence context is cleared after each batch so that the session does not
+     * hold on to every entity read.
+     */
+    @Transactional(readOnly = true)
+    public long exportDatabaseUsers(Date createdAfter, OutputStream out) throws IOException {
+        try (UserLines lines = new UserLines(out);
+             Stream<User> users = legacyUserRepository.iterateUsersCreatedAfter(createdAfter)) {
+            List<User> batch = new ArrayList<>(BATCH_SIZE);
+            Iterator<User> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == BATCH_SIZE) {
+                    writeAndClear(lines, batch);
+                }
+            }
+            writeAndClear(lines, batch);
+            return lines.count;
+        }
+    }
+
+    private void writeAndClear(UserLines lines, List<User> batch) throws IOException {
+        // Serializing a whole batch before clearing lets lazy roles and permissions load
+        // in batches rather than with two queries per user
+        lines.write(batch);
+        batch.clear();
+        entityManager.clear();
+    }
+
+    private final class UserLines implements AutoCloseable {
+        private final JsonGenerator json;
+        private final ObjectWriter writer;
+        private long count;
+
+        UserLines(OutputStream out) throws IOException {
+            json = objectMapper.getFactory().createGenerator(out);
+            json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            json.setRootValueSeparator(null);
+            writer = objectMapper.writerFor(User.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        }
+
+        void write(List<User> users) throws IOException {
+            for (User user : users) {
+                writer.writeValue(json, user);
+                json.writeRaw('\n');
+                count++;
+            }
+            json.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            json.close();
+        }
+    }
+}
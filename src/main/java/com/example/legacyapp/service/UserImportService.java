@@ -0,0 +1,594 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.repository.CustomUserRepositoryImpl;
+import com.example.legacyapp.repository.LegacyUserRepository;
+import com.example.legacyapp.util.AppThreads;
+import com.example.legacyapp.util.CsvReader;
+import com.example.legacyapp.util.FileStorageService;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Imports users from CSV uploads into the database as background jobs.
+ *
+ * Each job runs as a pipeline of three stages on their own threads, connected by small
+ * bounded queues so that a slow stage holds back the ones before it:
+ * <ol>
+ *   <li>parse: streams the upload through a {@link CsvReader} into batches of rows;</li>
+ *   <li>validate: checks each batch against the {@link User} constraints in parallel;</li>
+ *   <li>write: drops users whose username or email is already taken, then inserts the rest
+ *   with batched JDBC statements, one transaction per batch.</li>
+ * </ol>
+ * After each committed batch the job, including the byte offset of the next row, is saved
+ * under {@code data/imports}. A job that failed, was cancelled or was cut short by a
+ * shutdown can be resumed from there; rows of a batch whose checkpoint was lost are
+ * skipped as duplicates when they are read again.
+ *
+ * The CSV needs a header row. Recognized columns are username, email, password, fullName
+ * (or full_name), status, tenantId (or tenant_id) and active; others are ignored.
+ */
+@Service
+public class UserImportService {
+
+    private static final Path JOB_DIR = Paths.get("data/imports");
+    private static final int BATCH_SIZE = 1000;
+    private static final int QUEUE_CAPACITY = 4;
+    private static final int MAX_ERRORS = 100;
+    private static final long PROGRESS_INTERVAL_MS = 10_000L;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private UserBulkService userBulkService;
+
+    @Autowired
+    private LegacyUserRepository legacyUserRepository;
+
+    @Autowired
+    private CustomUserRepositoryImpl customUserRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private AppThreads appThreads;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Set<String> cancelRequests = ConcurrentHashMap.newKeySet();
+    private volatile boolean shuttingDown;
+    private ExecutorService runner;
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(JOB_DIR);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(JOB_DIR, "*.json")) {
+            for (Path file : files) {
+                Job job = objectMapper.readValue(file.toFile(), Job.class);
+                if (job.state == State.QUEUED || job.state == State.RUNNING) {
+                    // The process stopped under the job; it can be resumed from its checkpoint
+                    job.state = State.INTERRUPTED;
+                    save(job);
+                }
+                jobs.put(job.id, job);
+            }
+        }
+        // One job at a time: concurrent imports would only compete for the same database
+        runner = Executors.newSingleThreadExecutor(appThreads.named("user-import"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        runner.shutdown();
+        try {
+            runner.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stores {@code content} as an upload and queues an import of it.
+     */
+    public Job importCsv(InputStream content) throws IOException {
+        String upload = "import-" + UUID.randomUUID() + ".csv";
+        fileStorageService.storeUpload(upload, content);
+        return submit(upload);
+    }
+
+    /**
+     * Queues an import of an existing upload; throws {@link java.nio.file.NoSuchFileException}
+     * when there is no such upload.
+     */
+    public Job submit(String upload) throws IOException {
+        Job job = new Job();
+        job.id = UUID.randomUUID().toString();
+        job.upload = upload;
+        job.size = fileStorageService.uploadSize(upload);
+        job.state = State.QUEUED;
+        job.createdAt = new Date();
+        job.lock.lock();
+        try {
+            save(job);
+        } finally {
+            job.lock.unlock();
+        }
+        jobs.put(job.id, job);
+        runner.execute(() -> run(job));
+        return snapshot(job);
+    }
+
+    public List<Job> getJobs() {
+        return jobs.values().stream()
+                .map(this::snapshot)
+                .sorted(Comparator.comparing(Job::getCreatedAt))
+                .collect(Collectors.toList());
+    }
+
+    public Optional<Job> getJob(String id) {
+        return Optional.ofNullable(jobs.get(id)).map(this::snapshot);
+    }
+
+    /**
+     * Queues a failed, cancelled or interrupted job again; it carries on from its last
+     * checkpoint. Throws {@link IllegalStateException} for a job in any other state.
+     */
+    public Optional<Job> resume(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return Optional.empty();
+        }
+        job.lock.lock();
+        try {
+            if (job.state != State.FAILED && job.state != State.CANCELLED && job.state != State.INTERRUPTED) {
+                throw new IllegalStateException("Job " + id + " is " + job.state);
+            }
+            cancelRequests.remove(id);
+            job.state = State.QUEUED;
+            job.failure = null;
+            save(job);
+        } finally {
+            job.lock.unlock();
+        }
+        runner.execute(() -> run(job));
+        return Optional.of(snapshot(job));
+    }
+
+    /**
+     * Asks a queued or running job to stop after the batch it is writing. Throws
+     * {@link IllegalStateException} for a job in any other state.
+     */
+    public Optional<Job> cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return Optional.empty();
+        }
+        job.lock.lock();
+        try {
+            if (job.state != State.QUEUED && job.state != State.RUNNING) {
+                throw new IllegalStateException("Job " + id + " is " + job.state);
+            }
+            cancelRequests.add(id);
+        } finally {
+            job.lock.unlock();
+        }
+        return Optional.of(snapshot(job));
+    }
+
+    private void run(Job job) {
+        job.lock.lock();
+        try {
+            if (cancelRequests.remove(job.id) || shuttingDown) {
+                job.state = shuttingDown ? State.INTERRUPTED : State.CANCELLED;
+                save(job);
+                return;
+            }
+            job.state = State.RUNNING;
+            job.startedAt = new Date();
+            job.finishedAt = null;
+            save(job);
+        } finally {
+            job.lock.unlock();
+        }
+        State end;
+        String failure = null;
+        try {
+            new Pipeline(job).run();
+            end = State.COMPLETED;
+        } catch (CancellationException e) {
+            end = shuttingDown ? State.INTERRUPTED : State.CANCELLED;
+        } catch (Exception e) {
+            end = State.FAILED;
+            failure = e.toString();
+        }
+        cancelRequests.remove(job.id);
+        job.lock.lock();
+        try {
+            job.state = end;
+            job.failure = failure;
+            job.finishedAt = new Date();
+            save(job);
+            System.out.println("Import " + job.id + " " + end + ": " + progress(job));
+        } finally {
+            job.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the job to its file; callers hold {@code job.lock}.
+     */
+    private void save(Job job) {
+        Path file = JOB_DIR.resolve(job.id + ".json");
+        Path tmp = JOB_DIR.resolve(job.id + ".json.tmp");
+        try {
+            objectMapper.writeValue(tmp.toFile(), job);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Error saving import job " + job.id + ": " + e.getMessage());
+        }
+    }
+
+    private Job snapshot(Job job) {
+        job.lock.lock();
+        try {
+            return objectMapper.convertValue(job, Job.class);
+        } finally {
+            job.lock.unlock();
+        }
+    }
+
+    private static String progress(Job job) {
+        return String.format("%d rows, %d imported, %d duplicates, %d invalid, %.0f rows/s",
+                job.rows, job.imported, job.duplicates, job.invalid, job.rowsPerSecond);
+    }
+
+    private static User toUser(List<String> columns, String[] record) {
+        User user = new User();
+        for (int i = 0; i < Math.min(columns.size(), record.length); i++) {
+            String value = record[i].trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            switch (columns.get(i)) {
+                case "username": user.setUsername(value); break;
+                case "email": user.setEmail(value); break;
+                case "password": user.setPassword(value); break;
+                case "fullname": user.setFullName(value); break;
+                case "status": user.setStatus(value); break;
+                case "tenantid": user.setTenantId(value); break;
+                case "active": user.setActive(value.equalsIgnoreCase("true") || value.equals("1")); break;
+                default: break;
+            }
+        }
+        return user;
+    }
+
+    /**
+     * One run of a job's stages. The write stage runs on the calling thread; if any stage
+     * fails or the job is cancelled, the others stop at their next queue operation.
+     */
+    private final class Pipeline {
+        private final Job job;
+        private final BlockingQueue<Batch> parsed = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final BlockingQueue<Batch> validated = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private volatile Exception failure;
+        private volatile boolean stopped;
+        private final long runStart = System.nanoTime();
+        private final long runStartRows;
+        private long lastReport = System.currentTimeMillis();
+
+        Pipeline(Job job) {
+            this.job = job;
+            job.lock.lock();
+            try {
+                this.runStartRows = job.rows;
+            } finally {
+                job.lock.unlock();
+            }
+        }
+
+        void run() throws Exception {
+            Thread parser = stage("parse", this::parse);
+            Thread validator = stage("validate", this::validate);
+            try {
+                write();
+            } finally {
+                stopped = true;
+                parser.join();
+                validator.join();
+            }
+        }
+
+        private Thread stage(String name, Stage stage) {
+            Thread thread = appThreads.named("user-import-" + name).newThread(() -> {
+                try {
+                    stage.run();
+                } catch (CancellationException e) {
+                    // Stopped by another stage or by a cancel request
+                } catch (Exception e) {
+                    failure = e;
+                }
+            });
+            thread.start();
+            return thread;
+        }
+
+        private void parse() throws Exception {
+            long offset;
+            long row;
+            List<String> columns;
+            job.lock.lock();
+            try {
+                offset = job.offset;
+                row = job.rows;
+                columns = job.columns;
+            } finally {
+                job.lock.unlock();
+            }
+            try (CsvReader csv = new CsvReader(fileStorageService.openUpload(job.upload, offset), offset)) {
+                if (columns == null) {
+                    String[] header = csv.next();
+                    columns = new ArrayList<>();
+                    for (String column : header != null ? header : new String[0]) {
+                        columns.add(column.trim().replace("_", "").toLowerCase(Locale.ROOT));
+                    }
+                    job.lock.lock();
+                    try {
+                        job.columns = columns;
+                        job.offset = csv.getOffset();
+                    } finally {
+                        job.lock.unlock();
+                    }
+                }
+                Batch batch = new Batch();
+                String[] record;
+                while ((record = csv.next()) != null) {
+                    batch.users.add(toUser(columns, record));
+                    batch.endRow = ++row;
+                    if (batch.users.size() == BATCH_SIZE) {
+                        batch.endOffset = csv.getOffset();
+                        put(parsed, batch);
+                        batch = new Batch();
+                    }
+                }
+                if (!batch.users.isEmpty()) {
+                    batch.endOffset = csv.getOffset();
+                    put(parsed, batch);
+                }
+                put(parsed, Batch.END);
+            }
+        }
+
+        private void validate() throws Exception {
+            while (true) {
+                Batch batch = take(parsed);
+                if (batch != Batch.END) {
+                    batch.errors = userBulkService.validateAll(batch.users, false);
+                }
+                put(validated, batch);
+                if (batch == Batch.END) {
+                    return;
+                }
+            }
+        }
+
+        private void write() throws Exception {
+            while (true) {
+                Batch batch = take(validated);
+                if (batch == Batch.END) {
+                    return;
+                }
+                checkRunning();
+                commit(batch);
+            }
+        }
+
+        private void commit(Batch batch) {
+            List<User> valid = new ArrayList<>(batch.users.size());
+            List<String> errors = new ArrayList<>();
+            long firstRow = batch.endRow - batch.users.size() + 1;
+            for (int i = 0; i < batch.users.size(); i++) {
+                if (batch.errors.get(i).isEmpty()) {
+                    valid.add(batch.users.get(i));
+                } else {
+                    errors.add("row " + (firstRow + i) + ": " + String.join(", ", batch.errors.get(i)));
+                }
+            }
+            Integer inserted = transactionTemplate.execute(status -> {
+                List<User> fresh = withoutExisting(valid);
+                customUserRepository.batchInsertUsers(fresh);
+                return fresh.size();
+            });
+            job.lock.lock();
+            try {
+                job.offset = batch.endOffset;
+                job.rows = batch.endRow;
+                job.imported += inserted;
+                job.duplicates += valid.size() - inserted;
+                job.invalid += errors.size();
+                for (int i = 0; i < errors.size() && job.errors.size() < MAX_ERRORS; i++) {
+                    job.errors.add(errors.get(i));
+                }
+                double seconds = (System.nanoTime() - runStart) / 1e9;
+                job.rowsPerSecond = seconds > 0 ? (job.rows - runStartRows) / seconds : 0;
+                save(job);
+                if (System.currentTimeMillis() - lastReport >= PROGRESS_INTERVAL_MS) {
+                    lastReport = System.currentTimeMillis();
+                    System.out.println("Import " + job.id + ": " + progress(job));
+                }
+            } finally {
+                job.lock.unlock();
+            }
+        }
+
+        /**
+         * The users whose username and email are neither in the table nor used by an
+         * earlier user of the same batch.
+         */
+        private List<User> withoutExisting(List<User> users) {
+            Set<String> usernames = new HashSet<>();
+            Set<String> emails = new HashSet<>();
+            for (User user : users) {
+                usernames.add(user.getUsername());
+                emails.add(user.getEmail());
+            }
+            Set<String> takenUsernames = new HashSet<>();
+            if (!usernames.isEmpty()) {
+                for (Object[] row : legacyUserRepository.findIdsByUsernames(usernames)) {
+                    takenUsernames.add((String) row[1]);
+                }
+            }
+            Set<String> takenEmails = emails.isEmpty()
+                    ? new HashSet<>() : new HashSet<>(legacyUserRepository.findExistingEmails(emails));
+            List<User> fresh = new ArrayList<>(users.size());
+            for (User user : users) {
+                if (!takenUsernames.contains(user.getUsername()) && !takenEmails.contains(user.getEmail())) {
+                    takenUsernames.add(user.getUsername());
+                    takenEmails.add(user.getEmail());
+                    fresh.add(user);
+                }
+            }
+            return fresh;
+        }
+
+        private void put(BlockingQueue<Batch> queue, Batch batch) throws InterruptedException {
+            while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                checkRunning();
+            }
+        }
+
+        private Batch take(BlockingQueue<Batch> queue) throws Exception {
+            while (true) {
+                Batch batch = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (batch != null) {
+                    return batch;
+                }
+                checkRunning();
+            }
+        }
+
+        private void checkRunning() {
+            if (failure != null) {
+                throw new IllegalStateException("Import stage failed: " + failure, failure);
+            }
+            if (stopped || shuttingDown || cancelRequests.contains(job.id)) {
+                throw new CancellationException();
+            }
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private static final class Batch {
+        static final Batch END = new Batch();
+
+        private final List<User> users = new ArrayList<>(BATCH_SIZE);
+        private List<List<String>> errors;
+        private long endRow;
+        private long endOffset;
+    }
+
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED, INTERRUPTED
+    }
+
+    /**
+     * State and progress of an import. {@code offset} and {@code rows} are the checkpoint:
+     * the byte offset in the upload and the number of data rows up to which every row
+     * has been committed or rejected.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static final class Job {
+        private String id;
+        private String upload;
+        private State state;
+        private Date createdAt;
+        private Date startedAt;
+        private Date finishedAt;
+        private long size;
+        private long offset;
+        private List<String> columns;
+        private long rows;
+        private long imported;
+        private long duplicates;
+        private long invalid;
+        private double rowsPerSecond;
+        private List<String> errors = new ArrayList<>();
+        private String failure;
+        // Held while the job is read, changed or saved; not a monitor, so that saving
+        // does not pin a virtual thread
+        private final transient ReentrantLock lock = new ReentrantLock();
+
+        public String getId() { return id; }
+        public void setId(String id) { this.id = id; }
+        public String getUpload() { return upload; }
+        public void setUpload(String upload) { this.upload = upload; }
+        public State getState() { return state; }
+        public void setState(State state) { this.state = state; }
+        public Date getCreatedAt() { return createdAt; }
+        public void setCreatedAt(Date createdAt) { this.createdAt = createdAt; }
+        public Date getStartedAt() { return startedAt; }
+        public void setStartedAt(Date startedAt) { this.startedAt = startedAt; }
+        public Date getFinishedAt() { return finishedAt; }
+        public void setFinishedAt(Date finishedAt) { this.finishedAt = finishedAt; }
+        public long getSize() { return size; }
+        public void setSize(long size) { this.size = size; }
+        public long getOffset() { return offset; }
+        public void setOffset(long offset) { this.offset = offset; }
+        public List<String> getColumns() { return columns; }
+        public void setColumns(List<String> columns) { this.columns = columns; }
+        public long getRows() { return rows; }
+        public void setRows(long rows) { this.rows = rows; }
+        public long getImported() { return imported; }
+        public void setImported(long imported) { this.imported = imported; }
+        public long getDuplicates() { return duplicates; }
+        public void setDuplicates(long duplicates) { this.duplicates = duplicates; }
+        public long getInvalid() { return invalid; }
+        public void setInvalid(long invalid) { this.invalid = invalid; }
+        public double getRowsPerSecond() { return rowsPerSecond; }
+        public void setRowsPerSecond(double rowsPerSecond) { this.rowsPerSecond = rowsPerSecond; }
+        public List<String> getErrors() { return errors; }
+        public void setErrors(List<String> errors) { this.errors = errors; }
+        public String getFailure() { return failure; }
+        public void setFailure(String failure) { this.failure = failure; }
+    }
+}
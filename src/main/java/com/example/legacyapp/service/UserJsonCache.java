@@ -0,0 +1,78 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.User;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * The JSON of file-backed users as the application's {@link ObjectMapper} writes them,
+ * kept per user so that reads send the bytes instead of serializing the user again.
+ *
+ * An entry is used only for the user version it was encoded from, so a fragment written
+ * by a reader that raced an update is never sent for the new version. {@link UserService}
+ * drops the entries of the users it changes or deletes. At most
+ * {@code users.json-cache.max-entries} users are kept (0 keeps none); hits, misses and
+ * evictions are published as {@code cache.*} metrics for {@code userJson}.
+ */
+@Component
+public class UserJsonCache {
+
+    @Value("${users.json-cache.max-entries:100000}")
+    private long maxEntries;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<Long, Fragment> fragments;
+    private ObjectWriter writer;
+
+    @PostConstruct
+    public void init() {
+        fragments = CacheBuilder.newBuilder().maximumSize(maxEntries).recordStats().build();
+        GuavaCacheMetrics.monitor(meterRegistry, fragments, "userJson");
+        writer = objectMapper.writerFor(User.class);
+    }
+
+    /**
+     * The JSON object for {@code user}. A miss is encoded and, with {@code keep}, cached;
+     * reads of every user pass false so that they do not push out the users read often.
+     */
+    public byte[] json(User user, boolean keep) throws JsonProcessingException {
+        Fragment fragment = fragments.getIfPresent(user.getId());
+        if (fragment != null && fragment.version == user.getVersion()) {
+            return fragment.json;
+        }
+        byte[] json = writer.writeValueAsBytes(user);
+        if (keep) {
+            fragments.put(user.getId(), new Fragment(user.getVersion(), json));
+        }
+        return json;
+    }
+
+    public void invalidate(Long id) {
+        fragments.invalidate(id);
+    }
+
+    private static final class Fragment {
+        private final long version;
+        private final byte[] json;
+
+        Fragment(long version, byte[] json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+}
@@ -3,24 +3,39 @@ package com.example.legacyapp.service;
 import com.example.legacyapp.model.User;
 import com.example.legacyapp.util.FileStorageService;
 import com.example.legacyapp.util.Java8Features;
+import com.example.legacyapp.util.PrefixIndex;
+import com.example.legacyapp.util.SortedLongSet;
+import com.example.legacyapp.util.TrigramIndex;
+import com.example.legacyapp.util.UserAttributeIndex;
+import com.example.legacyapp.util.UserIdAllocator;
+import com.example.legacyapp.util.UserStore;
+import com.example.legacyapp.util.UserWriteAheadLog;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
-import org.apache.commons.io.FileUtils;
+import com.google.common.util.concurrent.Striped;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import javax.annotation.PostConstruct;
-import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
 
 @Service
 public class UserService {
 
-    private final Map<Long, User> userDatabase = new ConcurrentHashMap<>();
-    private Long currentId = 1L;
+    private static final int LOCK_STRIPES = 1024;
+
+    // Writes to one user are serialized so that the store and the log see them in the
+    // same order; writes to users on different stripes run in parallel
+    private final Striped<Lock> userLocks = Striped.lock(LOCK_STRIPES);
+
+    @Autowired
+    private UserStore userStore;
     
     @Autowired
     private FileStorageService fileStorageService;
@@ -28,80 +43,487 @@ public class UserService {
     @Autowired
     private Java8Features java8Features;
 
+    @Autowired
+    private UserWriteBehind writeBehind;
+
+    @Autowired
+    private UserJsonCache userJsonCache;
+
+    @Value("${storage.user-id.block-size:1000}")
+    private int idBlockSize;
+
+    private UserIdAllocator idAllocator;
+
+    private final TrigramIndex usernameIndex = new TrigramIndex();
+
+    private final PrefixIndex suggestIndex = new PrefixIndex();
+
+    private final UserAttributeIndex attributeIndex = new UserAttributeIndex();
+
+    // Ids in ascending order, so that pages can be served by seeking to the last id seen
+    private final SortedLongSet userIds = new SortedLongSet();
+    private final ReadWriteLock userIdsLock = new ReentrantReadWriteLock();
+
+    // Raised after every change has been applied, so a reader that saw a value before a
+    // query knows the result is at least that recent
+    private final AtomicLong storeVersion = new AtomicLong();
+
     @PostConstruct
     public void init() {
         loadUsersFromFile();
+        userStore.forEachId(userIds::addUnordered);
+        userIds.sort();
+        long start = System.nanoTime();
+        usernameIndex.build(userStore, User::getUsername);
+        System.out.printf("Username index: %s, built in %d ms%n", usernameIndex,
+                (System.nanoTime() - start) / 1000000);
+        start = System.nanoTime();
+        suggestIndex.build(userStore, UserService::suggestKeys);
+        System.out.printf("Suggest index: %s, %.1f bytes per user, built in %d ms%n", suggestIndex,
+                (double) suggestIndex.memoryBytes() / Math.max(1, userStore.size()),
+                (System.nanoTime() - start) / 1000000);
+        start = System.nanoTime();
+        attributeIndex.build(userStore);
+        System.out.printf("Attribute index: %s, built in %d ms%n", attributeIndex,
+                (System.nanoTime() - start) / 1000000);
+        long firstId = Math.max(userStore.maxId() + 1, fileStorageService.getReservedUserIds());
+        idAllocator = new UserIdAllocator(firstId, idBlockSize, fileStorageService::reserveUserIds);
     }
 
     private void loadUsersFromFile() {
         try {
-            File dataFile = new File("data/users.txt");
-            if (dataFile.exists()) {
-                List<String> lines = FileUtils.readLines(dataFile, StandardCharsets.UTF_8);
-                lines.forEach(line -> {
-                    String[] parts = line.split(",");
-                    if (parts.length >= 3) {
-                        User user = new User();
-                        user.setId(Long.parseLong(parts[0]));
-                        user.setUsername(parts[1]);
-                        user.setEmail(parts[2]);
-                        userDatabase.put(user.getId(), user);
-                    }
-                });
-            }
+            fileStorageService.loadUsers(userStore);
+            System.out.println("User store: " + userStore);
         } catch (IOException e) {
             System.err.println("Error loading users: " + e.getMessage());
         }
     }
 
+    /**
+     * A number that grows with every change to the users. It is kept in memory only and
+     * starts again from 0 on restart.
+     */
+    public long getStoreVersion() {
+        return storeVersion.get();
+    }
+
     public List<User> getAllUsers() {
-        return ImmutableList.copyOf(userDatabase.values());
+        return ImmutableList.copyOf(userStore.values());
+    }
+
+    /**
+     * Up to {@code limit} users with ids greater than {@code afterId}, in id order. Each
+     * call seeks into the ordered id index, so a page costs the same however far into the
+     * user set it starts.
+     */
+    public List<User> getUsersAfter(long afterId, int limit) {
+        List<User> users = new ArrayList<>(limit);
+        long after = afterId;
+        while (users.size() < limit) {
+            long[] ids;
+            userIdsLock.readLock().lock();
+            try {
+                ids = userIds.after(after, limit - users.size());
+            } finally {
+                userIdsLock.readLock().unlock();
+            }
+            if (ids.length == 0) {
+                break;
+            }
+            for (long id : ids) {
+                // Users deleted since the ids were read are skipped and the page topped up
+                User user = userStore.get(id);
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+            after = ids[ids.length - 1];
+        }
+        return users;
+    }
+
+    /**
+     * Up to {@code limit} users with ids greater than {@code afterId} that match every
+     * predicate of {@code filter}, in id order. Candidates come from the attribute indexes
+     * and are checked against the stored user.
+     */
+    public List<User> findUsers(UserAttributeIndex.Filter filter, long afterId, int limit) {
+        List<User> users = new ArrayList<>(limit);
+        long after = afterId;
+        while (users.size() < limit) {
+            long[] ids = attributeIndex.find(filter, after, limit - users.size());
+            if (ids.length == 0) {
+                break;
+            }
+            for (long id : ids) {
+                User user = userStore.get(id);
+                if (user != null && filter.matches(user)) {
+                    users.add(user);
+                }
+            }
+            after = ids[ids.length - 1];
+        }
+        return users;
     }
 
     public java.util.Optional<User> getUserById(Long id) {
-        Optional<User> guavaOptional = Optional.fromNullable(userDatabase.get(id));
+        Optional<User> guavaOptional = Optional.fromNullable(userStore.get(id));
         return guavaOptional.isPresent() 
             ? java.util.Optional.of(guavaOptional.get())
             : java.util.Optional.empty();
     }
 
     public User createUser(User user) {
-        user.setId(currentId++);
+        user.setId(idAllocator.nextId());
         user.setCreatedAt(new Date());
         user.setUpdatedAt(new Date());
-        userDatabase.put(user.getId(), user);
-        fileStorageService.saveUserToFile(user);
+        user.setVersion(1L);
+        Lock lock = userLocks.get(user.getId());
+        UserWriteAheadLog.Commit commit;
+        lock.lock();
+        try {
+            userStore.put(user);
+            indexCreated(user);
+            storeVersion.incrementAndGet();
+            commit = persist(UserWriteAheadLog.OP_CREATE, Collections.singletonList(user));
+        } finally {
+            lock.unlock();
+        }
+        fileStorageService.awaitUserFiles(commit);
         
-        java8Features.processUserWithLambda(user);
+        if (!writeBehind.isEnabled()) {
+            java8Features.processUserWithLambda(user);
+        }
         
         return user;
     }
 
+    /**
+     * Creates all of {@code users} as {@link #createUser} does, but logs them together and
+     * waits for the log once, so the cost of making them durable is shared by the batch.
+     * The wait happens after the users' locks are released.
+     */
+    public List<User> createUsers(List<User> users) {
+        Date now = new Date();
+        List<Long> ids = new ArrayList<>(users.size());
+        for (User user : users) {
+            user.setId(idAllocator.nextId());
+            user.setCreatedAt(now);
+            user.setUpdatedAt(now);
+            user.setVersion(1L);
+            ids.add(user.getId());
+        }
+        UserWriteAheadLog.Commit commit;
+        List<Lock> locks = lockAll(ids);
+        try {
+            for (User user : users) {
+                userStore.put(user);
+                indexCreated(user);
+            }
+            storeVersion.incrementAndGet();
+            commit = persist(UserWriteAheadLog.OP_CREATE, users);
+        } finally {
+            unlockAll(locks);
+        }
+        fileStorageService.awaitUserFiles(commit);
+        if (!writeBehind.isEnabled()) {
+            users.forEach(java8Features::processUserWithLambda);
+        }
+        return users;
+    }
+
     public java.util.Optional<User> updateUser(Long id, User updatedUser) {
-        if (userDatabase.containsKey(id)) {
-            User existingUser = userDatabase.get(id);
-            existingUser.setUsername(updatedUser.getUsername());
-            existingUser.setEmail(updatedUser.getEmail());
-            existingUser.setUpdatedAt(new Date());
-            fileStorageService.updateUserFile(existingUser);
-            return java.util.Optional.of(existingUser);
+        return updateUser(id, updatedUser, user -> true);
+    }
+
+    /**
+     * Updates the user only if {@code precondition} holds for the stored user, checked
+     * under the user's lock.
+     *
+     * @throws IllegalStateException if the precondition does not hold
+     */
+    public java.util.Optional<User> updateUser(Long id, User updatedUser, Predicate<User> precondition) {
+        Lock lock = userLocks.get(id);
+        User user;
+        UserWriteAheadLog.Commit commit;
+        lock.lock();
+        try {
+            User existingUser = userStore.get(id);
+            if (existingUser == null) {
+                return java.util.Optional.empty();
+            }
+            if (!precondition.test(existingUser)) {
+                throw new IllegalStateException("Precondition failed for user " + id);
+            }
+            user = applyUpdate(id, updatedUser);
+            commit = persist(UserWriteAheadLog.OP_UPDATE, Collections.singletonList(user));
+        } finally {
+            lock.unlock();
+        }
+        fileStorageService.awaitUserFiles(commit);
+        return java.util.Optional.of(user);
+    }
+
+    /**
+     * Applies each of {@code updatedUsers} to the stored user with the same id, logging the
+     * changes together. The result holds the updated user for each input, or null where
+     * no user has that id.
+     */
+    public List<User> updateUsers(List<User> updatedUsers) {
+        List<Long> ids = new ArrayList<>(updatedUsers.size());
+        for (User updatedUser : updatedUsers) {
+            ids.add(updatedUser.getId());
+        }
+        List<User> results = new ArrayList<>(updatedUsers.size());
+        List<User> changed = new ArrayList<>(updatedUsers.size());
+        UserWriteAheadLog.Commit commit;
+        List<Lock> locks = lockAll(ids);
+        try {
+            for (User updatedUser : updatedUsers) {
+                User user = applyUpdate(updatedUser.getId(), updatedUser);
+                results.add(user);
+                if (user != null) {
+                    changed.add(user);
+                }
+            }
+            commit = persist(UserWriteAheadLog.OP_UPDATE, changed);
+        } finally {
+            unlockAll(locks);
+        }
+        fileStorageService.awaitUserFiles(commit);
+        return results;
+    }
+
+    private User applyUpdate(Long id, User updatedUser) {
+        User existingUser = userStore.get(id);
+        if (existingUser == null) {
+            return null;
         }
-        return java.util.Optional.empty();
+        // Changes go to a copy: readers holding the stored instance never see a half-applied update
+        User user = copyOf(existingUser);
+        user.setUsername(updatedUser.getUsername());
+        user.setEmail(updatedUser.getEmail());
+        user.setUpdatedAt(new Date());
+        user.setVersion(existingUser.getVersion() + 1);
+        userStore.put(user);
+        indexUpdated(existingUser, user);
+        userJsonCache.invalidate(id);
+        storeVersion.incrementAndGet();
+        return user;
     }
 
     public boolean deleteUser(Long id) {
-        if (userDatabase.containsKey(id)) {
-            User user = userDatabase.remove(id);
-            fileStorageService.deleteUserFile(user);
-            return true;
+        return deleteUser(id, user -> true);
+    }
+
+    /**
+     * Deletes the user only if {@code precondition} holds for it, checked under the
+     * user's lock.
+     *
+     * @throws IllegalStateException if the precondition does not hold
+     */
+    public boolean deleteUser(Long id, Predicate<User> precondition) {
+        Lock lock = userLocks.get(id);
+        UserWriteAheadLog.Commit commit;
+        lock.lock();
+        try {
+            User existingUser = userStore.get(id);
+            if (existingUser != null && !precondition.test(existingUser)) {
+                throw new IllegalStateException("Precondition failed for user " + id);
+            }
+            User user = userStore.remove(id);
+            if (user == null) {
+                return false;
+            }
+            indexDeleted(user);
+            userJsonCache.invalidate(id);
+            storeVersion.incrementAndGet();
+            commit = persist(UserWriteAheadLog.OP_DELETE, Collections.singletonList(user));
+        } finally {
+            lock.unlock();
+        }
+        fileStorageService.awaitUserFiles(commit);
+        return true;
+    }
+
+    /**
+     * Deletes the users with the given ids, logging the deletions together. The result
+     * tells for each id whether a user was deleted.
+     */
+    public boolean[] deleteUsers(List<Long> ids) {
+        boolean[] deleted = new boolean[ids.size()];
+        List<User> removed = new ArrayList<>(ids.size());
+        UserWriteAheadLog.Commit commit;
+        List<Lock> locks = lockAll(ids);
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                User user = userStore.remove(ids.get(i));
+                if (user != null) {
+                    indexDeleted(user);
+                    userJsonCache.invalidate(user.getId());
+                    removed.add(user);
+                    deleted[i] = true;
+                }
+            }
+            if (!removed.isEmpty()) {
+                storeVersion.incrementAndGet();
+            }
+            commit = persist(UserWriteAheadLog.OP_DELETE, removed);
+        } finally {
+            unlockAll(locks);
+        }
+        fileStorageService.awaitUserFiles(commit);
+        return deleted;
+    }
+
+    /**
+     * Queues the mutation of {@code users} for the log, or with write-behind to be logged
+     * after the request. Callers hold the users' locks, so that each user's mutations are
+     * logged in the order they were applied, and wait for the returned commit with
+     * {@link FileStorageService#awaitUserFiles} once they have released them.
+     */
+    private UserWriteAheadLog.Commit persist(byte op, List<User> users) {
+        if (writeBehind.isEnabled()) {
+            writeBehind.submit(op, users);
+            return UserWriteAheadLog.Commit.DONE;
+        }
+        return fileStorageService.queueUserFiles(op, users);
+    }
+
+    /**
+     * Locks the stripes of all {@code ids}. Stripes are taken in stripe order, so two
+     * batches with overlapping ids cannot deadlock.
+     */
+    private List<Lock> lockAll(List<Long> ids) {
+        List<Lock> locks = new ArrayList<>();
+        for (Lock lock : userLocks.bulkGet(ids)) {
+            // bulkGet repeats a stripe once per id that maps to it
+            if (locks.isEmpty() || locks.get(locks.size() - 1) != lock) {
+                lock.lock();
+                locks.add(lock);
+            }
+        }
+        return locks;
+    }
+
+    private static void unlockAll(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
         }
-        return false;
     }
 
+    // Index maintenance; callers hold the user's stripe lock
+
+    private void indexCreated(User user) {
+        userIdsLock.writeLock().lock();
+        try {
+            userIds.add(user.getId());
+        } finally {
+            userIdsLock.writeLock().unlock();
+        }
+        usernameIndex.add(user.getId(), user.getUsername());
+        suggestIndex.add(user.getId(), suggestKeys(user));
+        attributeIndex.add(user);
+    }
+
+    private void indexUpdated(User before, User after) {
+        usernameIndex.update(after.getId(), before.getUsername(), after.getUsername());
+        suggestIndex.update(after.getId(), suggestKeys(before), suggestKeys(after));
+        attributeIndex.update(before, after);
+    }
+
+    private void indexDeleted(User user) {
+        userIdsLock.writeLock().lock();
+        try {
+            userIds.remove(user.getId());
+        } finally {
+            userIdsLock.writeLock().unlock();
+        }
+        usernameIndex.remove(user.getId(), user.getUsername());
+        suggestIndex.remove(user.getId(), suggestKeys(user));
+        attributeIndex.remove(user);
+    }
+
+    /**
+     * Keys a user can be suggested under: the username, the full name, and the full name
+     * from each later word on, so that surnames match as well.
+     */
+    private static List<String> suggestKeys(User user) {
+        List<String> keys = new ArrayList<>();
+        if (user.getUsername() != null) {
+            keys.add(user.getUsername());
+        }
+        String fullName = user.getFullName() != null ? user.getFullName().trim() : "";
+        if (!fullName.isEmpty()) {
+            keys.add(fullName);
+            for (int i = 1; i < fullName.length(); i++) {
+                if (Character.isWhitespace(fullName.charAt(i - 1)) && !Character.isWhitespace(fullName.charAt(i))) {
+                    keys.add(fullName.substring(i));
+                }
+            }
+        }
+        return keys;
+    }
+
+    private static User copyOf(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setUsername(user.getUsername());
+        copy.setEmail(user.getEmail());
+        copy.setPassword(user.getPassword());
+        copy.setCreatedAt(user.getCreatedAt());
+        copy.setUpdatedAt(user.getUpdatedAt());
+        copy.setActive(user.isActive());
+        copy.setLastLogin(user.getLastLogin());
+        copy.setFullName(user.getFullName());
+        copy.setStatus(user.getStatus());
+        copy.setRoles(user.getRoles());
+        copy.setPermissions(user.getPermissions());
+        copy.setTenantId(user.getTenantId());
+        copy.setVersion(user.getVersion());
+        return copy;
+    }
+
+    /**
+     * Case-insensitive substring match on usernames, in id order. Queries of three or
+     * more characters are answered from the trigram index and only the candidates it
+     * returns are read back and checked; shorter ones fall back to a full scan.
+     */
     public List<User> searchByUsername(String username) {
-        return userDatabase.values().stream()
-                .filter(user -> user.getUsername().toLowerCase()
-                        .contains(username.toLowerCase()))
-                .collect(Collectors.toList());
+        String needle = TrigramIndex.normalize(username);
+        List<User> matches = new ArrayList<>();
+        long[] candidates = usernameIndex.candidates(username);
+        if (candidates == null) {
+            userStore.forEach(user -> {
+                if (user.getUsername() != null && TrigramIndex.normalize(user.getUsername()).contains(needle)) {
+                    matches.add(user);
+                }
+            });
+            matches.sort(Comparator.comparing(User::getId));
+            return matches;
+        }
+        for (long id : candidates) {
+            User user = userStore.get(id);
+            if (user != null && user.getUsername() != null
+                    && TrigramIndex.normalize(user.getUsername()).contains(needle)) {
+                matches.add(user);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Type-ahead lookup: up to {@code limit} users whose username, full name or a word of
+     * the full name starts with {@code prefix}, case-insensitively.
+     */
+    public List<User> suggest(String prefix, int limit) {
+        List<User> users = new ArrayList<>();
+        for (long id : suggestIndex.find(prefix, limit)) {
+            User user = userStore.get(id);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,207 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.util.AppThreads;
+import com.example.legacyapp.util.FileStorageService;
+import com.example.legacyapp.util.Java8Features;
+import com.example.legacyapp.util.UserWriteAheadLog;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists the mutations of {@link UserService} behind the request when
+ * {@code storage.write-behind.enabled} is set.
+ *
+ * A mutation is queued once it has been applied in memory, and a single thread takes
+ * the queue in order, writes up to {@code storage.write-behind.max-batch} mutations to
+ * the user log at a time and then runs the post-create processing. Requests wait only
+ * when {@code storage.write-behind.queue-capacity} mutations are already queued. A write
+ * is acknowledged before it is durable, so a crash loses the queued mutations on top of
+ * what the log's durability mode allows. A batch the log fails to take is kept and
+ * tried again every {@code storage.write-behind.retry-interval-ms}, so that mutations
+ * are never dropped while the application runs; at shutdown it is given up after one
+ * more failure.
+ *
+ * The queue is published as {@code user.writes.queued}, the age of the oldest mutation
+ * not yet written as {@code user.writes.lag}, the writes that had to wait for space as
+ * {@code user.writes.stalled}, and the failed attempts to write a batch as
+ * {@code user.writes.failed}.
+ */
+@Component
+class UserWriteBehind {
+
+    @Value("${storage.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${storage.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${storage.write-behind.max-batch:1000}")
+    private int maxBatch;
+
+    @Value("${storage.write-behind.retry-interval-ms:1000}")
+    private long retryIntervalMs;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private Java8Features java8Features;
+
+    @Autowired
+    private AppThreads appThreads;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private BlockingQueue<Mutation> queue;
+    private Counter stalled;
+    private Counter failed;
+    private Thread writer;
+    private volatile Mutation writing;
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        Gauge.builder("user.writes.queued", queue, BlockingQueue::size).register(meterRegistry);
+        TimeGauge.builder("user.writes.lag", this, TimeUnit.NANOSECONDS, UserWriteBehind::lagNanos)
+                .register(meterRegistry);
+        stalled = meterRegistry.counter("user.writes.stalled");
+        failed = meterRegistry.counter("user.writes.failed");
+        writer = appThreads.named("user-write-behind").newThread(this::run);
+        writer.start();
+    }
+
+    /**
+     * Writes out everything still queued before the user log is closed.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        Uninterruptibles.joinUninterruptibly(writer);
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues mutations with {@code op}, one of the {@link UserWriteAheadLog} operations.
+     * Callers hold the users' locks, so that the queue sees each user's mutations in the
+     * order they were applied.
+     */
+    void submit(byte op, List<User> users) {
+        if (op != UserWriteAheadLog.OP_CREATE && op != UserWriteAheadLog.OP_UPDATE
+                && op != UserWriteAheadLog.OP_DELETE) {
+            throw new IllegalArgumentException("Unknown user log operation: " + op);
+        }
+        long now = System.nanoTime();
+        for (User user : users) {
+            Mutation mutation = new Mutation(op, user, now);
+            if (!queue.offer(mutation)) {
+                stalled.increment();
+                Uninterruptibles.putUninterruptibly(queue, mutation);
+            }
+        }
+    }
+
+    private void run() {
+        List<Mutation> batch = new ArrayList<>(maxBatch);
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            if (batch.isEmpty()) {
+                Mutation first;
+                try {
+                    first = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatch - 1);
+            }
+            writing = batch.get(0);
+            try {
+                write(batch);
+            } catch (IOException | RuntimeException e) {
+                failed.increment();
+                if (!running) {
+                    System.err.println("Error writing user mutations at shutdown, dropping "
+                            + (batch.size() + queue.size()) + ": " + e.getMessage());
+                    batch.clear();
+                    queue.clear();
+                } else {
+                    System.err.println("Error writing user mutations, retrying " + batch.size()
+                            + " in " + retryIntervalMs + " ms: " + e.getMessage());
+                    Uninterruptibles.sleepUninterruptibly(retryIntervalMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            writing = null;
+        }
+    }
+
+    /**
+     * Writes each run of mutations with the same operation with one append, keeping the
+     * order of the batch. A run is removed from the batch once the log has it, so after a
+     * failure the batch holds exactly the mutations still to be written.
+     */
+    private void write(List<Mutation> batch) throws IOException {
+        while (!batch.isEmpty()) {
+            byte op = batch.get(0).op;
+            List<User> users = new ArrayList<>();
+            int end = 0;
+            while (end < batch.size() && batch.get(end).op == op) {
+                users.add(batch.get(end).user);
+                end++;
+            }
+            fileStorageService.appendUserRecords(op, users);
+            batch.subList(0, end).clear();
+            if (op == UserWriteAheadLog.OP_CREATE) {
+                users.forEach(java8Features::processUserWithLambda);
+            }
+        }
+    }
+
+    private double lagNanos() {
+        Mutation oldest = writing;
+        if (oldest == null) {
+            oldest = queue.peek();
+        }
+        return oldest != null ? System.nanoTime() - oldest.queuedAt : 0;
+    }
+
+    private static final class Mutation {
+        private final byte op;
+        private final User user;
+        private final long queuedAt;
+
+        Mutation(byte op, User user, long queuedAt) {
+            this.op = op;
+            this.user = user;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
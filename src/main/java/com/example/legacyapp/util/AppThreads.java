@@ -0,0 +1,96 @@
+package com.example.legacyapp.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads that run the application's background work: daemon platform
+ * threads, or virtual threads when {@code spring.threads.virtual.enabled} is set.
+ *
+ * The project is compiled for Java 8, so virtual threads are reached through reflection
+ * and need a Java 21 runtime; enabling them on an older one fails at startup.
+ */
+@Component
+public class AppThreads {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class);
+            factory = builder.getMethod("factory");
+        } catch (ReflectiveOperationException e) {
+            // Before Java 19: no virtual threads
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtual;
+
+    @PostConstruct
+    public void init() {
+        if (virtual && !isVirtualSupported()) {
+            throw new IllegalStateException("spring.threads.virtual.enabled needs Java 21 or later, not "
+                    + System.getProperty("java.version"));
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * A factory for threads called {@code name}.
+     */
+    public ThreadFactory named(String name) {
+        if (virtual) {
+            return virtualThreads(name);
+        }
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Whether this runtime can create virtual threads without preview features.
+     */
+    public static boolean isVirtualSupported() {
+        if (OF_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            virtualThreads("probe");
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static ThreadFactory virtualThreads(String name) {
+        try {
+            return (ThreadFactory) FACTORY.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), name));
+        } catch (InvocationTargetException e) {
+            // Java 19 and 20 without --enable-preview
+            throw new UnsupportedOperationException("Virtual threads are not available", e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
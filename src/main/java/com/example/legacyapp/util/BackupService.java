@@ -0,0 +1,295 @@
+package com.example.legacyapp.util;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background backups of the user store.
+ *
+ * A base backup is a full snapshot taken every {@code backup.base-interval-ms}; between
+ * bases each run ships only the log records written since the previous run as a delta.
+ * Any point in time covered by a retained base can be restored by replaying deltas on
+ * top of the newest base taken before it. All backup I/O runs on a single background
+ * thread and is throttled to {@code backup.max-bytes-per-second}.
+ */
+@Service
+public class BackupService {
+
+    private static final String BACKUP_DIR = "data/backups";
+    private static final String RESTORE_DIR = "data/restore";
+    private static final String BASE_PREFIX = "base_";
+    private static final String DELTA_PREFIX = "delta_";
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private AppThreads appThreads;
+
+    @Value("${backup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${backup.interval-ms:300000}")
+    private long intervalMs;
+
+    @Value("${backup.base-interval-ms:86400000}")
+    private long baseIntervalMs;
+
+    @Value("${backup.retention.base-count:7}")
+    private int retainedBaseCount;
+
+    @Value("${backup.max-bytes-per-second:8388608}")
+    private double maxBytesPerSecond;
+
+    private ScheduledExecutorService scheduler;
+    private RateLimiter rateLimiter;
+    private volatile long lastBackedUpLsn;
+    private volatile long lastBaseMillis;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        rateLimiter = RateLimiter.create(maxBytesPerSecond);
+        try {
+            Files.createDirectories(Paths.get(BACKUP_DIR));
+            for (BackupFile base : listBackups(BASE_PREFIX)) {
+                lastBaseMillis = Math.max(lastBaseMillis, base.first);
+                lastBackedUpLsn = Math.max(lastBackedUpLsn, base.second);
+            }
+            for (BackupFile delta : listBackups(DELTA_PREFIX)) {
+                lastBackedUpLsn = Math.max(lastBackedUpLsn, delta.second);
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading backup directory: " + e.getMessage());
+        }
+        fileStorageService.setLogRetentionFloor(() -> lastBackedUpLsn);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(appThreads.named("user-backup"));
+        scheduler.scheduleWithFixedDelay(this::runBackup, 10_000L, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Schedules a backup run on the backup thread without waiting for it.
+     */
+    public Future<?> requestBackup() {
+        if (scheduler == null) {
+            throw new IllegalStateException("Backups are disabled");
+        }
+        return scheduler.submit(this::runBackup);
+    }
+
+    private void runBackup() {
+        try {
+            boolean baseDue = lastBaseMillis == 0
+                    || System.currentTimeMillis() - lastBaseMillis >= baseIntervalMs;
+            if (baseDue || !takeDelta()) {
+                takeBase();
+            }
+            applyRetention();
+        } catch (IOException e) {
+            System.err.println("Error creating backup: " + e.getMessage());
+        }
+    }
+
+    private void takeBase() throws IOException {
+        long millis = System.currentTimeMillis();
+        Path tmp = Paths.get(BACKUP_DIR, BASE_PREFIX + "tmp");
+        long lsn;
+        try (OutputStream out = new RateLimitedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)), rateLimiter)) {
+            lsn = fileStorageService.exportSnapshot(out);
+        }
+        Files.move(tmp, Paths.get(BACKUP_DIR, BASE_PREFIX + millis + "_" + lsn
+                + fileStorageService.snapshotExtension()),
+                StandardCopyOption.ATOMIC_MOVE);
+        lastBaseMillis = millis;
+        lastBackedUpLsn = lsn;
+        System.out.println("Created base backup at LSN " + lsn);
+    }
+
+    /**
+     * Ships the log records written since the last backup. Returns false when they are
+     * no longer in the log and a new base is needed instead.
+     */
+    private boolean takeDelta() throws IOException {
+        long fromLsn = lastBackedUpLsn;
+        Path tmp = Paths.get(BACKUP_DIR, DELTA_PREFIX + "tmp");
+        long lsn;
+        try (OutputStream out = new RateLimitedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)), rateLimiter)) {
+            lsn = fileStorageService.copyLogSince(fromLsn, out);
+        }
+        if (lsn <= fromLsn) {
+            Files.delete(tmp);
+            return lsn == fromLsn;
+        }
+        Files.move(tmp, Paths.get(BACKUP_DIR, DELTA_PREFIX + fromLsn + "_" + lsn + ".log"),
+                StandardCopyOption.ATOMIC_MOVE);
+        lastBackedUpLsn = lsn;
+        return true;
+    }
+
+    private void applyRetention() throws IOException {
+        List<BackupFile> bases = listBackups(BASE_PREFIX);
+        if (bases.size() <= retainedBaseCount) {
+            return;
+        }
+        for (BackupFile base : bases.subList(0, bases.size() - retainedBaseCount)) {
+            Files.deleteIfExists(base.path);
+        }
+        long oldestRetainedLsn = bases.get(bases.size() - retainedBaseCount).second;
+        for (BackupFile delta : listBackups(DELTA_PREFIX)) {
+            if (delta.second <= oldestRetainedLsn) {
+                Files.deleteIfExists(delta.path);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the user set as it was at {@code pointInTime} and writes it as a snapshot
+     * file under {@code data/restore}. The live store is left untouched; to roll back,
+     * stop the application and replace the snapshot ({@code data/users.bin} or
+     * {@code data/users.txt}) with the restored file and remove {@code data/users.log}.
+     */
+    public Path restore(Date pointInTime) throws IOException {
+        long at = pointInTime.getTime();
+        BackupFile base = null;
+        for (BackupFile candidate : listBackups(BASE_PREFIX)) {
+            if (candidate.first <= at) {
+                base = candidate;
+            }
+        }
+        if (base == null) {
+            throw new IllegalArgumentException("No base backup taken at or before " + pointInTime);
+        }
+
+        UserStore state = fileStorageService.newFoldStore();
+        fileStorageService.readSnapshot(base.path, state);
+        long[] appliedLsn = {base.second};
+        boolean[] reachedTarget = {false};
+        for (BackupFile delta : listBackups(DELTA_PREFIX)) {
+            if (reachedTarget[0] || delta.second <= appliedLsn[0]) {
+                continue;
+            }
+            UserWriteAheadLog.readRecords(delta.path, record -> {
+                if (reachedTarget[0] || record.getLsn() <= appliedLsn[0]) {
+                    return;
+                }
+                if (record.getTimestamp() > at) {
+                    reachedTarget[0] = true;
+                    return;
+                }
+                FileStorageService.applyLogRecord(state, record);
+                appliedLsn[0] = record.getLsn();
+            });
+        }
+
+        Files.createDirectories(Paths.get(RESTORE_DIR));
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(pointInTime);
+        Path target = Paths.get(RESTORE_DIR, "users_" + timestamp + fileStorageService.snapshotExtension());
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+            fileStorageService.writeSnapshot(state, appliedLsn[0], out);
+        }
+        System.out.println("Restored " + state.size() + " users as of " + pointInTime
+                + " (LSN " + appliedLsn[0] + ") to " + target);
+        return target;
+    }
+
+    public List<String> listBackupFiles() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (BackupFile base : listBackups(BASE_PREFIX)) {
+            names.add(base.path.getFileName().toString());
+        }
+        for (BackupFile delta : listBackups(DELTA_PREFIX)) {
+            names.add(delta.path.getFileName().toString());
+        }
+        return names;
+    }
+
+    /**
+     * Backups of one kind sorted by their first name component: the creation time for
+     * bases and the starting LSN for deltas. The second component is the last LSN covered.
+     */
+    private static List<BackupFile> listBackups(String prefix) throws IOException {
+        List<BackupFile> files = new ArrayList<>();
+        Path dir = Paths.get(BACKUP_DIR);
+        if (!Files.isDirectory(dir)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*_*.*")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                String[] parts = name.substring(prefix.length(), name.lastIndexOf('.')).split("_");
+                if (parts.length == 2) {
+                    try {
+                        files.add(new BackupFile(path, Long.parseLong(parts[0]), Long.parseLong(parts[1])));
+                    } catch (NumberFormatException e) {
+                        System.err.println("Ignoring unrecognised backup file: " + name);
+                    }
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong((BackupFile file) -> file.first).thenComparingLong(file -> file.second));
+        return files;
+    }
+
+    private static final class BackupFile {
+        private final Path path;
+        private final long first;
+        private final long second;
+
+        BackupFile(Path path, long first, long second) {
+            this.path = path;
+            this.first = first;
+            this.second = second;
+        }
+    }
+
+    private static final class RateLimitedOutputStream extends FilterOutputStream {
+        private final RateLimiter rateLimiter;
+
+        RateLimitedOutputStream(OutputStream out, RateLimiter rateLimiter) {
+            super(out);
+            this.rateLimiter = rateLimiter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            rateLimiter.acquire(1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                rateLimiter.acquire(len);
+                out.write(b, off, len);
+            }
+        }
+    }
+}
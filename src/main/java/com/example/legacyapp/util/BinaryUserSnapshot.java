@@ -0,0 +1,262 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary snapshot of the user store.
+ *
+ * Layout: a header of [4 bytes "LUSR"][short version][long lsn][long written-at millis],
+ * then blocks of [int record count][int byte length][int crc32][records], closed by a
+ * block with a record count of -1 whose length field holds the total number of records.
+ * Records use {@link UserRecordCodec}, so usernames may contain any character and
+ * timestamps are stored as epoch millis. Blocks are checksummed and parsed in parallel.
+ */
+public final class BinaryUserSnapshot {
+
+    private static final byte[] MAGIC = {'L', 'U', 'S', 'R'};
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = MAGIC.length + 2 + 8 + 8;
+    private static final int BLOCK_HEADER_SIZE = 12;
+    private static final int TARGET_BLOCK_SIZE = 64 * 1024;
+
+    private BinaryUserSnapshot() {
+    }
+
+    public static boolean isBinary(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < MAGIC.length) {
+            return false;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.read(magic) == MAGIC.length && Arrays.equals(magic, MAGIC);
+        }
+    }
+
+    public static void write(Collection<User> users, long lsn, OutputStream target) throws IOException {
+        write(users::forEach, lsn, target);
+    }
+
+    /**
+     * Writes the users of {@code store} in id order, one at a time, without collecting
+     * them first.
+     */
+    public static void write(UserStore store, long lsn, OutputStream target) throws IOException {
+        write(store::forEachInIdOrder, lsn, target);
+    }
+
+    private static void write(Consumer<Consumer<? super User>> users, long lsn, OutputStream target)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target, TARGET_BLOCK_SIZE + BLOCK_HEADER_SIZE));
+        out.write(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(lsn);
+        out.writeLong(System.currentTimeMillis());
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(TARGET_BLOCK_SIZE + 1024);
+        DataOutputStream blockOut = new DataOutputStream(block);
+        int[] counts = new int[2];
+        try {
+            users.accept(user -> {
+                try {
+                    UserRecordCodec.write(blockOut, user);
+                    counts[0]++;
+                    counts[1]++;
+                    if (block.size() >= TARGET_BLOCK_SIZE) {
+                        writeBlock(out, block, counts[0]);
+                        counts[0] = 0;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (counts[0] > 0) {
+            writeBlock(out, block, counts[0]);
+        }
+        out.writeInt(-1);
+        out.writeInt(counts[1]);
+        out.writeInt(0);
+        out.flush();
+    }
+
+    private static void writeBlock(DataOutputStream out, ByteArrayOutputStream block, int records) throws IOException {
+        byte[] bytes = block.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        out.writeInt(records);
+        out.writeInt(bytes.length);
+        out.writeInt((int) crc.getValue());
+        out.write(bytes);
+        block.reset();
+    }
+
+    public static UserSnapshotLoader.LoadStats read(Path file, UserStore target, int parallelism) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            ((Buffer) header).flip();
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            short version = header.getShort();
+            if (!Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException("Unsupported user snapshot format in " + file + " (version " + version + ")");
+            }
+
+            List<Block> blocks = new ArrayList<>();
+            ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+            long pos = HEADER_SIZE;
+            int expectedTotal = -1;
+            while (pos + BLOCK_HEADER_SIZE <= size) {
+                ((Buffer) blockHeader).clear();
+                readFully(channel, blockHeader, pos);
+                int records = blockHeader.getInt(0);
+                int length = blockHeader.getInt(4);
+                int checksum = blockHeader.getInt(8);
+                pos += BLOCK_HEADER_SIZE;
+                if (records < 0) {
+                    expectedTotal = length;
+                    break;
+                }
+                if (pos + length > size) {
+                    throw new IOException("Truncated block at offset " + pos + " in " + file);
+                }
+                blocks.add(new Block(channel.map(FileChannel.MapMode.READ_ONLY, pos, length), records, checksum));
+                pos += length;
+            }
+            if (expectedTotal < 0) {
+                throw new IOException("Missing end marker in " + file);
+            }
+
+            Block[] parsed = blocks.toArray(new Block[0]);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new ParseTask(parsed, 0, parsed.length));
+            } finally {
+                pool.shutdown();
+            }
+
+            int loaded = 0;
+            for (Block block : parsed) {
+                if (block.error != null) {
+                    throw block.error;
+                }
+                for (User user : block.users) {
+                    target.put(user);
+                }
+                loaded += block.users.size();
+            }
+            if (loaded != expectedTotal) {
+                throw new IOException("Expected " + expectedTotal + " users in " + file + " but read " + loaded);
+            }
+            return new UserSnapshotLoader.LoadStats(loaded, 0, parsed.length, size, parallelism,
+                    System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Rewrites a text snapshot in binary form. The binary file is written next to the
+     * target and moved into place once complete.
+     */
+    public static UserSnapshotLoader.LoadStats convertTextSnapshot(Path text, Path binary, long lsn,
+                                                                  int parallelism) throws IOException {
+        UserStore users = new OffHeapUserStore();
+        UserSnapshotLoader.LoadStats stats = UserSnapshotLoader.load(text, users, parallelism);
+        Path tmp = binary.resolveSibling(binary.getFileName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+            write(users, lsn, out);
+            out.getFD().sync();
+        }
+        Files.move(tmp, binary, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        return stats;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of user snapshot");
+            }
+        }
+    }
+
+    private static final class ParseTask extends RecursiveAction {
+        private final Block[] blocks;
+        private final int from;
+        private final int to;
+
+        ParseTask(Block[] blocks, int from, int to) {
+            this.blocks = blocks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 4) {
+                for (int i = from; i < to; i++) {
+                    blocks[i].parse();
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ParseTask(blocks, from, mid), new ParseTask(blocks, mid, to));
+            }
+        }
+    }
+
+    private static final class Block {
+        private final MappedByteBuffer buffer;
+        private final int records;
+        private final int checksum;
+        private final List<User> users;
+        private IOException error;
+
+        Block(MappedByteBuffer buffer, int records, int checksum) {
+            this.buffer = buffer;
+            this.records = records;
+            this.checksum = checksum;
+            this.users = new ArrayList<>(records);
+        }
+
+        /**
+         * Checks and decodes the block straight from the mapping, without copying it.
+         */
+        void parse() {
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                error = new IOException("Checksum mismatch in user snapshot block");
+                return;
+            }
+            try {
+                for (int i = 0; i < records; i++) {
+                    users.add(UserRecordCodec.read(buffer));
+                }
+            } catch (RuntimeException e) {
+                error = new IOException("Corrupt user snapshot block: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.example.legacyapp.util;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Content-addressed upload store.
+ *
+ * Uploads are cut into variable-size chunks at content-defined boundaries (a gear
+ * rolling hash), so an edit near the start of a file only changes the chunks around it.
+ * Each chunk is stored once under {@code chunks/<xx>/<sha-256>}; a file name maps to a
+ * manifest under {@code manifests/} listing its chunks. Chunks no manifest refers to are
+ * removed by {@link #collectGarbage} once they are older than a grace period, which
+ * covers uploads whose manifest has not been written yet.
+ */
+public class ChunkedUploadStore {
+
+    private static final int MIN_CHUNK_SIZE = 16 * 1024;
+    private static final int MAX_CHUNK_SIZE = 256 * 1024;
+    // 16 bits => a boundary every 64 KB on average past the minimum
+    private static final long BOUNDARY_MASK = 0xFFFFL << 48;
+    private static final long[] GEAR = new long[256];
+    private static final byte[] MANIFEST_MAGIC = {'L', 'M', 'A', 'N'};
+    private static final short MANIFEST_VERSION = 1;
+    private static final int HASH_SIZE = 32;
+
+    static {
+        // Fixed seed: boundaries must be stable across restarts for chunks to be shared
+        Random random = new Random(0x5EEDL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final Path chunkDir;
+    private final Path manifestDir;
+    private final ReentrantLock sweepLock = new ReentrantLock();
+    private final ThreadLocal<ByteBuffer> chunkBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MAX_CHUNK_SIZE));
+
+    public ChunkedUploadStore(Path root) throws IOException {
+        this.chunkDir = root.resolve("chunks");
+        this.manifestDir = root.resolve("manifests");
+        Files.createDirectories(chunkDir);
+        Files.createDirectories(manifestDir);
+    }
+
+    /**
+     * Stores {@code content} under {@code name}, replacing any previous file of that name.
+     * Only chunks not already in the store are written.
+     */
+    public StoreResult store(String name, InputStream content, long maxBytes) throws IOException {
+        Path manifestPath = manifestPath(name);
+        MessageDigest digest = sha256();
+        List<Chunk> chunks = new ArrayList<>();
+        long size = 0;
+        long newBytes = 0;
+
+        ByteBuffer buffer = chunkBuffer.get();
+        ((Buffer) buffer).clear();
+        ReadableByteChannel in = Channels.newChannel(content);
+        boolean eof = false;
+        int scanned = 0;
+        long hash = 0;
+        while (true) {
+            if (!eof && buffer.hasRemaining() && in.read(buffer) < 0) {
+                eof = true;
+            }
+            int filled = buffer.position();
+            int cut = -1;
+            while (scanned < filled) {
+                hash = (hash << 1) + GEAR[buffer.get(scanned) & 0xFF];
+                scanned++;
+                if ((scanned >= MIN_CHUNK_SIZE && (hash & BOUNDARY_MASK) == 0) || scanned == MAX_CHUNK_SIZE) {
+                    cut = scanned;
+                    break;
+                }
+            }
+            if (cut < 0) {
+                if (!eof) {
+                    continue;
+                }
+                if (filled == 0) {
+                    break;
+                }
+                cut = filled;
+            }
+
+            size += cut;
+            if (size > maxBytes) {
+                throw new UploadTooLargeException(maxBytes);
+            }
+            ByteBuffer chunk = buffer.duplicate();
+            ((Buffer) chunk).position(0).limit(cut);
+            Chunk stored = storeChunk(chunk, digest);
+            if (stored.isNew) {
+                newBytes += cut;
+            }
+            chunks.add(stored);
+
+            ((Buffer) buffer).limit(filled).position(cut);
+            buffer.compact();
+            scanned = 0;
+            hash = 0;
+        }
+
+        writeManifest(manifestPath, size, chunks);
+        return new StoreResult(size, newBytes, chunks.size());
+    }
+
+    private Chunk storeChunk(ByteBuffer chunk, MessageDigest digest) throws IOException {
+        int length = chunk.remaining();
+        digest.reset();
+        digest.update(chunk.duplicate());
+        byte[] hash = digest.digest();
+        Path path = chunkPath(hash);
+        sweepLock.lock();
+        try {
+            if (Files.exists(path)) {
+                // Refresh so that a concurrent sweep treats the chunk as recently used
+                Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+                return new Chunk(hash, length, false);
+            }
+        } finally {
+            sweepLock.unlock();
+        }
+        Files.createDirectories(path.getParent());
+        Path tmp = path.resolveSibling(".chunk-" + UUID.randomUUID() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return new Chunk(hash, length, true);
+    }
+
+    private void writeManifest(Path manifestPath, long size, List<Chunk> chunks) throws IOException {
+        Path tmp = manifestPath.resolveSibling(".manifest-" + UUID.randomUUID() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.write(MANIFEST_MAGIC);
+                out.writeShort(MANIFEST_VERSION);
+                out.writeLong(size);
+                out.writeInt(chunks.size());
+                for (Chunk chunk : chunks) {
+                    out.write(chunk.hash);
+                    out.writeInt(chunk.length);
+                }
+            }
+            Files.move(tmp, manifestPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Reads the manifest for {@code name}; throws {@link NoSuchFileException} when there
+     * is no such file.
+     */
+    public Manifest manifest(String name) throws IOException {
+        return readManifest(manifestPath(name));
+    }
+
+    private static Manifest readManifest(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            byte[] magic = new byte[MANIFEST_MAGIC.length];
+            in.readFully(magic);
+            short version = in.readShort();
+            if (!Arrays.equals(magic, MANIFEST_MAGIC) || version != MANIFEST_VERSION) {
+                throw new IOException("Unsupported manifest format in " + path);
+            }
+            long size = in.readLong();
+            int count = in.readInt();
+            List<Chunk> chunks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] hash = new byte[HASH_SIZE];
+                in.readFully(hash);
+                chunks.add(new Chunk(hash, in.readInt(), false));
+            }
+            return new Manifest(size, chunks);
+        }
+    }
+
+    public boolean delete(String name) throws IOException {
+        return Files.deleteIfExists(manifestPath(name));
+    }
+
+    /**
+     * Sends {@code count} bytes starting at {@code position} to {@code target}, using
+     * {@link FileChannel#transferTo} on each chunk the range covers.
+     */
+    public void transfer(String name, long position, long count, WritableByteChannel target) throws IOException {
+        Manifest manifest = manifest(name);
+        long end = Math.min(position + count, manifest.size);
+        long chunkStart = 0;
+        for (Chunk chunk : manifest.chunks) {
+            long chunkEnd = chunkStart + chunk.length;
+            if (chunkEnd > position && chunkStart < end) {
+                long from = Math.max(position, chunkStart) - chunkStart;
+                long to = Math.min(end, chunkEnd) - chunkStart;
+                try (FileChannel in = FileChannel.open(chunkPath(chunk.hash), StandardOpenOption.READ)) {
+                    while (from < to) {
+                        long sent = in.transferTo(from, to - from, target);
+                        if (sent == 0 && from >= in.size()) {
+                            throw new IOException("Chunk " + toHex(chunk.hash) + " is shorter than its manifest says");
+                        }
+                        from += sent;
+                    }
+                }
+            }
+            if (chunkEnd >= end) {
+                break;
+            }
+            chunkStart = chunkEnd;
+        }
+    }
+
+    /**
+     * Reads an upload from {@code position} to its end. Chunk files are opened one at a
+     * time as the stream reaches them.
+     */
+    public InputStream open(String name, long position) throws IOException {
+        Manifest manifest = manifest(name);
+        List<InputStream> parts = new ArrayList<>();
+        long chunkStart = 0;
+        for (Chunk chunk : manifest.chunks) {
+            long chunkEnd = chunkStart + chunk.length;
+            if (chunkEnd > position) {
+                long from = Math.max(position, chunkStart) - chunkStart;
+                Path path = chunkPath(chunk.hash);
+                parts.add(new LazyChunkStream(path, from));
+            }
+            chunkStart = chunkEnd;
+        }
+        return new SequenceInputStream(Collections.enumeration(parts));
+    }
+
+    /**
+     * Deletes chunks that no manifest refers to and that have not been written or reused
+     * within {@code graceMillis}, along with abandoned temporary files.
+     */
+    public GcResult collectGarbage(long graceMillis) throws IOException {
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        Set<String> live = new HashSet<>();
+        try (DirectoryStream<Path> manifests = Files.newDirectoryStream(manifestDir)) {
+            for (Path path : manifests) {
+                if (path.getFileName().toString().startsWith(".")) {
+                    deleteIfOlder(path, cutoff);
+                    continue;
+                }
+                for (Chunk chunk : readManifest(path).chunks) {
+                    live.add(toHex(chunk.hash));
+                }
+            }
+        }
+
+        int deleted = 0;
+        long freed = 0;
+        int retained = 0;
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(chunkDir)) {
+            for (Path prefix : prefixes) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(prefix)) {
+                    for (Path path : files) {
+                        String fileName = path.getFileName().toString();
+                        if (live.contains(fileName)) {
+                            retained++;
+                            continue;
+                        }
+                        long length = Files.size(path);
+                        if (deleteIfOlder(path, cutoff)) {
+                            deleted++;
+                            freed += fileName.startsWith(".") ? 0 : length;
+                        } else {
+                            retained++;
+                        }
+                    }
+                }
+            }
+        }
+        return new GcResult(deleted, freed, retained);
+    }
+
+    private boolean deleteIfOlder(Path path, long cutoff) throws IOException {
+        sweepLock.lock();
+        try {
+            if (Files.getLastModifiedTime(path).toMillis() < cutoff) {
+                return Files.deleteIfExists(path);
+            }
+            return false;
+        } finally {
+            sweepLock.unlock();
+        }
+    }
+
+    /**
+     * Maps an upload name to its manifest, rejecting names that would leave the manifest
+     * directory.
+     */
+    private Path manifestPath(String name) {
+        if (name == null || name.isEmpty() || name.startsWith(".")
+                || name.indexOf('/') >= 0 || name.indexOf('\\') >= 0 || name.indexOf('\0') >= 0) {
+            throw new IllegalArgumentException("Invalid file name: " + name);
+        }
+        Path path = manifestDir.resolve(name).normalize();
+        if (!manifestDir.normalize().equals(path.getParent())) {
+            throw new IllegalArgumentException("Invalid file name: " + name);
+        }
+        return path;
+    }
+
+    private Path chunkPath(byte[] hash) {
+        String hex = toHex(hash);
+        return chunkDir.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static final class Chunk {
+        private final byte[] hash;
+        private final int length;
+        private final boolean isNew;
+
+        Chunk(byte[] hash, int length, boolean isNew) {
+            this.hash = hash;
+            this.length = length;
+            this.isNew = isNew;
+        }
+    }
+
+    /**
+     * Opens its chunk file on first read, so that a long upload does not hold a file
+     * handle per chunk.
+     */
+    private static final class LazyChunkStream extends InputStream {
+        private final Path path;
+        private final long from;
+        private InputStream in;
+
+        LazyChunkStream(Path path, long from) {
+            this.path = path;
+            this.from = from;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return stream().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return stream().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+
+        private InputStream stream() throws IOException {
+            if (in == null) {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                channel.position(from);
+                in = Channels.newInputStream(channel);
+            }
+            return in;
+        }
+    }
+
+    public static final class Manifest {
+        private final long size;
+        private final List<Chunk> chunks;
+
+        Manifest(long size, List<Chunk> chunks) {
+            this.size = size;
+            this.chunks = Collections.unmodifiableList(chunks);
+        }
+
+        public long getSize() { return size; }
+        public int getChunkCount() { return chunks.size(); }
+    }
+
+    public static final class StoreResult {
+        private final long size;
+        private final long newBytes;
+        private final int chunks;
+
+        StoreResult(long size, long newBytes, int chunks) {
+            this.size = size;
+            this.newBytes = newBytes;
+            this.chunks = chunks;
+        }
+
+        public long getSize() { return size; }
+        public long getNewBytes() { return newBytes; }
+        public int getChunks() { return chunks; }
+
+        @Override
+        public String toString() {
+            return String.format("%d bytes in %d chunks, %d new bytes written (%.1f%% deduplicated)",
+                    size, chunks, newBytes, size > 0 ? 100.0 * (size - newBytes) / size : 0.0);
+        }
+    }
+
+    public static final class GcResult {
+        private final int deleted;
+        private final long freedBytes;
+        private final int retained;
+
+        GcResult(int deleted, long freedBytes, int retained) {
+            this.deleted = deleted;
+            this.freedBytes = freedBytes;
+            this.retained = retained;
+        }
+
+        public int getDeleted() { return deleted; }
+        public long getFreedBytes() { return freedBytes; }
+
+        @Override
+        public String toString() {
+            return deleted + " chunks deleted (" + freedBytes + " bytes), " + retained + " retained";
+        }
+    }
+}
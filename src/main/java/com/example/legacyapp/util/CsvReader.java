@@ -0,0 +1,136 @@
+package com.example.legacyapp.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming reader for UTF-8 CSV (RFC 4180: comma separated, fields optionally quoted,
+ * {@code ""} for a quote inside a quoted field, LF or CRLF line ends). Blank lines are
+ * skipped.
+ *
+ * The input is parsed as bytes. The delimiters are ASCII and never occur inside a
+ * multi-byte UTF-8 sequence, so each field is decoded on its own and {@link #getOffset}
+ * is an exact byte position from which a new reader can resume.
+ */
+public class CsvReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private long bufferOffset;
+    private byte[] field = new byte[256];
+    private int fieldLength;
+    private int recordLength;
+
+    /**
+     * Reads from {@code in}, which is positioned at byte {@code offset} of the file.
+     */
+    public CsvReader(InputStream in, long offset) {
+        this.in = in;
+        this.bufferOffset = offset;
+    }
+
+    /**
+     * Byte offset just past the last record returned by {@link #next}.
+     */
+    public long getOffset() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * The fields of the next record, or null at the end of the input.
+     */
+    public String[] next() throws IOException {
+        List<String> fields = new ArrayList<>();
+        recordLength = 0;
+        int b = read();
+        while (b == '\n' || b == '\r') {
+            b = read();
+        }
+        if (b < 0) {
+            return null;
+        }
+        while (true) {
+            fieldLength = 0;
+            if (b == '"') {
+                while (true) {
+                    b = read();
+                    if (b < 0) {
+                        throw new IOException("Unterminated quoted field before offset " + getOffset());
+                    }
+                    if (b == '"') {
+                        b = read();
+                        if (b != '"') {
+                            break;
+                        }
+                    }
+                    append(b);
+                }
+            }
+            // Unquoted field, or anything after a closing quote, runs to the next delimiter
+            while (b >= 0 && b != ',' && b != '\n' && b != '\r') {
+                append(b);
+                b = read();
+            }
+            fields.add(new String(field, 0, fieldLength, StandardCharsets.UTF_8));
+            if (b == ',') {
+                b = read();
+                continue;
+            }
+            if (b == '\r' && peek() == '\n') {
+                read();
+            }
+            return fields.toArray(new String[0]);
+        }
+    }
+
+    private void append(int b) throws IOException {
+        if (++recordLength > MAX_RECORD_SIZE) {
+            throw new IOException("CSV record longer than " + MAX_RECORD_SIZE + " bytes before offset " + getOffset());
+        }
+        if (fieldLength == field.length) {
+            field = Arrays.copyOf(field, field.length * 2);
+        }
+        field[fieldLength++] = (byte) b;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        bufferOffset += limit;
+        position = 0;
+        limit = 0;
+        int read = in.read(buffer);
+        if (read <= 0) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
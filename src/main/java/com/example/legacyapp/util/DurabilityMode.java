@@ -0,0 +1,20 @@
+package com.example.legacyapp.util;
+
+/**
+ * When an appended user record is forced to disk, and when the caller gets control back.
+ */
+public enum DurabilityMode {
+
+    /** Write and fsync on the calling thread; one fsync per record. */
+    PER_WRITE,
+
+    /** Queue the record; a writer thread fsyncs whole batches and releases each caller once its batch is durable. */
+    GROUP_COMMIT,
+
+    /** Queue the record and return immediately; a writer thread flushes and fsyncs on a fixed interval. */
+    ASYNC;
+
+    public static DurabilityMode fromProperty(String value) {
+        return valueOf(value.trim().replace('-', '_').toUpperCase());
+    }
+}
@@ -1,29 +1,178 @@
 package com.example.legacyapp.util;
 
 import com.example.legacyapp.model.User;
-import org.apache.commons.io.FileUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
 
 @Service
 public class FileStorageService {
 
     private static final String DATA_DIR = "data";
     private static final String USER_FILE = "data/users.txt";
+    private static final String USER_BINARY_FILE = "data/users.bin";
+    private static final String USER_LOG_FILE = "data/users.log";
     private static final String BACKUP_DIR = "data/backups";
     private static final String UPLOAD_DIR = "data/uploads";
+    // Partial uploads left behind by the releases that stored files directly in UPLOAD_DIR
+    private static final String LEGACY_UPLOAD_TMP_PREFIX = ".upload-";
+
+    @Value("${storage.log.durability:group-commit}")
+    private String durability;
+
+    @Value("${storage.log.async-flush-interval-ms:100}")
+    private long asyncFlushIntervalMs;
+
+    @Value("${storage.snapshot.format:binary}")
+    private String snapshotFormat;
+
+    @Value("${storage.load.parallelism:0}")
+    private int loadParallelism;
+
+    @Value("${storage.log.compaction-threshold:10000}")
+    private long compactionThreshold;
+
+    @Value("${storage.log.compaction-check-interval-ms:60000}")
+    private long compactionCheckIntervalMs;
+
+    @Value("${storage.user-store.slab-size:67108864}")
+    private int foldSlabSize;
+
+    @Value("${storage.upload.max-size:1073741824}")
+    private long maxUploadBytes;
+
+    @Value("${storage.upload.gc-interval-ms:3600000}")
+    private long uploadGcIntervalMs;
+
+    @Value("${storage.upload.gc-grace-ms:3600000}")
+    private long uploadGcGraceMs;
+
+    @Autowired
+    private AppThreads appThreads;
+
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private volatile LongSupplier logRetentionFloor = () -> Long.MAX_VALUE;
+    private UserWriteAheadLog userLog;
+    private ChunkedUploadStore uploadStore;
+    private ScheduledExecutorService compactor;
 
     @PostConstruct
     public void init() {
         createDirectories();
+        openUserLog();
+        migrateSnapshot();
+        openUploadStore();
+        compactor = Executors.newSingleThreadScheduledExecutor(appThreads.named("storage-maintenance"));
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded,
+                compactionCheckIntervalMs, compactionCheckIntervalMs, TimeUnit.MILLISECONDS);
+        compactor.scheduleWithFixedDelay(this::collectUploadGarbage,
+                uploadGcIntervalMs, uploadGcIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        try {
+            if (userLog != null) {
+                userLog.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing user log: " + e.getMessage());
+        }
+    }
+
+    private void openUserLog() {
+        try {
+            userLog = new UserWriteAheadLog(Paths.get(USER_LOG_FILE),
+                    DurabilityMode.fromProperty(durability), asyncFlushIntervalMs,
+                    appThreads.named("user-log-writer"));
+        } catch (IOException e) {
+            throw new IllegalStateException("Error opening user log: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Converts a snapshot left in the other format, e.g. the text {@code users.txt} of
+     * an older release, into the configured one. The old file is kept with a
+     * {@code .migrated} suffix.
+     */
+    private void migrateSnapshot() {
+        Path snapshot = snapshotPath();
+        Path other = isBinarySnapshot() ? Paths.get(USER_FILE) : Paths.get(USER_BINARY_FILE);
+        if (Files.exists(snapshot) || !Files.exists(other)) {
+            return;
+        }
+        try {
+            if (isBinarySnapshot()) {
+                UserSnapshotLoader.LoadStats stats = BinaryUserSnapshot.convertTextSnapshot(
+                        other, snapshot, userLog.getCheckpointLsn(), loadParallelism());
+                System.out.println("Converted text user snapshot to binary: " + stats.getUsers() + " users, "
+                        + stats.getBytes() + " -> " + Files.size(snapshot) + " bytes");
+            } else {
+                UserStore state = newFoldStore();
+                readSnapshot(other, state);
+                Path tmp = Paths.get(USER_FILE + ".tmp");
+                try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+                    writeTextSnapshot(state, fos);
+                    fos.getFD().sync();
+                }
+                Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("Converted binary user snapshot to text: " + state.size() + " users");
+            }
+            Files.move(other, other.resolveSibling(other.getFileName() + ".migrated"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error converting user snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    private boolean isBinarySnapshot() {
+        return !"text".equalsIgnoreCase(snapshotFormat);
+    }
+
+    private Path snapshotPath() {
+        return Paths.get(isBinarySnapshot() ? USER_BINARY_FILE : USER_FILE);
+    }
+
+    /**
+     * File extension of snapshots written in the configured format.
+     */
+    public String snapshotExtension() {
+        return isBinarySnapshot() ? ".bin" : ".txt";
+    }
+
+    private int loadParallelism() {
+        return loadParallelism > 0 ? loadParallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    private void openUploadStore() {
+        try {
+            uploadStore = new ChunkedUploadStore(Paths.get(UPLOAD_DIR));
+        } catch (IOException e) {
+            throw new IllegalStateException("Error opening upload store: " + e.getMessage(), e);
+        }
+        migrateUploads();
     }
 
     private void createDirectories() {
@@ -38,18 +187,7 @@ public class FileStorageService {
 
     public void saveUserToFile(User user) {
         try {
-            String userData = String.format("%d,%s,%s,%s%n",
-                    user.getId(),
-                    user.getUsername(),
-                    user.getEmail(),
-                    new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
-            
-            Files.write(Paths.get(USER_FILE), 
-                       userData.getBytes(StandardCharsets.UTF_8),
-                       StandardOpenOption.CREATE,
-                       StandardOpenOption.APPEND);
-            
-            createBackup();
+            userLog.append(UserWriteAheadLog.OP_CREATE, user);
         } catch (IOException e) {
             System.err.println("Error saving user to file: " + e.getMessage());
         }
@@ -57,26 +195,7 @@ public class FileStorageService {
 
     public void updateUserFile(User user) {
         try {
-            File file = new File(USER_FILE);
-            if (file.exists()) {
-                String content = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
-                String[] lines = content.split("\n");
-                StringBuilder updatedContent = new StringBuilder();
-                
-                for (String line : lines) {
-                    if (line.startsWith(user.getId() + ",")) {
-                        updatedContent.append(String.format("%d,%s,%s,%s%n",
-                                user.getId(),
-                                user.getUsername(),
-                                user.getEmail(),
-                                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date())));
-                    } else if (!line.isEmpty()) {
-                        updatedContent.append(line).append("\n");
-                    }
-                }
-                
-                FileUtils.writeStringToFile(file, updatedContent.toString(), StandardCharsets.UTF_8);
-            }
+            userLog.append(UserWriteAheadLog.OP_UPDATE, user);
         } catch (IOException e) {
             System.err.println("Error updating user file: " + e.getMessage());
         }
@@ -84,45 +203,326 @@ public class FileStorageService {
 
     public void deleteUserFile(User user) {
         try {
-            File file = new File(USER_FILE);
-            if (file.exists()) {
-                String content = FileUtils.readFileToString(file, StandardCharsets.UTF_8);
-                String[] lines = content.split("\n");
-                StringBuilder updatedContent = new StringBuilder();
-                
-                for (String line : lines) {
-                    if (!line.startsWith(user.getId() + ",") && !line.isEmpty()) {
-                        updatedContent.append(line).append("\n");
+            userLog.append(UserWriteAheadLog.OP_DELETE, user);
+        } catch (IOException e) {
+            System.err.println("Error deleting user from file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends log records with {@code op} for {@code users} and waits for them, passing a
+     * failure on to the caller instead of reporting it.
+     */
+    public void appendUserRecords(byte op, List<User> users) throws IOException {
+        userLog.appendAll(op, users);
+    }
+
+    /**
+     * Queues log records with {@code op} for {@code users} without waiting for them; pass
+     * the result to {@link #awaitUserFiles}. See {@link UserWriteAheadLog#queueAll}.
+     */
+    public UserWriteAheadLog.Commit queueUserFiles(byte op, List<User> users) {
+        try {
+            return userLog.queueAll(op, users);
+        } catch (IOException e) {
+            System.err.println("Error queueing user changes for file: " + e.getMessage());
+            return UserWriteAheadLog.Commit.DONE;
+        }
+    }
+
+    public void awaitUserFiles(UserWriteAheadLog.Commit commit) {
+        try {
+            commit.await();
+        } catch (IOException e) {
+            System.err.println("Error writing user changes to file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Exclusive upper bound of the user ids reserved in the log so far.
+     */
+    public long getReservedUserIds() {
+        return userLog.getReservedIds();
+    }
+
+    /**
+     * Durably records that user ids below {@code upTo} may be handed out.
+     */
+    public void reserveUserIds(long upTo) throws IOException {
+        userLog.reserveIds(upTo);
+    }
+
+    /**
+     * Rebuilds the user set from the snapshot ({@code users.bin} or {@code users.txt},
+     * depending on {@code storage.snapshot.format}) followed by the mutation log.
+     */
+    public void loadUsers(UserStore target) throws IOException {
+        UserSnapshotLoader.LoadStats stats = readSnapshot(snapshotPath(), target);
+        System.out.println("Loaded user snapshot: " + stats);
+        long start = System.currentTimeMillis();
+        long[] replayed = {0L};
+        userLog.replay(record -> {
+            applyLogRecord(target, record);
+            replayed[0]++;
+        });
+        System.out.println("Replayed " + replayed[0] + " user log records in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Reads a snapshot in either format; binary files are recognised by their header.
+     */
+    public UserSnapshotLoader.LoadStats readSnapshot(Path snapshot, UserStore target) throws IOException {
+        if (BinaryUserSnapshot.isBinary(snapshot)) {
+            return BinaryUserSnapshot.read(snapshot, target, loadParallelism());
+        }
+        return UserSnapshotLoader.load(snapshot, target, loadParallelism());
+    }
+
+    public static void applyLogRecord(UserStore target, UserWriteAheadLog.LogRecord record) {
+        switch (record.getOp()) {
+            case UserWriteAheadLog.OP_CREATE:
+            case UserWriteAheadLog.OP_UPDATE:
+                target.put(record.toUser());
+                break;
+            case UserWriteAheadLog.OP_DELETE:
+                target.remove(record.getId());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (userLog != null && userLog.getRecordCount() >= compactionThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Folds the mutation log into a new snapshot. Appends keep going while the snapshot
+     * is written; only records that arrive in the meantime, plus any the backup engine
+     * has not shipped yet, are carried over to the new log.
+     */
+    public void compact() {
+        compactionLock.lock();
+        try {
+            try {
+                UserWriteAheadLog.Mark mark = userLog.mark();
+                long offset = mark.getOffset();
+                long lsn = mark.getLsn();
+
+                UserStore state = newFoldStore();
+                Path snapshot = snapshotPath();
+                readSnapshot(snapshot, state);
+                userLog.replay(offset, record -> applyLogRecord(state, record));
+
+                Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+                try (FileOutputStream fos = new FileOutputStream(tmp.toFile())) {
+                    writeSnapshot(state, lsn, fos);
+                    fos.getFD().sync();
+                }
+                Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+                long keepFrom = offset;
+                long floor = logRetentionFloor.getAsLong();
+                if (floor < lsn) {
+                    long floorOffset = userLog.offsetOf(floor + 1, offset);
+                    if (floorOffset >= 0) {
+                        keepFrom = floorOffset;
                     }
                 }
-                
-                FileUtils.writeStringToFile(file, updatedContent.toString(), StandardCharsets.UTF_8);
+                userLog.rewriteFrom(keepFrom, lsn);
+                System.out.println("Compacted user log into snapshot: " + state.size() + " users at LSN " + lsn);
+            } catch (IOException e) {
+                System.err.println("Error compacting user log: " + e.getMessage());
             }
-        } catch (IOException e) {
-            System.err.println("Error deleting user from file: " + e.getMessage());
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the current user set in the configured snapshot format and returns the LSN
+     * it reflects.
+     */
+    public long exportSnapshot(OutputStream out) throws IOException {
+        compactionLock.lock();
+        try {
+            UserWriteAheadLog.Mark mark = userLog.mark();
+            long offset = mark.getOffset();
+            long lsn = mark.getLsn();
+            UserStore state = newFoldStore();
+            readSnapshot(snapshotPath(), state);
+            userLog.replay(offset, record -> applyLogRecord(state, record));
+            writeSnapshot(state, lsn, out);
+            return lsn;
+        } finally {
+            compactionLock.unlock();
         }
     }
 
-    private void createBackup() {
+    /**
+     * Copies every log record after {@code afterLsn} to {@code out} and returns the last
+     * LSN copied. Returns -1 when those records have already been compacted away.
+     */
+    public long copyLogSince(long afterLsn, OutputStream out) throws IOException {
+        compactionLock.lock();
         try {
-            File sourceFile = new File(USER_FILE);
-            if (sourceFile.exists()) {
-                String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-                File backupFile = new File(BACKUP_DIR + "/users_" + timestamp + ".txt");
-                FileUtils.copyFile(sourceFile, backupFile);
+            UserWriteAheadLog.Mark mark = userLog.mark();
+            long offset = mark.getOffset();
+            long lsn = mark.getLsn();
+            if (afterLsn >= lsn) {
+                return afterLsn;
             }
-        } catch (IOException e) {
-            System.err.println("Error creating backup: " + e.getMessage());
+            long from = userLog.offsetOf(afterLsn + 1, offset);
+            if (from < 0) {
+                return -1L;
+            }
+            userLog.copyTo(from, offset, Channels.newChannel(out));
+            return lsn;
+        } finally {
+            compactionLock.unlock();
         }
     }
 
+    /**
+     * Keeps compaction from discarding log records above the given LSN until the
+     * backup engine has shipped them.
+     */
+    public void setLogRetentionFloor(LongSupplier logRetentionFloor) {
+        this.logRetentionFloor = logRetentionFloor;
+    }
+
+    /**
+     * A store to fold a snapshot and the log into. It keeps the users off the heap, so
+     * that compacting or exporting does not hold the whole user set as objects next to
+     * the live store.
+     */
+    UserStore newFoldStore() {
+        return new OffHeapUserStore(foldSlabSize);
+    }
+
+    public void writeSnapshot(UserStore users, long lsn, OutputStream out) throws IOException {
+        if (isBinarySnapshot()) {
+            BinaryUserSnapshot.write(users, lsn, out);
+        } else {
+            writeTextSnapshot(users, out);
+        }
+    }
+
+    public static void writeTextSnapshot(UserStore users, OutputStream out) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        try {
+            users.forEachInIdOrder(user -> {
+                Date updatedAt = user.getUpdatedAt() != null ? user.getUpdatedAt() : new Date();
+                try {
+                    writer.write(String.format("%d,%s,%s,%s%n",
+                            user.getId(),
+                            user.getUsername(),
+                            user.getEmail(),
+                            format.format(updatedAt)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
     public void saveUploadedFile(String filename, byte[] content) throws IOException {
-        Path uploadPath = Paths.get(UPLOAD_DIR, filename);
-        Files.write(uploadPath, content);
+        storeUpload(filename, new ByteArrayInputStream(content));
     }
 
     public byte[] readUploadedFile(String filename) throws IOException {
-        Path uploadPath = Paths.get(UPLOAD_DIR, filename);
-        return Files.readAllBytes(uploadPath);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transferUpload(filename, 0, uploadSize(filename), Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Streams {@code content} into the upload store, replacing any file of the same
+     * name. Chunks already held for other files are not written again. Returns the
+     * number of bytes stored.
+     */
+    public long storeUpload(String filename, InputStream content) throws IOException {
+        ChunkedUploadStore.StoreResult result = uploadStore.store(filename, content, maxUploadBytes);
+        System.out.println("Stored upload " + filename + ": " + result);
+        return result.getSize();
+    }
+
+    public long getMaxUploadBytes() {
+        return maxUploadBytes;
+    }
+
+    /**
+     * Size of an upload; throws {@link java.nio.file.NoSuchFileException} when there is
+     * no such file.
+     */
+    public long uploadSize(String filename) throws IOException {
+        return uploadStore.manifest(filename).getSize();
+    }
+
+    /**
+     * Sends {@code count} bytes of an upload starting at {@code position} to
+     * {@code target}, chunk by chunk with {@link java.nio.channels.FileChannel#transferTo}.
+     */
+    public void transferUpload(String filename, long position, long count, WritableByteChannel target)
+            throws IOException {
+        uploadStore.transfer(filename, position, count, target);
+    }
+
+    /**
+     * Reads an upload from {@code position} on; throws {@link java.nio.file.NoSuchFileException}
+     * when there is no such file.
+     */
+    public InputStream openUpload(String filename, long position) throws IOException {
+        return uploadStore.open(filename, position);
+    }
+
+    public boolean deleteUpload(String filename) throws IOException {
+        return uploadStore.delete(filename);
+    }
+
+    /**
+     * Removes chunks that no upload refers to any more.
+     */
+    public void collectUploadGarbage() {
+        try {
+            System.out.println("Upload garbage collection: " + uploadStore.collectGarbage(uploadGcGraceMs));
+        } catch (IOException e) {
+            System.err.println("Error collecting upload garbage: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves files stored directly in {@code data/uploads} by earlier releases into the
+     * chunk store. Their partial uploads are deleted; other dotfiles are left alone.
+     */
+    private void migrateUploads() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(UPLOAD_DIR))) {
+            for (Path file : files) {
+                if (!Files.isRegularFile(file)) {
+                    continue;
+                }
+                String name = file.getFileName().toString();
+                if (name.startsWith(LEGACY_UPLOAD_TMP_PREFIX) && name.endsWith(".tmp")) {
+                    Files.delete(file);
+                    continue;
+                }
+                if (name.startsWith(".")) {
+                    continue;
+                }
+                try (InputStream in = Files.newInputStream(file)) {
+                    storeUpload(name, in);
+                }
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Error migrating uploads: " + e.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Keeps users as objects in a map. {@link #get} returns the stored instance.
+ */
+public class HeapUserStore implements UserStore {
+
+    private final Map<Long, User> users;
+
+    public HeapUserStore() {
+        this(new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Wraps {@code users}; pass a {@link java.util.LinkedHashMap} to keep insertion order
+     * for single-threaded use.
+     */
+    public HeapUserStore(Map<Long, User> users) {
+        this.users = users;
+    }
+
+    @Override
+    public User get(long id) {
+        return users.get(id);
+    }
+
+    @Override
+    public void put(User user) {
+        users.put(user.getId(), user);
+    }
+
+    @Override
+    public User remove(long id) {
+        return users.remove(id);
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return users.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return users.size();
+    }
+
+    @Override
+    public long maxId() {
+        long max = 0L;
+        for (Long id : users.keySet()) {
+            max = Math.max(max, id);
+        }
+        return max;
+    }
+
+    @Override
+    public void forEach(Consumer<? super User> action) {
+        users.values().forEach(action);
+    }
+
+    @Override
+    public void forEachId(LongConsumer action) {
+        for (Long id : users.keySet()) {
+            action.accept(id);
+        }
+    }
+
+    @Override
+    public Collection<User> values() {
+        return Collections.unmodifiableCollection(users.values());
+    }
+
+    @Override
+    public String toString() {
+        return "heap store, " + users.size() + " users";
+    }
+}
@@ -6,8 +6,6 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Lists;
 import org.springframework.stereotype.Component;
-import sun.misc.BASE64Encoder;
-import sun.misc.BASE64Decoder;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.lang.reflect.Field;
@@ -18,7 +16,9 @@ import java.util.stream.Collectors;
  * Legacy demonstration class intentionally showcasing Java 8 patterns that break in Java 11+.
  *
  * This class exists to demonstrate migration challenges when upgrading from Java 8:
- * - Uses sun.misc.BASE64Encoder/Decoder (removed in Java 11, replace with java.util.Base64)
+ * - Used sun.misc.BASE64Encoder/Decoder (removed in Java 9); now java.util.Base64, with the
+ *   same line breaks, so that the application starts on the Java 21 runtime needed for
+ *   virtual threads
  * - Uses sun.misc.Unsafe internal API (restricted in Java 9+)
  * - Contains finalize() method (deprecated in Java 9, removed in later versions)
  * - Shows Guava functional patterns that can be replaced with Java 8+ streams
@@ -28,8 +28,8 @@ import java.util.stream.Collectors;
 @Component
 public class Java8Features {
 
-    private final BASE64Encoder encoder = new BASE64Encoder();
-    private final BASE64Decoder decoder = new BASE64Decoder();
+    private final Base64.Encoder encoder = Base64.getMimeEncoder(76, new byte[] {'\n'});
+    private final Base64.Decoder decoder = Base64.getMimeDecoder();
 
     public void processUserWithLambda(User user) {
         List<String> attributes = Arrays.asList(user.getUsername(), user.getEmail());
@@ -51,11 +51,15 @@ public class Java8Features {
     }
 
     public String encodeString(String input) {
-        return encoder.encode(input.getBytes());
+        return encoder.encodeToString(input.getBytes());
     }
 
     public String decodeString(String encoded) throws IOException {
-        return new String(decoder.decodeBuffer(encoded));
+        try {
+            return new String(decoder.decode(encoded));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
     }
 
     public List<String> processWithGuava(List<User> users) {
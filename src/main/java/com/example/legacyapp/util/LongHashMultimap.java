@@ -0,0 +1,118 @@
+package com.example.legacyapp.util;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Multimap from long keys to long values held in primitive arrays, using open addressing
+ * with linear probing. A key may map to several values; each {@code (key, value)} pair is
+ * stored once. Meant for keys that are hashes of wider values, with few values per key.
+ *
+ * Not thread-safe; owners guard it with their own lock.
+ */
+public class LongHashMultimap {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private boolean[] used = new boolean[INITIAL_CAPACITY];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean put(long key, long value) {
+        if ((size + 1) * 4L > keys.length * 3L) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; used[slot]; slot = (slot + 1) & mask) {
+            if (keys[slot] == key && values[slot] == value) {
+                return false;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes the pair and shifts later entries of the probe run back into the hole, so
+     * that lookups never need tombstones.
+     */
+    public boolean remove(long key, long value) {
+        int mask = keys.length - 1;
+        int hole = hash(key) & mask;
+        while (true) {
+            if (!used[hole]) {
+                return false;
+            }
+            if (keys[hole] == key && values[hole] == value) {
+                break;
+            }
+            hole = (hole + 1) & mask;
+        }
+        for (int slot = (hole + 1) & mask; used[slot]; slot = (slot + 1) & mask) {
+            int home = hash(keys[slot]) & mask;
+            // Move the entry into the hole unless its home lies cyclically within (hole, slot]
+            boolean stays = hole <= slot ? (home > hole && home <= slot) : (home > hole || home <= slot);
+            if (!stays) {
+                keys[hole] = keys[slot];
+                values[hole] = values[slot];
+                hole = slot;
+            }
+        }
+        used[hole] = false;
+        size--;
+        return true;
+    }
+
+    public void forEach(long key, LongConsumer action) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                action.accept(values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Approximate heap bytes held by the map.
+     */
+    public long memoryBytes() {
+        return 3 * 16 + 17L * keys.length;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (used[slot]) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                used[slot] = true;
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
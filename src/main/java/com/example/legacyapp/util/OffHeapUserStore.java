@@ -0,0 +1,514 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Keeps users serialized with {@link UserRecordCodec} in direct buffers outside the Java
+ * heap, so the collector never has to trace them. Records include the password, roles
+ * and permissions, which the log and snapshots leave out. {@link #get} decodes a fresh
+ * {@link User} on every call.
+ *
+ * Records are appended to fixed-size slabs as {@code [int length][record]}; replacing or
+ * removing a user leaves the old bytes behind until dead bytes outweigh live ones, at
+ * which point the live records are copied into new slabs. The id index is an
+ * open-addressing hash table with linear probing, also held in a direct buffer as
+ * 16-byte {@code [long id][long address + 1]} slots (0 marks an empty slot).
+ *
+ * Users are spread by id hash over segments, each with its own lock, slabs and index,
+ * so writers to different segments do not wait for each other and a compaction only
+ * copies and blocks one segment.
+ */
+public class OffHeapUserStore implements UserStore {
+
+    private static final int DEFAULT_SLAB_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_SEGMENTS = 16;
+    private static final int INITIAL_CAPACITY = 1 << 8;
+    private static final int SLOT_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 4;
+    private static final long NONE = -1L;
+
+    private final Segment[] segments;
+
+    public OffHeapUserStore() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    public OffHeapUserStore(int slabSize) {
+        this(slabSize, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * Splits the store into {@code segments}, each allocating slabs of
+     * {@code slabSize / segments} bytes.
+     */
+    public OffHeapUserStore(int slabSize, int segments) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("Off-heap user store needs at least one segment, not " + segments);
+        }
+        this.segments = new Segment[segments];
+        for (int i = 0; i < segments; i++) {
+            this.segments[i] = new Segment(Math.max(1, slabSize / segments));
+        }
+    }
+
+    @Override
+    public User get(long id) {
+        return segmentFor(id).get(id);
+    }
+
+    @Override
+    public void put(User user) {
+        segmentFor(user.getId()).put(user);
+    }
+
+    @Override
+    public User remove(long id) {
+        return segmentFor(id).remove(id);
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return segmentFor(id).contains(id);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Scans the index only; no records are decoded.
+     */
+    @Override
+    public long maxId() {
+        long max = 0L;
+        for (Segment segment : segments) {
+            max = Math.max(max, segment.maxId());
+        }
+        return max;
+    }
+
+    /**
+     * Visits one segment at a time under its read lock, so users changed in other
+     * segments meanwhile may or may not be seen.
+     */
+    @Override
+    public void forEach(Consumer<? super User> action) {
+        for (Segment segment : segments) {
+            segment.forEach(action);
+        }
+    }
+
+    /**
+     * Scans the index only; no records are decoded.
+     */
+    @Override
+    public void forEachId(LongConsumer action) {
+        for (Segment segment : segments) {
+            segment.forEachId(action);
+        }
+    }
+
+    /**
+     * Decodes every user into a new list.
+     */
+    @Override
+    public Collection<User> values() {
+        List<User> users = new ArrayList<>(size());
+        forEach(users::add);
+        return users;
+    }
+
+    int slabCount() {
+        int slabs = 0;
+        for (Segment segment : segments) {
+            slabs += segment.slabCount();
+        }
+        return slabs;
+    }
+
+    private Segment segmentFor(long id) {
+        // The high hash bits pick the segment; the index slot comes from the low ones
+        return segments[(int) (((hash(id) & 0xffffffffL) * segments.length) >>> 32)];
+    }
+
+    private static int hash(long id) {
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static int slabOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+
+    @Override
+    public String toString() {
+        int size = 0;
+        long liveBytes = 0;
+        long slabBytes = 0;
+        int slabCount = 0;
+        long indexBytes = 0;
+        for (Segment segment : segments) {
+            segment.lock.readLock().lock();
+            try {
+                size += segment.size;
+                liveBytes += segment.liveBytes;
+                for (ByteBuffer slab : segment.slabs) {
+                    slabBytes += slab.capacity();
+                }
+                slabCount += segment.slabs.size();
+                indexBytes += (long) segment.capacity * SLOT_SIZE;
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+        return String.format("off-heap store, %d users in %d segments, %.1f MB live records, %.1f MB in %d slabs, "
+                        + "%.1f MB index", size, segments.length, liveBytes / 1048576.0, slabBytes / 1048576.0,
+                slabCount, indexBytes / 1048576.0);
+    }
+
+    private static final class Segment {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final int slabSize;
+        private final RecordBuffer encodeBuffer = new RecordBuffer();
+        private final DataOutputStream encodeOut = new DataOutputStream(encodeBuffer);
+
+        private List<ByteBuffer> slabs = new ArrayList<>();
+        private int slabOffset;
+        private ByteBuffer index;
+        private int capacity;
+        private int size;
+        private long liveBytes;
+        private long deadBytes;
+
+        Segment(int slabSize) {
+            this.slabSize = slabSize;
+            this.capacity = INITIAL_CAPACITY;
+            this.index = ByteBuffer.allocateDirect(indexBytes(capacity));
+        }
+
+        User get(long id) {
+            lock.readLock().lock();
+            try {
+                long address = find(id);
+                return address == NONE ? null : decode(address);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void put(User user) {
+            lock.writeLock().lock();
+            try {
+                encodeBuffer.reset();
+                try {
+                    UserRecordCodec.write(encodeOut, user, true);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                int length = encodeBuffer.size();
+                long address = allocate(RECORD_HEADER_SIZE + length);
+                ByteBuffer slab = slabs.get(slabOf(address)).duplicate();
+                ((Buffer) slab).position(offsetOf(address));
+                slab.putInt(length);
+                slab.put(encodeBuffer.array(), 0, length);
+
+                long previous = insert(user.getId(), address);
+                if (previous == NONE) {
+                    size++;
+                } else {
+                    int previousSize = recordSize(previous);
+                    liveBytes -= previousSize;
+                    deadBytes += previousSize;
+                }
+                liveBytes += RECORD_HEADER_SIZE + length;
+                compactIfNeeded();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        User remove(long id) {
+            lock.writeLock().lock();
+            try {
+                long address = delete(id);
+                if (address == NONE) {
+                    return null;
+                }
+                User user = decode(address);
+                int recordSize = recordSize(address);
+                liveBytes -= recordSize;
+                deadBytes += recordSize;
+                size--;
+                compactIfNeeded();
+                return user;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        boolean contains(long id) {
+            lock.readLock().lock();
+            try {
+                return find(id) != NONE;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int size() {
+            lock.readLock().lock();
+            try {
+                return size;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        long maxId() {
+            lock.readLock().lock();
+            try {
+                long max = 0L;
+                for (int slot = 0; slot < capacity; slot++) {
+                    if (index.getLong(slot * SLOT_SIZE + 8) != 0) {
+                        max = Math.max(max, index.getLong(slot * SLOT_SIZE));
+                    }
+                }
+                return max;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void forEach(Consumer<? super User> action) {
+            lock.readLock().lock();
+            try {
+                for (int slot = 0; slot < capacity; slot++) {
+                    long value = index.getLong(slot * SLOT_SIZE + 8);
+                    if (value != 0) {
+                        action.accept(decode(value - 1));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void forEachId(LongConsumer action) {
+            lock.readLock().lock();
+            try {
+                for (int slot = 0; slot < capacity; slot++) {
+                    if (index.getLong(slot * SLOT_SIZE + 8) != 0) {
+                        action.accept(index.getLong(slot * SLOT_SIZE));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private User decode(long address) {
+            ByteBuffer record = slabs.get(slabOf(address)).duplicate();
+            int offset = offsetOf(address);
+            int length = record.getInt(offset);
+            ((Buffer) record).limit(offset + RECORD_HEADER_SIZE + length).position(offset + RECORD_HEADER_SIZE);
+            return UserRecordCodec.read(record);
+        }
+
+        private int recordSize(long address) {
+            return RECORD_HEADER_SIZE + slabs.get(slabOf(address)).getInt(offsetOf(address));
+        }
+
+        private long allocate(int bytes) {
+            ByteBuffer current = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+            if (current == null || slabOffset + bytes > current.capacity()) {
+                slabs.add(ByteBuffer.allocateDirect(Math.max(slabSize, bytes)));
+                slabOffset = 0;
+            }
+            long address = ((long) (slabs.size() - 1) << 32) | slabOffset;
+            slabOffset += bytes;
+            return address;
+        }
+
+        /**
+         * Copies live records into fresh slabs once more than half of the allocated bytes
+         * belong to replaced or removed users. The old slabs are released by the collector.
+         */
+        private void compactIfNeeded() {
+            if (deadBytes <= liveBytes || deadBytes < slabSize) {
+                return;
+            }
+            List<ByteBuffer> oldSlabs = slabs;
+            slabs = new ArrayList<>();
+            slabOffset = 0;
+            for (int slot = 0; slot < capacity; slot++) {
+                int position = slot * SLOT_SIZE + 8;
+                long value = index.getLong(position);
+                if (value == 0) {
+                    continue;
+                }
+                long oldAddress = value - 1;
+                ByteBuffer source = oldSlabs.get(slabOf(oldAddress));
+                int offset = offsetOf(oldAddress);
+                int recordSize = RECORD_HEADER_SIZE + source.getInt(offset);
+                long newAddress = allocate(recordSize);
+                ByteBuffer from = source.duplicate();
+                ((Buffer) from).limit(offset + recordSize).position(offset);
+                ByteBuffer to = slabs.get(slabOf(newAddress)).duplicate();
+                ((Buffer) to).position(offsetOf(newAddress));
+                to.put(from);
+                index.putLong(position, newAddress + 1);
+            }
+            deadBytes = 0;
+        }
+
+        private long find(long id) {
+            int mask = capacity - 1;
+            for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+                long value = index.getLong(slot * SLOT_SIZE + 8);
+                if (value == 0) {
+                    return NONE;
+                }
+                if (index.getLong(slot * SLOT_SIZE) == id) {
+                    return value - 1;
+                }
+            }
+        }
+
+        /**
+         * Points {@code id} at {@code address} and returns the address it replaced, if any.
+         */
+        private long insert(long id, long address) {
+            if ((size + 1) * 4L > capacity * 3L) {
+                resize(capacity * 2);
+            }
+            int mask = capacity - 1;
+            for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask) {
+                int position = slot * SLOT_SIZE;
+                long value = index.getLong(position + 8);
+                if (value == 0) {
+                    index.putLong(position, id);
+                    index.putLong(position + 8, address + 1);
+                    return NONE;
+                }
+                if (index.getLong(position) == id) {
+                    index.putLong(position + 8, address + 1);
+                    return value - 1;
+                }
+            }
+        }
+
+        /**
+         * Removes {@code id} from the index and returns its address. Later entries of the
+         * same probe run are shifted back so that lookups never need tombstones.
+         */
+        private long delete(long id) {
+            int mask = capacity - 1;
+            int hole = hash(id) & mask;
+            long address;
+            while (true) {
+                long value = index.getLong(hole * SLOT_SIZE + 8);
+                if (value == 0) {
+                    return NONE;
+                }
+                if (index.getLong(hole * SLOT_SIZE) == id) {
+                    address = value - 1;
+                    break;
+                }
+                hole = (hole + 1) & mask;
+            }
+            for (int slot = (hole + 1) & mask; ; slot = (slot + 1) & mask) {
+                long value = index.getLong(slot * SLOT_SIZE + 8);
+                if (value == 0) {
+                    break;
+                }
+                long key = index.getLong(slot * SLOT_SIZE);
+                int home = hash(key) & mask;
+                // Move the entry into the hole unless its home lies cyclically within (hole, slot]
+                boolean stays = hole <= slot ? (home > hole && home <= slot) : (home > hole || home <= slot);
+                if (!stays) {
+                    index.putLong(hole * SLOT_SIZE, key);
+                    index.putLong(hole * SLOT_SIZE + 8, value);
+                    hole = slot;
+                }
+            }
+            index.putLong(hole * SLOT_SIZE, 0L);
+            index.putLong(hole * SLOT_SIZE + 8, 0L);
+            return address;
+        }
+
+        private void resize(int newCapacity) {
+            ByteBuffer oldIndex = index;
+            int oldCapacity = capacity;
+            index = ByteBuffer.allocateDirect(indexBytes(newCapacity));
+            capacity = newCapacity;
+            int mask = newCapacity - 1;
+            for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+                long value = oldIndex.getLong(oldSlot * SLOT_SIZE + 8);
+                if (value == 0) {
+                    continue;
+                }
+                long key = oldIndex.getLong(oldSlot * SLOT_SIZE);
+                int slot = hash(key) & mask;
+                while (index.getLong(slot * SLOT_SIZE + 8) != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                index.putLong(slot * SLOT_SIZE, key);
+                index.putLong(slot * SLOT_SIZE + 8, value);
+            }
+        }
+
+        /**
+         * Size of an index of {@code capacity} slots, which has to fit in one buffer.
+         */
+        private static int indexBytes(int capacity) {
+            long bytes = (long) capacity * SLOT_SIZE;
+            if (bytes > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Off-heap user index cannot grow to " + capacity + " slots");
+            }
+            return (int) bytes;
+        }
+
+        int slabCount() {
+            lock.readLock().lock();
+            try {
+                return slabs.size();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Sorted index of {@code (key, id)} pairs for prefix lookups, where the keys are
+ * lower-cased strings derived from a user.
+ *
+ * Pairs are kept in order in leaves of at most {@link #LEAF_SIZE} entries. Each leaf is a
+ * front-coded byte array: an entry stores how many characters it shares with the previous
+ * key, the remaining characters and the id, each as a varint. Keys of similar users share
+ * most of their characters, so an entry usually takes a handful of bytes. A lookup binary
+ * searches the first keys of the leaves and decodes forward from there; a change decodes
+ * and rewrites a single leaf, splitting it when it gets full.
+ */
+public class PrefixIndex {
+
+    private static final int LEAF_SIZE = 128;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Leaf[] leaves = new Leaf[0];
+    private int leafCount;
+    private long entries;
+
+    public void add(long id, Collection<String> keys) {
+        lock.writeLock().lock();
+        try {
+            for (String key : keys) {
+                insert(TrigramIndex.normalize(key), id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id, Collection<String> keys) {
+        lock.writeLock().lock();
+        try {
+            for (String key : keys) {
+                delete(TrigramIndex.normalize(key), id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the keys of {@code id}, touching only the ones that differ.
+     */
+    public void update(long id, Collection<String> oldKeys, Collection<String> newKeys) {
+        Set<String> before = normalize(oldKeys);
+        Set<String> after = normalize(newKeys);
+        lock.writeLock().lock();
+        try {
+            for (String key : before) {
+                if (!after.contains(key)) {
+                    delete(key, id);
+                }
+            }
+            for (String key : after) {
+                if (!before.contains(key)) {
+                    insert(key, id);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Up to {@code limit} distinct ids with a key starting with {@code prefix}, ordered
+     * by the first matching key and then by id.
+     */
+    public List<Long> find(String prefix, int limit) {
+        String needle = TrigramIndex.normalize(prefix);
+        Set<Long> ids = new LinkedHashSet<>();
+        lock.readLock().lock();
+        try {
+            Entries cursor = new Entries();
+            for (int l = leafFor(needle, Long.MIN_VALUE); l < leafCount && ids.size() < limit; l++) {
+                cursor.decode(leaves[l]);
+                for (int i = 0; i < cursor.count && ids.size() < limit; i++) {
+                    String key = cursor.keys[i];
+                    if (key.startsWith(needle)) {
+                        ids.add(cursor.ids[i]);
+                    } else if (key.compareTo(needle) > 0) {
+                        return new ArrayList<>(ids);
+                    }
+                }
+            }
+            return new ArrayList<>(ids);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of the index with the keys of every user in {@code users}.
+     */
+    public void build(UserStore users, Function<User, Collection<String>> keys) {
+        List<Pair> pairs = new ArrayList<>(users.size());
+        users.forEach(user -> {
+            for (String key : normalize(keys.apply(user))) {
+                pairs.add(new Pair(key, user.getId()));
+            }
+        });
+        pairs.sort((a, b) -> compare(a.key, a.id, b.key, b.id));
+
+        lock.writeLock().lock();
+        try {
+            leaves = new Leaf[Math.max(1, (pairs.size() + LEAF_SIZE - 1) / LEAF_SIZE)];
+            leafCount = 0;
+            entries = pairs.size();
+            Entries leaf = new Entries();
+            for (int start = 0; start < pairs.size(); start += LEAF_SIZE) {
+                leaf.count = 0;
+                for (int i = start; i < Math.min(pairs.size(), start + LEAF_SIZE); i++) {
+                    leaf.append(pairs.get(i).key, pairs.get(i).id);
+                }
+                leaves[leafCount++] = leaf.encode(0, leaf.count);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void insert(String key, long id) {
+        if (leafCount == 0) {
+            Entries single = new Entries();
+            single.append(key, id);
+            addLeaf(0, single.encode(0, 1));
+            entries++;
+            return;
+        }
+        int l = leafFor(key, id);
+        Entries leaf = new Entries();
+        leaf.decode(leaves[l]);
+        int position = leaf.search(key, id);
+        if (position >= 0) {
+            return;
+        }
+        leaf.insert(-position - 1, key, id);
+        entries++;
+        if (leaf.count <= LEAF_SIZE) {
+            leaves[l] = leaf.encode(0, leaf.count);
+        } else {
+            int half = leaf.count / 2;
+            leaves[l] = leaf.encode(0, half);
+            addLeaf(l + 1, leaf.encode(half, leaf.count));
+        }
+    }
+
+    private void delete(String key, long id) {
+        if (leafCount == 0) {
+            return;
+        }
+        int l = leafFor(key, id);
+        Entries leaf = new Entries();
+        leaf.decode(leaves[l]);
+        int position = leaf.search(key, id);
+        if (position < 0) {
+            return;
+        }
+        leaf.delete(position);
+        entries--;
+        if (leaf.count > 0) {
+            leaves[l] = leaf.encode(0, leaf.count);
+        } else {
+            System.arraycopy(leaves, l + 1, leaves, l, leafCount - l - 1);
+            leaves[--leafCount] = null;
+        }
+    }
+
+    private void addLeaf(int l, Leaf leaf) {
+        if (leafCount == leaves.length) {
+            leaves = Arrays.copyOf(leaves, Math.max(4, leafCount * 2));
+        }
+        System.arraycopy(leaves, l, leaves, l + 1, leafCount - l);
+        leaves[l] = leaf;
+        leafCount++;
+    }
+
+    /**
+     * The last leaf whose first entry is not after {@code (key, id)}, or the first leaf.
+     */
+    private int leafFor(String key, long id) {
+        int low = 0;
+        int high = leafCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (compare(leaves[mid].firstKey, leaves[mid].firstId, key, id) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static int compare(String key1, long id1, String key2, long id2) {
+        int result = key1.compareTo(key2);
+        return result != 0 ? result : Long.compare(id1, id2);
+    }
+
+    private static Set<String> normalize(Collection<String> keys) {
+        Set<String> normalized = new HashSet<>();
+        for (String key : keys) {
+            normalized.add(TrigramIndex.normalize(key));
+        }
+        return normalized;
+    }
+
+    /**
+     * Approximate heap bytes held by the index.
+     */
+    public long memoryBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 16 + 8L * leaves.length;
+            for (int l = 0; l < leafCount; l++) {
+                // leaf object, data array and the first key
+                bytes += 32 + 16 + leaves[l].data.length + 40 + 2L * leaves[l].firstKey.length();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        long bytes = memoryBytes();
+        lock.readLock().lock();
+        try {
+            return String.format("%d keys in %d leaves, ~%.1f MB", entries, leafCount, bytes / 1048576.0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static final class Pair {
+        private final String key;
+        private final long id;
+
+        Pair(String key, long id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    private static final class Leaf {
+        private final String firstKey;
+        private final long firstId;
+        private final byte[] data;
+        private final int count;
+
+        Leaf(String firstKey, long firstId, byte[] data, int count) {
+            this.firstKey = firstKey;
+            this.firstId = firstId;
+            this.data = data;
+            this.count = count;
+        }
+    }
+
+    /**
+     * The decoded entries of one leaf.
+     */
+    private static final class Entries {
+        private String[] keys = new String[LEAF_SIZE + 1];
+        private long[] ids = new long[LEAF_SIZE + 1];
+        private int count;
+
+        void decode(Leaf leaf) {
+            byte[] data = leaf.data;
+            int[] position = {0};
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < leaf.count; i++) {
+                key.setLength((int) readVarLong(data, position));
+                int suffix = (int) readVarLong(data, position);
+                for (int c = 0; c < suffix; c++) {
+                    key.append((char) readVarLong(data, position));
+                }
+                keys[i] = key.toString();
+                ids[i] = readVarLong(data, position);
+            }
+            count = leaf.count;
+        }
+
+        Leaf encode(int from, int to) {
+            VarOutput out = new VarOutput();
+            String previous = "";
+            for (int i = from; i < to; i++) {
+                String key = keys[i];
+                int shared = 0;
+                int max = Math.min(previous.length(), key.length());
+                while (shared < max && previous.charAt(shared) == key.charAt(shared)) {
+                    shared++;
+                }
+                out.write(shared);
+                out.write(key.length() - shared);
+                for (int c = shared; c < key.length(); c++) {
+                    out.write(key.charAt(c));
+                }
+                out.write(ids[i]);
+                previous = key;
+            }
+            return new Leaf(keys[from], ids[from], out.toByteArray(), to - from);
+        }
+
+        int search(String key, long id) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int result = compare(keys[mid], ids[mid], key, id);
+                if (result < 0) {
+                    low = mid + 1;
+                } else if (result > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        void append(String key, long id) {
+            insert(count, key, id);
+        }
+
+        void insert(int position, String key, long id) {
+            System.arraycopy(keys, position, keys, position + 1, count - position);
+            System.arraycopy(ids, position, ids, position + 1, count - position);
+            keys[position] = key;
+            ids[position] = id;
+            count++;
+        }
+
+        void delete(int position) {
+            System.arraycopy(keys, position + 1, keys, position, count - position - 1);
+            System.arraycopy(ids, position + 1, ids, position, count - position - 1);
+            count--;
+        }
+
+        private static long readVarLong(byte[] data, int[] position) {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position[0]++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+
+    private static final class VarOutput {
+        private byte[] buffer = new byte[256];
+        private int size;
+
+        void write(long value) {
+            if (size + 10 > buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.legacyapp.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Ascending set of longs split into chunks of at most {@link #CHUNK_SIZE}, so that an
+ * insert or removal in the middle of a large set only shifts one chunk. Appending a value
+ * larger than all others, the common case for new ids, is constant time.
+ *
+ * Not thread-safe; owners guard it with their own lock.
+ */
+public class SortedLongSet {
+
+    private static final int CHUNK_SIZE = 512;
+
+    private long[][] chunks = new long[1][];
+    private int[] chunkSizes = new int[1];
+    private int chunkCount;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds {@code value} without keeping order, for filling a set in bulk;
+     * {@link #sort} must be called before any other method.
+     */
+    public void addUnordered(long value) {
+        if (chunkCount == 0) {
+            chunks[0] = new long[4];
+            chunkCount = 1;
+        }
+        long[] all = chunks[0];
+        if (size == all.length) {
+            chunks[0] = all = Arrays.copyOf(all, size * 2);
+        }
+        all[size++] = value;
+        chunkSizes[0] = size;
+    }
+
+    /**
+     * Sorts and de-duplicates the values added with {@link #addUnordered} and splits
+     * them into full chunks.
+     */
+    public void sort() {
+        if (chunkCount == 0) {
+            return;
+        }
+        long[] all = chunks[0];
+        Arrays.sort(all, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || all[i] != all[unique - 1]) {
+                all[unique++] = all[i];
+            }
+        }
+        size = unique;
+        chunkCount = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        chunks = new long[Math.max(chunkCount, 1)][];
+        chunkSizes = new int[chunks.length];
+        for (int c = 0; c < chunkCount; c++) {
+            chunks[c] = Arrays.copyOfRange(all, c * CHUNK_SIZE, Math.min(size, (c + 1) * CHUNK_SIZE));
+            chunkSizes[c] = chunks[c].length;
+        }
+    }
+
+    public boolean add(long value) {
+        if (chunkCount == 0) {
+            chunks[0] = new long[4];
+            chunkCount = 1;
+        }
+        int c = chunkFor(value, 0);
+        long[] chunk = chunks[c];
+        int chunkSize = chunkSizes[c];
+        int position = Arrays.binarySearch(chunk, 0, chunkSize, value);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+        if (chunkSize == CHUNK_SIZE) {
+            if (c == chunkCount - 1 && position == chunkSize) {
+                // Start a fresh chunk rather than splitting, so appended chunks stay full
+                addChunk(++c, new long[4], 0);
+                position = 0;
+            } else {
+                int half = CHUNK_SIZE / 2;
+                long[] upper = new long[CHUNK_SIZE];
+                System.arraycopy(chunk, half, upper, 0, CHUNK_SIZE - half);
+                chunkSizes[c] = half;
+                addChunk(c + 1, upper, CHUNK_SIZE - half);
+                if (position > half) {
+                    c++;
+                    position -= half;
+                }
+            }
+        }
+        chunk = chunks[c];
+        chunkSize = chunkSizes[c];
+        if (chunkSize == chunk.length) {
+            chunks[c] = chunk = Arrays.copyOf(chunk, Math.min(chunkSize * 2, CHUNK_SIZE));
+        }
+        System.arraycopy(chunk, position, chunk, position + 1, chunkSize - position);
+        chunk[position] = value;
+        chunkSizes[c] = chunkSize + 1;
+        size++;
+        return true;
+    }
+
+    public boolean remove(long value) {
+        if (size == 0) {
+            return false;
+        }
+        int c = chunkFor(value, 0);
+        long[] chunk = chunks[c];
+        int chunkSize = chunkSizes[c];
+        int position = Arrays.binarySearch(chunk, 0, chunkSize, value);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(chunk, position + 1, chunk, position, chunkSize - position - 1);
+        chunkSizes[c] = --chunkSize;
+        size--;
+        if (chunkSize == 0) {
+            System.arraycopy(chunks, c + 1, chunks, c, chunkCount - c - 1);
+            System.arraycopy(chunkSizes, c + 1, chunkSizes, c, chunkCount - c - 1);
+            chunks[--chunkCount] = null;
+        } else if (chunk.length > 16 && chunkSize < chunk.length / 4) {
+            chunks[c] = Arrays.copyOf(chunk, chunk.length / 2);
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (size == 0) {
+            return false;
+        }
+        int c = chunkFor(value, 0);
+        return Arrays.binarySearch(chunks[c], 0, chunkSizes[c], value) >= 0;
+    }
+
+    /**
+     * Up to {@code limit} values greater than {@code after}, in ascending order.
+     */
+    public long[] after(long after, int limit) {
+        long[] result = new long[Math.min(limit, size)];
+        int found = 0;
+        if (size == 0) {
+            return result;
+        }
+        int c = chunkFor(after, 0);
+        int position = Arrays.binarySearch(chunks[c], 0, chunkSizes[c], after);
+        position = position >= 0 ? position + 1 : -position - 1;
+        for (; c < chunkCount && found < result.length; c++, position = 0) {
+            int count = Math.min(chunkSizes[c] - position, result.length - found);
+            System.arraycopy(chunks[c], position, result, found, count);
+            found += count;
+        }
+        return found == result.length ? result : Arrays.copyOf(result, found);
+    }
+
+    public void forEach(LongConsumer action) {
+        for (int c = 0; c < chunkCount; c++) {
+            long[] chunk = chunks[c];
+            for (int i = 0; i < chunkSizes[c]; i++) {
+                action.accept(chunk[i]);
+            }
+        }
+    }
+
+    /**
+     * A cursor for membership tests with ascending values.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Approximate heap bytes held by the set.
+     */
+    public long memoryBytes() {
+        long bytes = 16 + 8L * chunks.length + 16 + 4L * chunkSizes.length;
+        for (int c = 0; c < chunkCount; c++) {
+            bytes += 16 + 8L * chunks[c].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Index of the first chunk whose last value is at least {@code value}, or the last chunk.
+     */
+    private int chunkFor(long value, int fromChunk) {
+        int low = fromChunk;
+        int high = chunkCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (chunks[mid][chunkSizes[mid] - 1] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void addChunk(int c, long[] chunk, int chunkSize) {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            chunkSizes = Arrays.copyOf(chunkSizes, chunkCount * 2);
+        }
+        System.arraycopy(chunks, c, chunks, c + 1, chunkCount - c);
+        System.arraycopy(chunkSizes, c, chunkSizes, c + 1, chunkCount - c);
+        chunks[c] = chunk;
+        chunkSizes[c] = chunkSize;
+        chunkCount++;
+    }
+
+    /**
+     * Forward-only membership test: each value passed to {@link #contains} must be
+     * larger than the previous one, and the search resumes where the last one ended.
+     */
+    public final class Cursor {
+        private int chunk;
+        private int position;
+
+        private Cursor() {
+        }
+
+        public boolean contains(long value) {
+            if (chunk >= chunkCount || chunkSizes[chunk] == 0) {
+                return false;
+            }
+            if (chunks[chunk][chunkSizes[chunk] - 1] < value) {
+                chunk = chunkFor(value, chunk + 1 < chunkCount ? chunk + 1 : chunk);
+                position = 0;
+                if (chunks[chunk][chunkSizes[chunk] - 1] < value) {
+                    chunk = chunkCount;
+                    return false;
+                }
+            }
+            int found = Arrays.binarySearch(chunks[chunk], position, chunkSizes[chunk], value);
+            position = found >= 0 ? found + 1 : -found - 1;
+            return found >= 0;
+        }
+    }
+}
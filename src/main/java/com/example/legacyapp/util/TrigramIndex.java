@@ -0,0 +1,190 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Inverted index from the lower-cased trigrams of a string attribute to the ids of the
+ * records that contain them, used to answer substring queries without a full scan.
+ *
+ * Each posting list is a {@link SortedLongSet}: users created later have larger ids and
+ * are appended, other changes shift a single chunk of the list. A query intersects the
+ * lists of its trigrams starting from the shortest one, so the work done follows the
+ * rarest trigram rather than the number of records. Intersection can produce false
+ * positives (the trigrams may occur apart), so callers must check the candidates.
+ */
+public class TrigramIndex {
+
+    public static final int MIN_QUERY_LENGTH = 3;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, SortedLongSet> postings = new HashMap<>();
+
+    /**
+     * Lower-cases {@code value} the same way the index does, for checking candidates.
+     */
+    public static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    public void add(long id, String value) {
+        if (value == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (long trigram : trigrams(normalize(value))) {
+                postings.computeIfAbsent(trigram, key -> new SortedLongSet()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id, String value) {
+        if (value == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (long trigram : trigrams(normalize(value))) {
+                removePosting(trigram, id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves {@code id} from the trigrams of {@code oldValue} to those of {@code newValue},
+     * touching only the trigrams that differ.
+     */
+    public void update(long id, String oldValue, String newValue) {
+        Set<Long> before = oldValue != null ? trigrams(normalize(oldValue)) : new HashSet<>();
+        Set<Long> after = newValue != null ? trigrams(normalize(newValue)) : new HashSet<>();
+        lock.writeLock().lock();
+        try {
+            for (long trigram : before) {
+                if (!after.contains(trigram)) {
+                    removePosting(trigram, id);
+                }
+            }
+            for (long trigram : after) {
+                if (!before.contains(trigram)) {
+                    postings.computeIfAbsent(trigram, key -> new SortedLongSet()).add(id);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removePosting(long trigram, long id) {
+        SortedLongSet list = postings.get(trigram);
+        if (list != null && list.remove(id) && list.size() == 0) {
+            postings.remove(trigram);
+        }
+    }
+
+    /**
+     * Ids, in ascending order, of the records whose value may contain {@code query}; or
+     * null when the query is shorter than {@link #MIN_QUERY_LENGTH} and cannot be
+     * answered from the index.
+     */
+    public long[] candidates(String query) {
+        String needle = normalize(query);
+        if (needle.length() < MIN_QUERY_LENGTH) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            List<SortedLongSet> lists = new ArrayList<>();
+            for (long trigram : trigrams(needle)) {
+                SortedLongSet list = postings.get(trigram);
+                if (list == null) {
+                    return new long[0];
+                }
+                lists.add(list);
+            }
+            lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+            SortedLongSet shortest = lists.get(0);
+            SortedLongSet.Cursor[] others = new SortedLongSet.Cursor[lists.size() - 1];
+            for (int l = 1; l < lists.size(); l++) {
+                others[l - 1] = lists.get(l).cursor();
+            }
+            long[] result = new long[shortest.size()];
+            int[] found = {0};
+            shortest.forEach(id -> {
+                for (SortedLongSet.Cursor other : others) {
+                    if (!other.contains(id)) {
+                        return;
+                    }
+                }
+                result[found[0]++] = id;
+            });
+            return Arrays.copyOf(result, found[0]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of the index with {@code attribute} of every user in
+     * {@code users}. Lists are filled in store order and sorted once at the end.
+     */
+    public void build(UserStore users, Function<User, String> attribute) {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            users.forEach(user -> {
+                String value = attribute.apply(user);
+                if (value != null) {
+                    for (long trigram : trigrams(normalize(value))) {
+                        postings.computeIfAbsent(trigram, key -> new SortedLongSet()).addUnordered(user.getId());
+                    }
+                }
+            });
+            for (SortedLongSet list : postings.values()) {
+                list.sort();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static Set<Long> trigrams(String value) {
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + MIN_QUERY_LENGTH <= value.length(); i++) {
+            trigrams.add(((long) value.charAt(i) << 32) | ((long) value.charAt(i + 1) << 16) | value.charAt(i + 2));
+        }
+        return trigrams;
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            long entries = 0;
+            long bytes = 0;
+            for (SortedLongSet list : postings.values()) {
+                entries += list.size();
+                // chunks, set object, boxed key and hash map node
+                bytes += list.memoryBytes() + 24 + 24 + 32;
+            }
+            return String.format("%d trigrams, %d postings, ~%.1f MB", postings.size(), entries, bytes / 1048576.0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
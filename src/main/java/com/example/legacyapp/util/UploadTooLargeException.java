@@ -0,0 +1,11 @@
+package com.example.legacyapp.util;
+
+/**
+ * Thrown when an upload grows past the configured maximum size while it is stored.
+ */
+public class UploadTooLargeException extends RuntimeException {
+
+    public UploadTooLargeException(long maxBytes) {
+        super("Upload exceeds " + maxBytes + " bytes");
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Secondary indexes for exact-value lookups on user attributes. Each attribute gets a
+ * structure that suits its cardinality:
+ * <ul>
+ *   <li>email: a hash index from a 64-bit hash of the lower-cased address to user ids;</li>
+ *   <li>tenant id: a sorted id set per tenant;</li>
+ *   <li>status and the active flag: a bitmap per value, indexed by user id.</li>
+ * </ul>
+ * A {@link Filter} is answered by AND-ing the bitmaps of its predicates and walking the
+ * smallest remaining candidate set in id order. The email index only stores hashes, so
+ * callers must check the users they load with {@link Filter#matches}.
+ *
+ * The bitmaps assume the dense ids handed out by {@link UserIdAllocator}. Ids outside
+ * {@code [0, Integer.MAX_VALUE]}, which only imports or old snapshots carry, go to
+ * sorted id sets instead and are found after all bitmap ids.
+ */
+public class UserAttributeIndex {
+
+    private static final HashFunction EMAIL_HASH = Hashing.murmur3_128();
+    private static final int SCAN_BATCH = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongHashMultimap emails = new LongHashMultimap();
+    private final Map<String, SortedLongSet> tenants = new HashMap<>();
+    private final Map<String, BitSet> statuses = new HashMap<>();
+    private final BitSet active = new BitSet();
+    private final BitSet present = new BitSet();
+    private final Map<String, SortedLongSet> sparseStatuses = new HashMap<>();
+    private final SortedLongSet sparseActive = new SortedLongSet();
+    private final SortedLongSet sparsePresent = new SortedLongSet();
+
+    public void add(User user) {
+        lock.writeLock().lock();
+        try {
+            index(user, false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(User user) {
+        lock.writeLock().lock();
+        try {
+            unindex(user);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void update(User before, User after) {
+        lock.writeLock().lock();
+        try {
+            unindex(before);
+            index(after, false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the contents of the index with every user in {@code users}.
+     */
+    public void build(UserStore users) {
+        lock.writeLock().lock();
+        try {
+            users.forEach(user -> index(user, true));
+            for (SortedLongSet ids : tenants.values()) {
+                ids.sort();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void index(User user, boolean bulk) {
+        long id = user.getId();
+        if (user.getEmail() != null) {
+            emails.put(emailHash(user.getEmail()), id);
+        }
+        if (user.getTenantId() != null) {
+            SortedLongSet ids = tenants.computeIfAbsent(user.getTenantId(), key -> new SortedLongSet());
+            if (bulk) {
+                ids.addUnordered(id);
+            } else {
+                ids.add(id);
+            }
+        }
+        if (!dense(id)) {
+            if (user.getStatus() != null) {
+                sparseStatuses.computeIfAbsent(user.getStatus(), key -> new SortedLongSet()).add(id);
+            }
+            if (user.isActive()) {
+                sparseActive.add(id);
+            } else {
+                sparseActive.remove(id);
+            }
+            sparsePresent.add(id);
+            return;
+        }
+        int bit = (int) id;
+        if (user.getStatus() != null) {
+            statuses.computeIfAbsent(user.getStatus(), key -> new BitSet()).set(bit);
+        }
+        active.set(bit, user.isActive());
+        present.set(bit);
+    }
+
+    private void unindex(User user) {
+        long id = user.getId();
+        if (user.getEmail() != null) {
+            emails.remove(emailHash(user.getEmail()), id);
+        }
+        if (user.getTenantId() != null) {
+            SortedLongSet ids = tenants.get(user.getTenantId());
+            if (ids != null && ids.remove(id) && ids.size() == 0) {
+                tenants.remove(user.getTenantId());
+            }
+        }
+        if (!dense(id)) {
+            if (user.getStatus() != null) {
+                SortedLongSet ids = sparseStatuses.get(user.getStatus());
+                if (ids != null && ids.remove(id) && ids.size() == 0) {
+                    sparseStatuses.remove(user.getStatus());
+                }
+            }
+            sparseActive.remove(id);
+            sparsePresent.remove(id);
+            return;
+        }
+        int bit = (int) id;
+        if (user.getStatus() != null) {
+            BitSet ids = statuses.get(user.getStatus());
+            if (ids != null) {
+                ids.clear(bit);
+                if (ids.isEmpty()) {
+                    statuses.remove(user.getStatus());
+                }
+            }
+        }
+        active.clear(bit);
+        present.clear(bit);
+    }
+
+    /**
+     * Up to {@code limit} ids greater than {@code afterId}, in ascending order, of users
+     * that may match {@code filter}.
+     */
+    public long[] find(Filter filter, long afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            BitSet mask = null;
+            SortedLongSet sparseStatus = null;
+            if (filter.status != null) {
+                BitSet ids = statuses.get(filter.status);
+                sparseStatus = sparseStatuses.get(filter.status);
+                if (ids == null && sparseStatus == null) {
+                    return new long[0];
+                }
+                mask = ids == null ? new BitSet() : (BitSet) ids.clone();
+            }
+            if (filter.active != null) {
+                if (mask == null) {
+                    mask = (BitSet) present.clone();
+                }
+                if (filter.active) {
+                    mask.and(active);
+                } else {
+                    mask.andNot(active);
+                }
+            }
+            SortedLongSet tenant = null;
+            if (filter.tenantId != null) {
+                tenant = tenants.get(filter.tenantId);
+                if (tenant == null) {
+                    return new long[0];
+                }
+            }
+
+            long[] result = new long[limit];
+            int found = 0;
+            if (filter.email != null) {
+                long[] candidates = emailCandidates(filter.email, afterId);
+                for (int i = 0; i < candidates.length && found < limit; i++) {
+                    long id = candidates[i];
+                    if (accepts(filter, mask, sparseStatus, id) && (tenant == null || tenant.contains(id))) {
+                        result[found++] = id;
+                    }
+                }
+            } else if (tenant != null && (mask == null || tenant.size() <= mask.cardinality())) {
+                long after = afterId;
+                while (found < limit) {
+                    long[] ids = tenant.after(after, SCAN_BATCH);
+                    for (int i = 0; i < ids.length && found < limit; i++) {
+                        if (accepts(filter, mask, sparseStatus, ids[i])) {
+                            result[found++] = ids[i];
+                        }
+                    }
+                    if (ids.length < SCAN_BATCH) {
+                        break;
+                    }
+                    after = ids[ids.length - 1];
+                }
+            } else if (mask != null) {
+                if (afterId < Integer.MAX_VALUE) {
+                    int from = (int) Math.max(afterId + 1, 0);
+                    for (int b = mask.nextSetBit(from); b >= 0 && found < limit; b = mask.nextSetBit(b + 1)) {
+                        if (tenant == null || tenant.contains(b)) {
+                            result[found++] = b;
+                        }
+                    }
+                }
+                SortedLongSet sparse = filter.status != null ? sparseStatus : sparsePresent;
+                long after = Math.max(afterId, Integer.MAX_VALUE);
+                while (sparse != null && found < limit) {
+                    long[] ids = sparse.after(after, SCAN_BATCH);
+                    for (int i = 0; i < ids.length && found < limit; i++) {
+                        long id = ids[i];
+                        if (accepts(filter, mask, sparseStatus, id) && (tenant == null || tenant.contains(id))) {
+                            result[found++] = id;
+                        }
+                    }
+                    if (ids.length < SCAN_BATCH) {
+                        break;
+                    }
+                    after = ids[ids.length - 1];
+                }
+            }
+            return Arrays.copyOf(result, found);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long[] emailCandidates(String email, long afterId) {
+        SortedLongSet ids = new SortedLongSet();
+        emails.forEach(emailHash(email), id -> {
+            if (id > afterId) {
+                ids.add(id);
+            }
+        });
+        return ids.after(afterId, ids.size());
+    }
+
+    private static long emailHash(String email) {
+        return EMAIL_HASH.hashUnencodedChars(TrigramIndex.normalize(email)).asLong();
+    }
+
+    /**
+     * Whether {@code id} passes the status and active predicates, given the bitmap
+     * {@code mask} built from them (null if neither is set).
+     */
+    private boolean accepts(Filter filter, BitSet mask, SortedLongSet sparseStatus, long id) {
+        if (dense(id)) {
+            return mask == null || mask.get((int) id);
+        }
+        return (filter.status == null || (sparseStatus != null && sparseStatus.contains(id)))
+                && (filter.active == null
+                        || (sparsePresent.contains(id) && sparseActive.contains(id) == filter.active));
+    }
+
+    private static boolean dense(long id) {
+        return id >= 0 && id <= Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            long bytes = emails.memoryBytes() + (active.size() + present.size()) / 8;
+            for (BitSet ids : statuses.values()) {
+                bytes += ids.size() / 8;
+            }
+            for (SortedLongSet ids : tenants.values()) {
+                bytes += ids.memoryBytes();
+            }
+            for (SortedLongSet ids : sparseStatuses.values()) {
+                bytes += ids.memoryBytes();
+            }
+            bytes += sparseActive.memoryBytes() + sparsePresent.memoryBytes();
+            return String.format("%d emails, %d tenants, %d statuses, ~%.1f MB", emails.size(), tenants.size(),
+                    statuses.size(), bytes / 1048576.0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Exact-value predicates combined with AND; null fields are not constrained. Email is
+     * compared case-insensitively.
+     */
+    public static final class Filter {
+        private final String email;
+        private final String tenantId;
+        private final String status;
+        private final Boolean active;
+
+        public Filter(String email, String tenantId, String status, Boolean active) {
+            this.email = email;
+            this.tenantId = tenantId;
+            this.status = status;
+            this.active = active;
+        }
+
+        public boolean isEmpty() {
+            return email == null && tenantId == null && status == null && active == null;
+        }
+
+        public boolean matches(User user) {
+            return (email == null || email.equalsIgnoreCase(user.getEmail()))
+                    && (tenantId == null || tenantId.equals(user.getTenantId()))
+                    && (status == null || status.equals(user.getStatus()))
+                    && (active == null || active == user.isActive());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.legacyapp.util;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out user ids with a single atomic increment and no lock.
+ *
+ * Ids are reserved durably in blocks: an id is only returned once a reservation that
+ * covers it has been written, so ids handed out before a crash are never reused, even
+ * if the user they were given to was never saved. Threads whose ids fall past the
+ * current block wait while the next reservation is written; everyone else proceeds.
+ */
+public class UserIdAllocator {
+
+    public interface Reservation {
+        void reserve(long upTo) throws IOException;
+    }
+
+    private final AtomicLong next;
+    private final int blockSize;
+    private final Reservation reservation;
+    private final ReentrantLock reserveLock = new ReentrantLock();
+    private volatile long reservedUpTo;
+
+    /**
+     * @param firstId     the first id to hand out, above every id in use or reserved
+     * @param blockSize   number of ids reserved per write
+     * @param reservation persists the exclusive upper bound of a new block
+     */
+    public UserIdAllocator(long firstId, int blockSize, Reservation reservation) {
+        this.next = new AtomicLong(firstId);
+        this.blockSize = blockSize;
+        this.reservation = reservation;
+        this.reservedUpTo = firstId;
+    }
+
+    public long nextId() {
+        long id = next.getAndIncrement();
+        if (id >= reservedUpTo) {
+            reserveThrough(id);
+        }
+        return id;
+    }
+
+    private void reserveThrough(long id) {
+        // Not a monitor: the reservation waits for an fsync, which would pin a virtual thread
+        reserveLock.lock();
+        try {
+            while (id >= reservedUpTo) {
+                long upTo = Math.max(reservedUpTo, id) + blockSize;
+                try {
+                    reservation.reserve(upTo);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not reserve user ids: " + e.getMessage(), e);
+                }
+                reservedUpTo = upTo;
+            }
+        } finally {
+            reserveLock.unlock();
+        }
+    }
+}
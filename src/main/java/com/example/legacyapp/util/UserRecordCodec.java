@@ -0,0 +1,242 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.Permission;
+import com.example.legacyapp.model.Role;
+import com.example.legacyapp.model.User;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Binary encoding of the scalar {@link User} fields shared by the user log and the
+ * binary snapshot. The id is a varint; strings are a varint length (0 for null,
+ * otherwise length + 1) followed by UTF-8 bytes; a flags byte carries {@code active}
+ * and which timestamps are present, each of which follows as varint epoch millis, and
+ * then whether a varint version follows. Records written before versions read as 0.
+ * Passwords, roles and permissions are not persisted, as with the text snapshot; the
+ * off-heap store asks for them with {@link #write(DataOutput, User, boolean)}, which
+ * sets another flag and appends the password and both lists (a varint count, 0 for
+ * null, otherwise count + 1, then each entry's fields).
+ */
+final class UserRecordCodec {
+
+    private static final int FLAG_ACTIVE = 1;
+    private static final int FLAG_CREATED_AT = 1 << 1;
+    private static final int FLAG_UPDATED_AT = 1 << 2;
+    private static final int FLAG_LAST_LOGIN = 1 << 3;
+    private static final int FLAG_VERSION = 1 << 4;
+    private static final int FLAG_ACCESS = 1 << 5;
+
+    private UserRecordCodec() {
+    }
+
+    static void write(DataOutput out, User user) throws IOException {
+        write(out, user, false);
+    }
+
+    /**
+     * Writes {@code user}, including the password, roles and permissions if {@code access}.
+     */
+    static void write(DataOutput out, User user, boolean access) throws IOException {
+        writeVarLong(out, user.getId() != null ? user.getId() : 0L);
+        writeString(out, user.getUsername());
+        writeString(out, user.getEmail());
+        writeString(out, user.getFullName());
+        writeString(out, user.getStatus());
+        writeString(out, user.getTenantId());
+        int flags = (user.isActive() ? FLAG_ACTIVE : 0)
+                | (user.getCreatedAt() != null ? FLAG_CREATED_AT : 0)
+                | (user.getUpdatedAt() != null ? FLAG_UPDATED_AT : 0)
+                | (user.getLastLogin() != null ? FLAG_LAST_LOGIN : 0)
+                | (user.getVersion() != 0 ? FLAG_VERSION : 0)
+                | (access ? FLAG_ACCESS : 0);
+        out.writeByte(flags);
+        writeDate(out, user.getCreatedAt());
+        writeDate(out, user.getUpdatedAt());
+        writeDate(out, user.getLastLogin());
+        if (user.getVersion() != 0) {
+            writeVarLong(out, user.getVersion());
+        }
+        if (access) {
+            writeString(out, user.getPassword());
+            writeRoles(out, user.getRoles());
+            writePermissions(out, user.getPermissions());
+        }
+    }
+
+    static User read(ByteBuffer in) {
+        User user = new User();
+        user.setId(readVarLong(in));
+        user.setUsername(readString(in));
+        user.setEmail(readString(in));
+        user.setFullName(readString(in));
+        user.setStatus(readString(in));
+        user.setTenantId(readString(in));
+        int flags = in.get();
+        user.setActive((flags & FLAG_ACTIVE) != 0);
+        user.setCreatedAt(readDate(in, flags, FLAG_CREATED_AT));
+        user.setUpdatedAt(readDate(in, flags, FLAG_UPDATED_AT));
+        user.setLastLogin(readDate(in, flags, FLAG_LAST_LOGIN));
+        if ((flags & FLAG_VERSION) != 0) {
+            user.setVersion(readVarLong(in));
+        }
+        if ((flags & FLAG_ACCESS) != 0) {
+            user.setPassword(readString(in));
+            user.setRoles(readRoles(in));
+            user.setPermissions(readPermissions(in));
+        }
+        return user;
+    }
+
+    private static void writeRoles(DataOutput out, List<Role> roles) throws IOException {
+        if (roles == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, roles.size() + 1);
+        for (Role role : roles) {
+            writeId(out, role.getId());
+            writeString(out, role.getName());
+            writeId(out, role.getUserId());
+        }
+    }
+
+    private static List<Role> readRoles(ByteBuffer in) {
+        int count = readVarInt(in) - 1;
+        if (count < 0) {
+            return null;
+        }
+        List<Role> roles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Role role = new Role();
+            role.setId(readId(in));
+            role.setName(readString(in));
+            role.setUserId(readId(in));
+            roles.add(role);
+        }
+        return roles;
+    }
+
+    private static void writePermissions(DataOutput out, List<Permission> permissions) throws IOException {
+        if (permissions == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, permissions.size() + 1);
+        for (Permission permission : permissions) {
+            writeId(out, permission.getId());
+            writeString(out, permission.getName());
+            writeString(out, permission.getDescription());
+        }
+    }
+
+    private static List<Permission> readPermissions(ByteBuffer in) {
+        int count = readVarInt(in) - 1;
+        if (count < 0) {
+            return null;
+        }
+        List<Permission> permissions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Permission permission = new Permission();
+            permission.setId(readId(in));
+            permission.setName(readString(in));
+            permission.setDescription(readString(in));
+            permissions.add(permission);
+        }
+        return permissions;
+    }
+
+    private static void writeId(DataOutput out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            writeVarLong(out, value);
+        }
+    }
+
+    private static Long readId(ByteBuffer in) {
+        return in.get() != 0 ? readVarLong(in) : null;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            ((Buffer) in).position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static void writeDate(DataOutput out, Date value) throws IOException {
+        if (value != null) {
+            writeVarLong(out, value.getTime());
+        }
+    }
+
+    private static Date readDate(ByteBuffer in, int flags, int flag) {
+        return (flags & flag) != 0 ? new Date(readVarLong(in)) : null;
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
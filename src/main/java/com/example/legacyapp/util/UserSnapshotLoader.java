@@ -0,0 +1,295 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads a text snapshot ({@code id,username,email,yyyy-MM-dd HH:mm:ss} per line) by
+ * memory-mapping it in line-aligned chunks and parsing the chunks in parallel on a
+ * fork-join pool. Fields are scanned byte by byte straight out of the mapping; the
+ * only objects created per line are the {@link User} and its strings.
+ */
+public final class UserSnapshotLoader {
+
+    private static final long TARGET_CHUNK_SIZE = 16L * 1024 * 1024;
+    private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+    private static final int TIMESTAMP_LENGTH = "yyyy-MM-dd HH:mm:ss".length();
+
+    private UserSnapshotLoader() {
+    }
+
+    /**
+     * Parses {@code snapshot} into {@code target}. Chunks are merged in file order, so a
+     * later line for the same id wins exactly as with a sequential read.
+     */
+    public static LoadStats load(Path snapshot, UserStore target, int parallelism) throws IOException {
+        long start = System.nanoTime();
+        if (!Files.exists(snapshot)) {
+            return new LoadStats(0, 0, 0, 0L, parallelism);
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<long[]> ranges = split(channel, size, parallelism);
+            Chunk[] chunks = new Chunk[ranges.size()];
+            for (int i = 0; i < chunks.length; i++) {
+                long[] range = ranges.get(i);
+                chunks[i] = new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, range[0], range[1] - range[0]));
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new ParseTask(chunks, 0, chunks.length, ZoneId.systemDefault()));
+            } finally {
+                pool.shutdown();
+            }
+
+            int loaded = 0;
+            int skipped = 0;
+            for (Chunk chunk : chunks) {
+                for (User user : chunk.users) {
+                    target.put(user);
+                }
+                loaded += chunk.users.size();
+                skipped += chunk.skipped;
+            }
+            return new LoadStats(loaded, skipped, chunks.length, size, parallelism,
+                    System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Cuts the file into ranges of roughly equal size, moving every cut to just past the
+     * next newline so that no line straddles two chunks.
+     */
+    private static List<long[]> split(FileChannel channel, long size, int parallelism) throws IOException {
+        long chunkSize = Math.max(64 * 1024, Math.min(TARGET_CHUNK_SIZE, size / (parallelism * 4L) + 1));
+        List<long[]> ranges = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(size, start + chunkSize);
+            while (end < size) {
+                ((Buffer) probe).clear();
+                int read = channel.read(probe, end);
+                if (read <= 0) {
+                    end = size;
+                    break;
+                }
+                int newline = -1;
+                for (int i = 0; i < read; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end += read;
+            }
+            if (end - start > MAX_CHUNK_SIZE) {
+                throw new IOException("Snapshot line longer than " + MAX_CHUNK_SIZE + " bytes at offset " + start);
+            }
+            ranges.add(new long[] {start, end});
+            start = end;
+        }
+        return ranges;
+    }
+
+    private static final class ParseTask extends RecursiveAction {
+        private final Chunk[] chunks;
+        private final int from;
+        private final int to;
+        private final ZoneId zone;
+
+        ParseTask(Chunk[] chunks, int from, int to, ZoneId zone) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.zone = zone;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                chunks[from].parse(zone);
+            } else if (to > from) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ParseTask(chunks, from, mid, zone), new ParseTask(chunks, mid, to, zone));
+            }
+        }
+    }
+
+    private static final class Chunk {
+        private final MappedByteBuffer buffer;
+        private final List<User> users = new ArrayList<>();
+        private int skipped;
+        private byte[] scratch = new byte[256];
+        private long lastTimestampKey = -1L;
+        private long lastTimestampMillis;
+
+        Chunk(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void parse(ZoneId zone) {
+            int limit = buffer.limit();
+            int pos = 0;
+            while (pos < limit) {
+                int lineEnd = pos;
+                while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int end = lineEnd;
+                if (end > pos && buffer.get(end - 1) == '\r') {
+                    end--;
+                }
+                if (end > pos) {
+                    parseLine(pos, end, zone);
+                }
+                pos = lineEnd + 1;
+            }
+        }
+
+        private void parseLine(int start, int end, ZoneId zone) {
+            int idEnd = indexOf(',', start, end);
+            int usernameEnd = idEnd < 0 ? -1 : indexOf(',', idEnd + 1, end);
+            if (usernameEnd < 0) {
+                skipped++;
+                return;
+            }
+            int emailEnd = indexOf(',', usernameEnd + 1, end);
+            if (emailEnd < 0) {
+                emailEnd = end;
+            }
+
+            long id = parseLong(start, idEnd);
+            if (id < 0) {
+                skipped++;
+                return;
+            }
+            User user = new User();
+            user.setId(id);
+            user.setUsername(decode(idEnd + 1, usernameEnd));
+            user.setEmail(decode(usernameEnd + 1, emailEnd));
+            if (emailEnd + 1 + TIMESTAMP_LENGTH <= end) {
+                user.setUpdatedAt(parseTimestamp(emailEnd + 1, zone));
+            }
+            users.add(user);
+        }
+
+        private int indexOf(char c, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buffer.get(i) == c) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private long parseLong(int from, int to) {
+            if (from == to) {
+                return -1L;
+            }
+            long value = 0;
+            for (int i = from; i < to; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1L;
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        private String decode(int from, int to) {
+            int length = to - from;
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(from + i);
+            }
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private Date parseTimestamp(int from, ZoneId zone) {
+            long year = parseLong(from, from + 4);
+            long month = parseLong(from + 5, from + 7);
+            long day = parseLong(from + 8, from + 10);
+            long hour = parseLong(from + 11, from + 13);
+            long minute = parseLong(from + 14, from + 16);
+            long second = parseLong(from + 17, from + 19);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                    || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+                return null;
+            }
+            // Snapshots are written in bursts, so consecutive lines usually share a second
+            long key = ((((year * 100 + month) * 100 + day) * 100 + hour) * 100 + minute) * 100 + second;
+            if (key != lastTimestampKey) {
+                try {
+                    lastTimestampMillis = LocalDateTime.of((int) year, (int) month, (int) day,
+                            (int) hour, (int) minute, (int) second).atZone(zone).toInstant().toEpochMilli();
+                } catch (DateTimeException e) {
+                    return null;
+                }
+                lastTimestampKey = key;
+            }
+            return new Date(lastTimestampMillis);
+        }
+    }
+
+    public static final class LoadStats {
+        private final int users;
+        private final int skippedLines;
+        private final int chunks;
+        private final long bytes;
+        private final int parallelism;
+        private final long elapsedNanos;
+
+        LoadStats(int users, int skippedLines, int chunks, long bytes, int parallelism) {
+            this(users, skippedLines, chunks, bytes, parallelism, 0L);
+        }
+
+        LoadStats(int users, int skippedLines, int chunks, long bytes, int parallelism, long elapsedNanos) {
+            this.users = users;
+            this.skippedLines = skippedLines;
+            this.chunks = chunks;
+            this.bytes = bytes;
+            this.parallelism = parallelism;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getUsers() { return users; }
+        public int getSkippedLines() { return skippedLines; }
+        public long getBytes() { return bytes; }
+        public long getElapsedMillis() { return elapsedNanos / 1_000_000; }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(elapsedNanos, 1L) / 1e9;
+            return String.format("%d users (%.1f MB, %d chunks, %d threads) in %d ms: %.0f users/s, %.1f MB/s%s",
+                    users, bytes / 1048576.0, chunks, parallelism, getElapsedMillis(),
+                    users / seconds, bytes / 1048576.0 / seconds,
+                    skippedLines > 0 ? ", " + skippedLines + " malformed lines skipped" : "");
+        }
+    }
+}
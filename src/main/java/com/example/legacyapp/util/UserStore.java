@@ -0,0 +1,69 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+
+/**
+ * Storage for the in-memory user set. Implementations are thread-safe. Whether
+ * {@link #get} hands out the stored instance or a fresh copy is up to the
+ * implementation, so callers that change a user must {@link #put} it back.
+ */
+public interface UserStore {
+
+    User get(long id);
+
+    /**
+     * Inserts or replaces the user with {@code user.getId()}.
+     */
+    void put(User user);
+
+    /**
+     * Removes and returns the user with the given id, or null if there is none.
+     */
+    User remove(long id);
+
+    boolean contains(long id);
+
+    int size();
+
+    /**
+     * Largest id in the store, or 0 when it is empty.
+     */
+    long maxId();
+
+    /**
+     * Calls {@code action} for every user. The action must not modify the store.
+     */
+    void forEach(Consumer<? super User> action);
+
+    /**
+     * Calls {@code action} with the id of every user, in no particular order, without
+     * materializing the users. The action must not modify the store.
+     */
+    void forEachId(LongConsumer action);
+
+    /**
+     * All users, either as a live view or as a copy taken at the time of the call.
+     */
+    Collection<User> values();
+
+    /**
+     * Calls {@code action} for every user in ascending id order, looking each one up by
+     * id. Snapshots are written this way: loading users in the slot order of an
+     * {@link OffHeapUserStore} clusters the index they are loaded into.
+     */
+    default void forEachInIdOrder(Consumer<? super User> action) {
+        LongStream.Builder ids = LongStream.builder();
+        forEachId(ids::add);
+        ids.build().sorted().forEach(id -> {
+            User user = get(id);
+            if (user != null) {
+                action.accept(user);
+            }
+        });
+    }
+}
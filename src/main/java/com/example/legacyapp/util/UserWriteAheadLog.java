@@ -0,0 +1,740 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of user mutations.
+ *
+ * Every record is framed as [int length][int crc32][payload] so a torn write at the
+ * tail is detected on open and cut off instead of being replayed. Records carry a
+ * log sequence number (LSN); a checkpoint record written after compaction keeps the
+ * LSN monotonic once older records have been folded into the snapshot.
+ *
+ * The payload is [byte version][byte op][long lsn][long timestamp] followed by the
+ * user in {@link UserRecordCodec} form. Checkpoint and ID reservation records carry a
+ * single long instead: the exclusive upper bound of the user ids reserved so far, which
+ * checkpoints carry over so that compaction never loses a reservation.
+ *
+ * How appends reach the disk is governed by a {@link DurabilityMode}; in the queued
+ * modes a single writer thread assigns LSNs and writes whole batches with one fsync.
+ * The log's state is guarded by a {@link ReentrantLock} rather than a monitor, so that a
+ * virtual thread waiting for it during an fsync does not pin its carrier.
+ */
+public class UserWriteAheadLog implements Closeable {
+
+    public static final byte OP_CREATE = 'C';
+    public static final byte OP_UPDATE = 'U';
+    public static final byte OP_DELETE = 'D';
+    public static final byte OP_CHECKPOINT = 'K';
+    public static final byte OP_RESERVE_IDS = 'R';
+
+    private static final int HEADER_SIZE = 8;
+    private static final int PAYLOAD_HEADER_SIZE = 18;
+    private static final byte FORMAT_VERSION = 2;
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+    private static final int QUEUE_CAPACITY = 16384;
+    private static final int MAX_BATCH_RECORDS = 1024;
+    // How long Commit.await waits for the writer before giving up on it
+    private static final long COMMIT_TIMEOUT_MS = 60000;
+
+    private final Path path;
+    private final DurabilityMode durabilityMode;
+    private final long asyncFlushIntervalMs;
+    private final BlockingQueue<PendingRecord> pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ReentrantLock lock = new ReentrantLock();
+    // Appenders queue records under the read lock and close() stops the writer under the
+    // write lock, so no record can be queued after the writer has drained the queue
+    private final ReentrantReadWriteLock appendGate = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    // Set under lock; volatile so that appenders can refuse records without taking it
+    private volatile IOException failure;
+    private long lastLsn;
+    private long checkpointLsn;
+    private long recordCount;
+    private long reservedIds;
+    private Thread writer;
+    private volatile boolean running = true;
+
+    public UserWriteAheadLog(Path path) throws IOException {
+        this(path, DurabilityMode.PER_WRITE, 0L);
+    }
+
+    public UserWriteAheadLog(Path path, DurabilityMode durabilityMode, long asyncFlushIntervalMs) throws IOException {
+        this(path, durabilityMode, asyncFlushIntervalMs, runnable -> {
+            Thread thread = new Thread(runnable, "user-log-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param writerThreads creates the writer thread of the queued modes
+     */
+    public UserWriteAheadLog(Path path, DurabilityMode durabilityMode, long asyncFlushIntervalMs,
+                             ThreadFactory writerThreads) throws IOException {
+        this.path = path;
+        this.durabilityMode = durabilityMode;
+        this.asyncFlushIntervalMs = asyncFlushIntervalMs;
+        this.channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+        if (durabilityMode != DurabilityMode.PER_WRITE) {
+            writer = writerThreads.newThread(this::runWriter);
+            writer.start();
+        }
+    }
+
+    private void recover() throws IOException {
+        long validEnd = scan(path, Long.MAX_VALUE, record -> {
+            lastLsn = Math.max(lastLsn, record.getLsn());
+            reservedIds = Math.max(reservedIds, record.getReservedIds());
+            if (record.getOp() == OP_CHECKPOINT) {
+                checkpointLsn = record.getLsn();
+            } else if (record.getLsn() > checkpointLsn) {
+                recordCount++;
+            }
+        });
+        if (validEnd < channel.size()) {
+            System.err.println("Truncating corrupt tail of " + path + " at offset " + validEnd);
+            channel.truncate(validEnd);
+        }
+        channel.position(validEnd);
+    }
+
+    /**
+     * Appends a record for {@code user}. Returns once the record is durable, except in
+     * {@link DurabilityMode#ASYNC} where it returns as soon as the record is queued.
+     */
+    public void append(byte op, User user) throws IOException {
+        // Encoded on the caller's thread: the User may be modified again before the writer runs
+        append(op, encodeUser(user));
+    }
+
+    /**
+     * Records that user ids below {@code upTo} may have been handed out. Durability is
+     * the same as for {@link #append(byte, User)}.
+     */
+    public void reserveIds(long upTo) throws IOException {
+        append(OP_RESERVE_IDS, encodeLong(upTo));
+    }
+
+    /**
+     * Appends a record with {@code op} for each of {@code users}, with the same durability
+     * as {@link #append(byte, User)}. The records are queued together and the caller waits
+     * once for all of them, so a large list costs a few fsyncs rather than one per user.
+     */
+    public void appendAll(byte op, List<User> users) throws IOException {
+        queueAll(op, users).await();
+    }
+
+    /**
+     * Queues the records of {@link #appendAll} and returns without waiting for them. Their
+     * place in the log is fixed when this returns, so a caller can queue while holding
+     * the users' locks and {@link Commit#await} after releasing them.
+     */
+    public Commit queueAll(byte op, List<User> users) throws IOException {
+        long timestamp = System.currentTimeMillis();
+        List<PendingRecord> records = new ArrayList<>(users.size());
+        for (User user : users) {
+            records.add(new PendingRecord(op, timestamp, encodeUser(user), null));
+        }
+        return queue(records);
+    }
+
+    private void append(byte op, byte[] body) throws IOException {
+        queue(Collections.singletonList(new PendingRecord(op, System.currentTimeMillis(), body, null))).await();
+    }
+
+    private Commit queue(List<PendingRecord> records) throws IOException {
+        if (records.isEmpty()) {
+            return Commit.DONE;
+        }
+        if (durabilityMode == DurabilityMode.PER_WRITE) {
+            writeBatch(records);
+            return Commit.DONE;
+        }
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        appendGate.readLock().lock();
+        try {
+            if (!running) {
+                throw new IOException("User log " + path + " is closed");
+            }
+            if (failure != null) {
+                throw new IOException("User log " + path + " failed earlier", failure);
+            }
+            for (PendingRecord record : records) {
+                if (durabilityMode == DurabilityMode.GROUP_COMMIT) {
+                    CompletableFuture<Void> recordDone = new CompletableFuture<>();
+                    done.add(recordDone);
+                    pending.put(record.withCompletion(recordDone));
+                } else {
+                    pending.put(record);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while appending to " + path);
+        } finally {
+            appendGate.readLock().unlock();
+        }
+        return new Commit(path, done);
+    }
+
+    /**
+     * Writes queued batches until the log is closed. Anything other than an I/O error is
+     * a bug; the writer then fails the log, so that callers get an error instead of
+     * waiting for records that will never be written, and keeps draining the queue.
+     */
+    private void runWriter() {
+        List<PendingRecord> batch = new ArrayList<>(MAX_BATCH_RECORDS);
+        while (running || !pending.isEmpty()) {
+            try {
+                writeQueued(batch);
+            } catch (Throwable t) {
+                IOException failed = fail(t);
+                System.err.println("User log writer failed: " + t);
+                batch.forEach(record -> record.fail(failed));
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeQueued(List<PendingRecord> batch) {
+        try {
+            if (durabilityMode == DurabilityMode.ASYNC) {
+                Thread.sleep(asyncFlushIntervalMs);
+            } else {
+                PendingRecord first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    return;
+                }
+                batch.add(first);
+            }
+        } catch (InterruptedException e) {
+            return;
+        }
+        pending.drainTo(batch, MAX_BATCH_RECORDS - batch.size());
+        while (!batch.isEmpty()) {
+            try {
+                writeBatch(batch);
+                batch.forEach(PendingRecord::complete);
+            } catch (IOException e) {
+                System.err.println("Error writing user log batch: " + e.getMessage());
+                batch.forEach(record -> record.fail(e));
+            }
+            batch.clear();
+            if (durabilityMode == DurabilityMode.ASYNC) {
+                pending.drainTo(batch, MAX_BATCH_RECORDS);
+            }
+        }
+    }
+
+    /**
+     * Marks the log failed by {@code cause}, unless it already is; every later append is
+     * rejected. Returns the failure.
+     */
+    private IOException fail(Throwable cause) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = cause instanceof IOException
+                        ? (IOException) cause : new IOException("User log " + path + " failed", cause);
+            }
+            return failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes and syncs a batch. If that fails the log is cut back to where the batch
+     * began, so that no later batch is written after a torn record or reuses its LSNs;
+     * if even that fails, or the batch fails with anything but an I/O error, every
+     * further append is rejected.
+     */
+    private void writeBatch(List<PendingRecord> batch) throws IOException {
+        lock.lock();
+        try {
+            if (failure != null) {
+                throw new IOException("User log " + path + " failed earlier", failure);
+            }
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            long lsn = lastLsn;
+            for (int i = 0; i < buffers.length; i++) {
+                PendingRecord record = batch.get(i);
+                buffers[i] = encode(record.op, ++lsn, record.timestamp, record.body);
+            }
+            long reserved = reservedIds;
+            for (PendingRecord record : batch) {
+                if (record.op == OP_RESERVE_IDS) {
+                    reserved = Math.max(reserved, ByteBuffer.wrap(record.body).getLong());
+                }
+            }
+            long start = channel.position();
+            try {
+                writeFully(channel, buffers);
+                channel.force(false);
+            } catch (IOException e) {
+                try {
+                    channel.truncate(start);
+                    channel.position(start);
+                } catch (IOException truncateError) {
+                    e.addSuppressed(truncateError);
+                    failure = e;
+                }
+                throw e;
+            }
+            lastLsn = lsn;
+            recordCount += buffers.length;
+            reservedIds = reserved;
+        } catch (RuntimeException | Error e) {
+            failure = new IOException("User log " + path + " failed", e);
+            throw failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The position up to which every record is complete, together with the LSN of the
+     * last of those records. Both are read under one lock, so no batch can fall between
+     * them; records appended after this call start at or beyond the position.
+     */
+    public Mark mark() throws IOException {
+        lock.lock();
+        try {
+            return new Mark(channel.position(), lastLsn);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLastLsn() {
+        lock.lock();
+        try {
+            return lastLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * LSN the current snapshot reflects, as recorded by the last compaction.
+     */
+    public long getCheckpointLsn() {
+        lock.lock();
+        try {
+            return checkpointLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Exclusive upper bound of the user ids reserved so far.
+     */
+    public long getReservedIds() {
+        lock.lock();
+        try {
+            return reservedIds;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of records not yet folded into a snapshot.
+     */
+    public long getRecordCount() {
+        lock.lock();
+        try {
+            return recordCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public void replay(RecordHandler handler) throws IOException {
+        scan(path, Long.MAX_VALUE, handler);
+    }
+
+    public void replay(long upToOffset, RecordHandler handler) throws IOException {
+        scan(path, upToOffset, handler);
+    }
+
+    /**
+     * Offset of the record with the given LSN, or -1 if no such record lies before
+     * {@code upToOffset}.
+     */
+    public long offsetOf(long lsn, long upToOffset) throws IOException {
+        long[] offset = {-1L};
+        scan(path, upToOffset, record -> {
+            if (offset[0] < 0 && record.getLsn() == lsn && record.getOp() != OP_CHECKPOINT) {
+                offset[0] = record.getOffset();
+            }
+        });
+        return offset[0];
+    }
+
+    /**
+     * Copies the raw, still framed records between two offsets. Callers must keep
+     * {@link #rewriteFrom} from running concurrently.
+     */
+    public void copyTo(long fromOffset, long toOffset, WritableByteChannel target) throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            long pos = fromOffset;
+            while (pos < toOffset) {
+                pos += transferSome(in, pos, toOffset - pos, target);
+            }
+        }
+    }
+
+    /**
+     * Reads every intact record of a log file, such as a backed up delta.
+     */
+    public static void readRecords(Path file, RecordHandler handler) throws IOException {
+        scan(file, Long.MAX_VALUE, handler);
+    }
+
+    /**
+     * Replaces the log with a fresh one that starts with a checkpoint at {@code checkpointLsn}
+     * followed by every record written after {@code fromOffset}. The new log is written
+     * next to the old one and moved into place, so a crash leaves either log intact.
+     */
+    public void rewriteFrom(long fromOffset, long checkpointLsn) throws IOException {
+        lock.lock();
+        try {
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeFully(out, encode(OP_CHECKPOINT, checkpointLsn, System.currentTimeMillis(), encodeLong(reservedIds)));
+                long end = channel.position();
+                long pos = fromOffset;
+                while (pos < end) {
+                    pos += transferSome(channel, pos, end - pos, out);
+                }
+                out.force(true);
+            }
+            long[] tailCount = new long[1];
+            scan(tmp, Long.MAX_VALUE, record -> {
+                if (record.getOp() != OP_CHECKPOINT && record.getLsn() > checkpointLsn) {
+                    tailCount[0]++;
+                }
+            });
+            channel.close();
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            recordCount = tailCount[0];
+            this.checkpointLsn = checkpointLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        appendGate.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            appendGate.writeLock().unlock();
+        }
+        if (writer != null) {
+            // No interrupt: it would close the FileChannel under the writer mid-batch.
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.lock();
+        try {
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long scan(Path file, long limit, RecordHandler handler) throws IOException {
+        if (!Files.exists(file)) {
+            return 0L;
+        }
+        long validEnd = 0L;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            while (validEnd < limit) {
+                int length;
+                int checksum;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                try {
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (crc(payload) != checksum) {
+                    break;
+                }
+                handler.onRecord(decode(payload, validEnd));
+                validEnd += HEADER_SIZE + length;
+            }
+        }
+        return validEnd;
+    }
+
+    /**
+     * One {@link FileChannel#transferTo} call, failing instead of returning 0 forever when
+     * the file ends before {@code position}.
+     */
+    private static long transferSome(FileChannel in, long position, long count, WritableByteChannel target)
+            throws IOException {
+        long sent = in.transferTo(position, count, target);
+        if (sent == 0 && position >= in.size()) {
+            throw new EOFException("User log ends at " + in.size() + ", before offset " + position);
+        }
+        return sent;
+    }
+
+    private static void writeFully(FileChannel target, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel target, ByteBuffer[] buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= target.write(buffers);
+        }
+    }
+
+    private static byte[] encodeUser(User user) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        UserRecordCodec.write(out, user);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeLong(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    private static ByteBuffer encode(byte op, long lsn, long timestamp, byte[] body) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + PAYLOAD_HEADER_SIZE + body.length);
+        ((Buffer) buffer).position(HEADER_SIZE);
+        buffer.put(FORMAT_VERSION);
+        buffer.put(op);
+        buffer.putLong(lsn);
+        buffer.putLong(timestamp);
+        buffer.put(body);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, buffer.position() - HEADER_SIZE);
+        buffer.putInt(0, buffer.position() - HEADER_SIZE);
+        buffer.putInt(4, (int) crc.getValue());
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    private static LogRecord decode(byte[] payload, long offset) throws IOException {
+        if (payload[0] != FORMAT_VERSION) {
+            return decodeLegacy(payload, offset);
+        }
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        in.get();
+        byte op = in.get();
+        long lsn = in.getLong();
+        long timestamp = in.getLong();
+        if (op == OP_CHECKPOINT || op == OP_RESERVE_IDS) {
+            long reserved = in.remaining() >= 8 ? in.getLong() : 0L;
+            return new LogRecord(op, lsn, timestamp, null, reserved, offset);
+        }
+        User user = in.hasRemaining() ? UserRecordCodec.read(in) : null;
+        return new LogRecord(op, lsn, timestamp, user, 0L, offset);
+    }
+
+    /**
+     * Records written before the shared codec carried only id, username and email.
+     */
+    private static LogRecord decodeLegacy(byte[] payload, long offset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        long lsn = in.readLong();
+        long timestamp = in.readLong();
+        User user = new User();
+        user.setId(in.readLong());
+        user.setUsername(in.readBoolean() ? in.readUTF() : null);
+        user.setEmail(in.readBoolean() ? in.readUTF() : null);
+        user.setUpdatedAt(new Date(timestamp));
+        return new LogRecord(op, lsn, timestamp, op == OP_CHECKPOINT ? null : user, 0L, offset);
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static final class PendingRecord {
+        private final byte op;
+        private final long timestamp;
+        private final byte[] body;
+        private final CompletableFuture<Void> done;
+
+        PendingRecord(byte op, long timestamp, byte[] body, CompletableFuture<Void> done) {
+            this.op = op;
+            this.timestamp = timestamp;
+            this.body = body;
+            this.done = done;
+        }
+
+        PendingRecord withCompletion(CompletableFuture<Void> done) {
+            return new PendingRecord(op, timestamp, body, done);
+        }
+
+        void complete() {
+            if (done != null) {
+                done.complete(null);
+            }
+        }
+
+        void fail(IOException e) {
+            if (done != null) {
+                done.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Records queued by {@link #queueAll}, to wait for until they are as durable as the
+     * log's mode makes them.
+     */
+    public static final class Commit {
+        public static final Commit DONE = new Commit(null, Collections.emptyList());
+
+        private final Path path;
+        private final List<CompletableFuture<Void>> done;
+
+        Commit(Path path, List<CompletableFuture<Void>> done) {
+            this.path = path;
+            this.done = done;
+        }
+
+        /**
+         * Waits for the records, for at most a minute in all. A timeout means the writer
+         * is stuck; the records may still be written after it.
+         */
+        public void await() throws IOException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COMMIT_TIMEOUT_MS);
+            try {
+                for (CompletableFuture<Void> recordDone : done) {
+                    recordDone.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while appending to " + path);
+            } catch (TimeoutException e) {
+                throw new IOException("Timed out after " + COMMIT_TIMEOUT_MS + " ms waiting for " + path);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        }
+    }
+
+    public static final class Mark {
+        private final long offset;
+        private final long lsn;
+
+        Mark(long offset, long lsn) {
+            this.offset = offset;
+            this.lsn = lsn;
+        }
+
+        public long getOffset() { return offset; }
+        public long getLsn() { return lsn; }
+    }
+
+    public interface RecordHandler {
+        void onRecord(LogRecord record) throws IOException;
+    }
+
+    public static final class LogRecord {
+        private final byte op;
+        private final long lsn;
+        private final long timestamp;
+        private final User user;
+        private final long reservedIds;
+        private final long offset;
+
+        LogRecord(byte op, long lsn, long timestamp, User user, long reservedIds, long offset) {
+            this.op = op;
+            this.lsn = lsn;
+            this.timestamp = timestamp;
+            this.user = user;
+            this.reservedIds = reservedIds;
+            this.offset = offset;
+        }
+
+        public byte getOp() { return op; }
+        public long getLsn() { return lsn; }
+        public long getTimestamp() { return timestamp; }
+        public long getId() { return user != null ? user.getId() : 0L; }
+        public long getOffset() { return offset; }
+
+        /**
+         * For checkpoint and ID reservation records, the exclusive upper bound of the
+         * user ids reserved so far; 0 for other records.
+         */
+        public long getReservedIds() { return reservedIds; }
+
+        /**
+         * The user as it was when the record was appended. Each replay decodes a fresh
+         * instance, so callers may keep it.
+         */
+        public User toUser() {
+            return user;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.legacyapp.config;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeystoreConfigTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void createsAKeystoreWithASelfSignedCertificate() throws Exception {
+        Path keystore = dir.resolve("keystore").resolve("app-keystore.jks");
+        KeystoreConfig config = keystoreConfig(keystore);
+        config.initKeystore();
+
+        assertTrue(Files.exists(keystore));
+        X509Certificate cert = (X509Certificate) config.getCertificate("app-cert");
+        cert.verify(cert.getPublicKey());
+        cert.checkValidity();
+        assertEquals(3, cert.getVersion());
+        assertEquals("SHA256withRSA", cert.getSigAlgName());
+        assertEquals(cert.getSubjectX500Principal(), cert.getIssuerX500Principal());
+        assertTrue(cert.getSubjectX500Principal().getName().startsWith("CN=LegacyApp"));
+
+        // A second start loads the same certificate back
+        KeystoreConfig reloaded = keystoreConfig(keystore);
+        reloaded.initKeystore();
+        assertEquals(cert, reloaded.getCertificate("app-cert"));
+    }
+
+    private static KeystoreConfig keystoreConfig(Path keystore) {
+        KeystoreConfig config = new KeystoreConfig();
+        ReflectionTestUtils.setField(config, "keystorePath", keystore.toString());
+        ReflectionTestUtils.setField(config, "keystorePassword", "changeit");
+        ReflectionTestUtils.setField(config, "keystoreAlias", "app-cert");
+        return config;
+    }
+}
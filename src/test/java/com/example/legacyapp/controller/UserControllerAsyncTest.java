@@ -0,0 +1,107 @@
+package com.example.legacyapp.controller;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.service.UserJsonCache;
+import com.example.legacyapp.service.UserService;
+import com.example.legacyapp.util.UserAttributeIndex;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Arrays;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Paged reads in {@code async} mode, where the handlers run on the user-request pool and
+ * have no current request of their own.
+ */
+class UserControllerAsyncTest {
+
+    private final UserService userService = mock(UserService.class);
+    private UserRequestExecutor executor;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() {
+        executor = new UserRequestExecutor();
+        ReflectionTestUtils.setField(executor, "mode", "async");
+        ReflectionTestUtils.setField(executor, "threads", 2);
+        ReflectionTestUtils.setField(executor, "queueCapacity", 10);
+        ReflectionTestUtils.setField(executor, "meterRegistry", new SimpleMeterRegistry());
+        executor.init();
+
+        UserJsonCache userJsonCache = new UserJsonCache();
+        ReflectionTestUtils.setField(userJsonCache, "maxEntries", 100L);
+        ReflectionTestUtils.setField(userJsonCache, "objectMapper", new ObjectMapper());
+        ReflectionTestUtils.setField(userJsonCache, "meterRegistry", new SimpleMeterRegistry());
+        userJsonCache.init();
+        UserJsonConverter converter = new UserJsonConverter();
+        ReflectionTestUtils.setField(converter, "userJsonCache", userJsonCache);
+
+        UserController controller = new UserController();
+        ReflectionTestUtils.setField(controller, "userService", userService);
+        ReflectionTestUtils.setField(controller, "userRequestExecutor", executor);
+        mvc = MockMvcBuilders.standaloneSetup(controller).setMessageConverters(converter).build();
+
+        when(userService.getUsersAfter(anyLong(), anyInt())).thenReturn(Arrays.asList(user(1), user(2)));
+        when(userService.findUsers(any(UserAttributeIndex.Filter.class), anyLong(), anyInt()))
+                .thenReturn(Arrays.asList(user(1), user(2)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void pagesCarryTheNextLink() throws Exception {
+        MvcResult started = mvc.perform(get("/api/users?limit=1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].id").value(1))
+                .andExpect(header().string(HttpHeaders.LINK,
+                        "<http://localhost/api/users?cursor=" + UserCursors.encode(1) + "&limit=1>; rel=\"next\""));
+    }
+
+    @Test
+    void filteredPagesCarryTheNextLink() throws Exception {
+        MvcResult started = mvc.perform(get("/api/users/filter?tenantId=t1&limit=1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(header().string(HttpHeaders.LINK, "<http://localhost/api/users/filter?tenantId=t1&cursor="
+                        + UserCursors.encode(1) + "&limit=1>; rel=\"next\""));
+    }
+
+    private static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("user" + id);
+        user.setEmail("user" + id + "@example.com");
+        user.setVersion(1L);
+        return user;
+    }
+}
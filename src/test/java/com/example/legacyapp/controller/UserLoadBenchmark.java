@@ -0,0 +1,180 @@
+package com.example.legacyapp.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load on a running application: each client sends its next request as soon
+ * as the previous one completes, reading a random user by id or, for the given share of
+ * requests, creating one. After a 5 s warm-up it records for the given time and prints
+ * throughput and latency for reads, writes and both. 503 responses count as rejected,
+ * other failures except 404 as errors. An optional probe client polls one path every
+ * 50 ms to show what other requests wait for under the load.
+ *
+ * Arguments: base URL, clients, seconds, write share, an optional tag for the output,
+ * and the optional probe path. The bursts in the async execution commit ran one warm-up
+ * of 200 clients for 30 s, then 50, 400 and 1000 clients for 20 s each:
+ * <pre>
+ * mvn -B test-compile
+ * java -cp target/test-classes com.example.legacyapp.controller.UserLoadBenchmark \
+ *     http://localhost:8080/legacy 400 20 0.2 blocking /api/db/users/1
+ * </pre>
+ */
+public class UserLoadBenchmark {
+
+    private static final int TIMEOUT_MS = 120000;
+
+    private static String base;
+    private static double writeShare;
+    private static volatile boolean recording;
+    private static volatile boolean running = true;
+    private static final List<long[]> samples = Collections.synchronizedList(new ArrayList<>());
+    private static final AtomicLong errors = new AtomicLong();
+    private static final AtomicLong rejected = new AtomicLong();
+    private static final AtomicLong sequence = new AtomicLong();
+
+    public static void main(String[] args) throws InterruptedException {
+        base = args[0];
+        int clients = Integer.parseInt(args[1]);
+        int seconds = Integer.parseInt(args[2]);
+        writeShare = Double.parseDouble(args[3]);
+        String tag = args.length > 4 ? args[4] : "";
+        String probe = args.length > 5 ? args[5] : null;
+        // Keep a pooled connection per client instead of the default five
+        System.setProperty("http.maxConnections", String.valueOf(clients + 1));
+
+        for (int i = 0; i < clients; i++) {
+            Random random = new Random(i);
+            start(() -> {
+                while (running) {
+                    request(random);
+                }
+            });
+        }
+        List<Long> probes = Collections.synchronizedList(new ArrayList<>());
+        if (probe != null) {
+            start(() -> {
+                while (running) {
+                    long begin = System.nanoTime();
+                    send(base + probe, null);
+                    if (recording) {
+                        probes.add(System.nanoTime() - begin);
+                    }
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+        }
+
+        Thread.sleep(5000);
+        recording = true;
+        long begin = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        recording = false;
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        running = false;
+
+        List<long[]> all;
+        synchronized (samples) {
+            all = new ArrayList<>(samples);
+        }
+        for (int kind = 0; kind < 3; kind++) {
+            int wanted = kind;
+            long[] latencies = all.stream().filter(s -> wanted == 2 || s[0] == wanted).mapToLong(s -> s[1]).toArray();
+            if (latencies.length == 0) {
+                continue;
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%s clients=%d %-6s %7.0f req/s  p50 %7.1f ms  p99 %8.1f ms  max %8.1f ms%n", tag, clients,
+                    kind == 0 ? "reads" : kind == 1 ? "writes" : "all", latencies.length / elapsed,
+                    latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6,
+                    latencies[latencies.length - 1] / 1e6);
+        }
+        System.out.printf("%s clients=%d errors=%d rejected(503)=%d%n", tag, clients, errors.get(), rejected.get());
+        if (!probes.isEmpty()) {
+            long[] latencies;
+            synchronized (probes) {
+                latencies = probes.stream().mapToLong(Long::longValue).sorted().toArray();
+            }
+            System.out.printf("%s clients=%d probe %s: n=%d p50 %.1f ms p99 %.1f ms max %.1f ms%n", tag, clients, probe,
+                    latencies.length, latencies[latencies.length / 2] / 1e6,
+                    latencies[(int) (latencies.length * 0.99)] / 1e6, latencies[latencies.length - 1] / 1e6);
+        }
+        System.exit(0);
+    }
+
+    private static void request(Random random) {
+        boolean write = random.nextDouble() < writeShare;
+        long begin = System.nanoTime();
+        int status;
+        if (write) {
+            long n = sequence.incrementAndGet();
+            String body = "{\"username\":\"load" + System.nanoTime() + n + "\",\"email\":\"load" + n
+                    + "@example.com\",\"password\":\"secret1\"}";
+            status = send(base + "/api/users", body);
+        } else {
+            status = send(base + "/api/users/" + (1 + random.nextInt(1000000)), null);
+        }
+        long latency = System.nanoTime() - begin;
+        if (!recording) {
+            return;
+        }
+        if (status == 503) {
+            rejected.incrementAndGet();
+        } else if (status < 0 || status >= 400 && status != 404) {
+            errors.incrementAndGet();
+        } else {
+            samples.add(new long[] {write ? 1 : 0, latency});
+        }
+    }
+
+    /** Sends a GET, or a POST of {@code json}, and reads the response; -1 if it failed. */
+    private static int send(String url, String json) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            if (json != null) {
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Content-Type", "application/json");
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(json.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (in != null) {
+                // Drained and closed so that the connection goes back to the pool
+                try (InputStream body = in) {
+                    byte[] buffer = new byte[8192];
+                    while (body.read(buffer) >= 0) {
+                        // discard
+                    }
+                }
+            }
+            return status;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static void start(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
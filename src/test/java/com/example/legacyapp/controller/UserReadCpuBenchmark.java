@@ -0,0 +1,103 @@
+package com.example.legacyapp.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server CPU time per read of the users API: a few clients read from a hot set of users
+ * in a closed loop while the application's CPU time is taken from
+ * {@code /proc/<pid>/stat} before and after, so the client's own CPU is not counted. A
+ * 20 s warm-up is followed by 30 s measured. {@code one} reads
+ * {@code GET /api/users/{id}} for ids in 2..10001; {@code page} reads
+ * {@code GET /api/users?limit=100} from cursors within the same ids.
+ *
+ * Arguments: base URL, the application's pid, {@code one} or {@code page}, clients
+ * (default 4) and the clock ticks per second of {@code /proc} (default 100, see
+ * {@code getconf CLK_TCK}). Linux only:
+ * <pre>
+ * mvn -B test-compile
+ * java -cp target/test-classes:target/classes com.example.legacyapp.controller.UserReadCpuBenchmark \
+ *     http://localhost:8080/legacy $(pgrep -f legacy-app) one
+ * </pre>
+ */
+public class UserReadCpuBenchmark {
+
+    private static final int HOT_USERS = 10000;
+    private static final int WARM_UP_SECONDS = 20;
+    private static final int SECONDS = 30;
+
+    public static void main(String[] args) throws Exception {
+        String base = args[0];
+        String pid = args[1];
+        boolean page = args[2].equals("page");
+        int clients = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int ticksPerSecond = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+
+        run(base, page, clients, WARM_UP_SECONDS);
+        long ticks = cpuTicks(pid);
+        long requests = run(base, page, clients, SECONDS);
+        ticks = cpuTicks(pid) - ticks;
+        System.out.printf("%-5s %6d req in %ds (%5.0f req/s)  server CPU %.3f ms/req%n", args[2], requests, SECONDS,
+                (double) requests / SECONDS, ticks * 1000.0 / ticksPerSecond / requests);
+    }
+
+    /** Reads from {@code clients} threads for {@code seconds}; the number of requests completed. */
+    private static long run(String base, boolean page, int clients, int seconds) throws InterruptedException {
+        AtomicLong done = new AtomicLong();
+        long end = System.currentTimeMillis() + seconds * 1000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Random random = new Random(i);
+            Thread thread = new Thread(() -> {
+                while (System.currentTimeMillis() < end) {
+                    String url = page
+                            ? base + "/api/users?limit=100&cursor=" + UserCursors.encode(random.nextInt(HOT_USERS / 100) * 100)
+                            : base + "/api/users/" + (2 + random.nextInt(HOT_USERS));
+                    if (get(url)) {
+                        done.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return done.get();
+    }
+
+    private static boolean get(String url) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            int status = connection.getResponseCode();
+            try (InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+                byte[] buffer = new byte[8192];
+                while (body != null && body.read(buffer) >= 0) {
+                    // drained so that the connection is reused
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** User plus system time of the process, fields 14 and 15 of its stat line. */
+    private static long cpuTicks(String pid) throws IOException {
+        String stat = new String(Files.readAllBytes(Paths.get("/proc", pid, "stat")), StandardCharsets.US_ASCII);
+        // The command name in parentheses may contain spaces, so count fields after it
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        return Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+    }
+}
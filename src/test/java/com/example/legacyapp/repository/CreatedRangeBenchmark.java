@@ -0,0 +1,165 @@
+package com.example.legacyapp.repository;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+
+/**
+ * The created_at queries of {@link LegacyUserRepository} over plain JDBC against an H2
+ * file database: the function-wrapped filters they replaced, which scan the table, and
+ * the range, keyset and bucket count queries served from idx_users_created_at. Each query
+ * prints its plan and the best of three runs.
+ *
+ * Arguments: database path, then a phase, then for {@code create} the number of rows
+ * (default 10000000, one every 9 seconds from 2024):
+ * <ul>
+ * <li>{@code create} creates the users table as Hibernate maps it and fills it;</li>
+ * <li>{@code old} runs the old queries, before the indexes exist;</li>
+ * <li>{@code index} builds the two created_at indexes;</li>
+ * <li>{@code new} runs the old and the new queries.</li>
+ * </ul>
+ * A main program, not a test. Build and run it with
+ * <pre>
+ * mvn -B test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt -Dmdep.includeScope=test
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.example.legacyapp.repository.CreatedRangeBenchmark /tmp/range-db create
+ * </pre>
+ */
+public class CreatedRangeBenchmark {
+
+    private static final String RANGE = "SELECT * FROM users u WHERE u.created_at >= ? AND u.created_at < ? "
+            + "ORDER BY u.created_at, u.id";
+    private static final String AFTER = "SELECT * FROM users u WHERE u.created_at >= ? AND u.created_at < ? "
+            + "AND (u.created_at > ? OR u.id > ?) ORDER BY u.created_at, u.id LIMIT 101";
+    private static final String BEFORE = "SELECT * FROM users u WHERE u.created_at >= ? AND u.created_at <= ? "
+            + "AND (u.created_at < ? OR u.id < ?) ORDER BY u.created_at DESC, u.id DESC LIMIT 101";
+    private static final String BY_DAY = "SELECT DATE_TRUNC('DAY', created_at) AS bucket, COUNT(*) FROM users "
+            + "WHERE created_at >= ? AND created_at < ? GROUP BY bucket ORDER BY bucket";
+    private static final String BY_MONTH = BY_DAY.replace("'DAY'", "'MONTH'");
+
+    private static Connection connection;
+
+    public static void main(String[] args) throws SQLException {
+        String phase = args[1];
+        connection = DriverManager.getConnection("jdbc:h2:file:" + args[0]
+                + ";LAZY_QUERY_EXECUTION=1;OPTIMIZE_REUSE_RESULTS=FALSE", "sa", "password");
+        try {
+            if (phase.equals("create")) {
+                create(args.length > 2 ? Long.parseLong(args[2]) : 10000000L);
+            } else if (phase.equals("index")) {
+                index();
+            } else {
+                queries(phase.equals("new"));
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void create(long rows) throws SQLException {
+        long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE users (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+                    + "active BOOLEAN NOT NULL, created_at TIMESTAMP(6), email VARCHAR(255), full_name VARCHAR(255), "
+                    + "last_login TIMESTAMP(6), password VARCHAR(255), status VARCHAR(255), tenant_id VARCHAR(255), "
+                    + "updated_at TIMESTAMP(6), username VARCHAR(255))");
+            statement.execute("INSERT INTO users (id, active, created_at, email, full_name, password, status, "
+                    + "tenant_id, updated_at, username) "
+                    + "SELECT X, TRUE, DATEADD('SECOND', X * 9, TIMESTAMP '2024-01-01 00:00:00'), "
+                    + "'r' || X || '@example.com', 'Range User ' || X, 'secret1', 'ACTIVE', 'tenant' || MOD(X, 1000), "
+                    + "DATEADD('SECOND', X * 9, TIMESTAMP '2024-01-01 00:00:00'), 'ruser' || X "
+                    + "FROM SYSTEM_RANGE(1, " + rows + ")");
+        }
+        System.out.printf("%d rows created in %.1f s%n", rows, (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void index() throws SQLException {
+        long start = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_users_created_at ON users (created_at, id)");
+            statement.execute("CREATE INDEX IF NOT EXISTS idx_users_created_at_desc ON users (created_at DESC, id DESC)");
+        }
+        System.out.printf("indexes built in %.1f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void queries(boolean ranges) throws SQLException {
+        // The day of the row 51% of the way through the ids, mid-June 2025 in the default table
+        long cursorId;
+        Timestamp day;
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT id, created_at FROM users "
+                     + "WHERE id >= (SELECT MAX(id) FROM users) * 51 / 100 ORDER BY id LIMIT 1")) {
+            rs.next();
+            cursorId = rs.getLong(1);
+            day = rs.getTimestamp(2);
+        }
+        LocalDate date = day.toLocalDateTime().toLocalDate();
+        Timestamp dayStart = Timestamp.valueOf(date.atStartOfDay());
+        Timestamp dayEnd = Timestamp.valueOf(date.plusDays(1).atStartOfDay());
+        Timestamp monthStart = Timestamp.valueOf(date.withDayOfMonth(1).atStartOfDay());
+        Timestamp monthEnd = Timestamp.valueOf(date.withDayOfMonth(1).plusMonths(1).atStartOfDay());
+        Timestamp yearStart = Timestamp.valueOf(date.withDayOfYear(1).atStartOfDay());
+        Timestamp yearEnd = Timestamp.valueOf(date.withDayOfYear(1).plusYears(1).atStartOfDay());
+        Timestamp first = new Timestamp(0);
+        Timestamp last = Timestamp.valueOf("9999-12-31 00:00:00");
+        System.out.println("day " + date + ", cursor id " + cursorId);
+
+        run("old day     CAST(created_at AS DATE) = ...",
+                "SELECT * FROM users WHERE CAST(created_at AS DATE) = CAST(? AS DATE)", day);
+        run("old month   YEAR()/MONTH()", "SELECT * FROM users WHERE YEAR(created_at) = ? AND MONTH(created_at) = ?",
+                date.getYear(), date.getMonthValue());
+        run("old recent  ORDER BY created_at DESC LIMIT 100", "SELECT * FROM users ORDER BY created_at DESC LIMIT 100");
+        if (!ranges) {
+            return;
+        }
+        run("new day     range", RANGE, dayStart, dayEnd);
+        run("new month   range", RANGE, monthStart, monthEnd);
+        run("new recent  desc first page of 100", BEFORE, first, last, last, 0L);
+        run("new asc     page of 100, year range, first", AFTER, yearStart, yearEnd, yearStart, 0L);
+        run("new asc     page of 100, year range, mid-year cursor", AFTER, day, yearEnd, day, cursorId);
+        run("new desc    page of 100, year range, mid-year cursor", BEFORE, yearStart, day, day, cursorId);
+        run("new counts  per day over a month", BY_DAY, monthStart, monthEnd);
+        run("new counts  per month over a year", BY_MONTH, yearStart, yearEnd);
+        run("new counts  per month, whole table", BY_MONTH, first, last);
+    }
+
+    private static void run(String name, String sql, Object... params) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            bind(statement, params);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                String plan = rs.getString(1).replaceAll("\\s+", " ");
+                String access = plan.replaceAll(".*/\\* (PUBLIC\\.[^:*]*)(:[^*]*)?\\*/.*", "$1");
+                System.out.printf("%-55s plan: %s%s%n", name, access, plan.contains("index sorted") ? " (index sorted)" : "");
+            }
+        }
+        long best = Long.MAX_VALUE;
+        int rows = 0;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                bind(statement, params);
+                try (ResultSet rs = statement.executeQuery()) {
+                    rows = 0;
+                    while (rs.next()) {
+                        rows++;
+                        rs.getObject(1);
+                    }
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-55s %8d rows %10.1f ms%n", "", rows, best / 1e6);
+    }
+
+    private static void bind(PreparedStatement statement, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            statement.setObject(i + 1, params[i]);
+        }
+    }
+}
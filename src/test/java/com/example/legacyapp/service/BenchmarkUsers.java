@@ -0,0 +1,111 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.util.FileStorageService;
+import com.example.legacyapp.util.Java8Features;
+import com.example.legacyapp.util.UserStore;
+import com.example.legacyapp.util.UserWriteAheadLog;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Name-like users for the in-process benchmarks, and a {@link UserService} over a given
+ * store with the files stubbed out, so that only the store and the indexes are measured.
+ */
+final class BenchmarkUsers {
+
+    static final String[] FIRST_NAMES = {
+            "alice", "bob", "carol", "david", "emma", "ethan", "frank", "grace", "henry", "isla",
+            "jack", "kate", "liam", "mia", "noah", "olivia", "paul", "quinn", "ruby", "sam",
+            "tom", "uma", "victor", "wendy", "xavier", "yara", "zoe", "alex", "ben", "chloe"};
+
+    static final String[] LAST_NAMES = {
+            "smith", "jones", "wood", "king", "brown", "taylor", "wilson", "evans", "thomas", "roberts",
+            "walker", "wright", "hall", "green", "hughes", "clarke", "lewis", "baker", "hill", "moore",
+            "ward", "turner", "cooper", "parker", "morris", "bell", "carter", "price", "shaw", "young"};
+
+    private BenchmarkUsers() {
+    }
+
+    /** A username such as grace_wood, smith1234, king9 or ethan.hall, with a full name. */
+    static User user(Random random) {
+        String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+        String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        String username;
+        switch (random.nextInt(4)) {
+            case 0:
+                username = first + "_" + last;
+                break;
+            case 1:
+                username = last + random.nextInt(10000);
+                break;
+            case 2:
+                username = first + random.nextInt(100);
+                break;
+            default:
+                username = first + "." + last;
+                break;
+        }
+        User user = new User();
+        user.setUsername(username);
+        user.setEmail(username + "@example.com");
+        user.setFullName(capitalize(first) + " " + capitalize(last));
+        return user;
+    }
+
+    static UserService service(UserStore store) {
+        UserService userService = new UserService();
+        ReflectionTestUtils.setField(userService, "userStore", store);
+        ReflectionTestUtils.setField(userService, "fileStorageService", new NoFiles());
+        ReflectionTestUtils.setField(userService, "java8Features", new Java8Features() {
+            @Override
+            public void processUserWithLambda(User user) {
+            }
+        });
+        ReflectionTestUtils.setField(userService, "writeBehind", new UserWriteBehind());
+        ReflectionTestUtils.setField(userService, "userJsonCache", new UserJsonCache() {
+            @Override
+            public void invalidate(Long id) {
+            }
+        });
+        ReflectionTestUtils.setField(userService, "idBlockSize", 1000);
+        userService.init();
+        return userService;
+    }
+
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static String capitalize(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    // Plain overrides rather than mocks: a mock records where every call came from, which
+    // would cost more than the changes being measured
+    private static final class NoFiles extends FileStorageService {
+        @Override
+        public void loadUsers(UserStore target) {
+        }
+
+        @Override
+        public long getReservedUserIds() {
+            return 0;
+        }
+
+        @Override
+        public void reserveUserIds(long upTo) {
+        }
+
+        @Override
+        public UserWriteAheadLog.Commit queueUserFiles(byte op, List<User> users) {
+            return UserWriteAheadLog.Commit.DONE;
+        }
+    }
+}
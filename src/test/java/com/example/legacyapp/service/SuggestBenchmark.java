@@ -0,0 +1,131 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.util.OffHeapUserStore;
+import com.example.legacyapp.util.PrefixIndex;
+import com.example.legacyapp.util.TrigramIndex;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The suggest lookups over an off-heap store of users that each have a username and a
+ * two-word full name: the heap taken by a {@link PrefixIndex} of their keys, the latency
+ * of {@link UserService#suggest}, and the cost of renames, deletes and creates, after
+ * which the results are checked against a sorted scan of every key.
+ *
+ * Arguments: number of users (default 1000000). Build and run it as
+ * {@link UserSearchBenchmark}.
+ */
+public class SuggestBenchmark {
+
+    private static final String[] QUERIES = {"a", "al", "ali", "alice_s", "smi", "Grace W", "wood", "zz"};
+    private static final int LIMIT = 10;
+    private static final int RUNS = 20000;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Random random = new Random(42);
+        OffHeapUserStore store = new OffHeapUserStore();
+        Date now = new Date();
+        for (int i = 1; i <= count; i++) {
+            User user = BenchmarkUsers.user(random);
+            user.setId((long) i);
+            user.setCreatedAt(now);
+            user.setUpdatedAt(now);
+            user.setVersion(1L);
+            store.put(user);
+        }
+
+        long before = BenchmarkUsers.usedHeap();
+        PrefixIndex index = new PrefixIndex();
+        index.build(store, SuggestBenchmark::keys);
+        long grown = BenchmarkUsers.usedHeap() - before;
+        System.out.printf("index: %s; heap grew by %.1f MB, %.1f bytes per user%n", index,
+                grown / 1e6, (double) grown / count);
+        index = null;
+
+        UserService userService = BenchmarkUsers.service(store);
+        System.out.printf("%-10s %10s %10s%n", "query", "p50 us", "p99 us");
+        for (String query : QUERIES) {
+            long[] times = new long[RUNS];
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                userService.suggest(query, LIMIT);
+                times[run] = System.nanoTime() - start;
+            }
+            Arrays.sort(times);
+            System.out.printf("%-10s %10.1f %10.1f%n", query, times[RUNS / 2] / 1e3, times[RUNS * 99 / 100] / 1e3);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100000; i++) {
+            long id = 1 + random.nextInt(count);
+            userService.updateUser(id, BenchmarkUsers.user(random));
+        }
+        System.out.printf("100k renames %.2f s%n", (System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        for (int i = 0; i < 20000; i++) {
+            userService.deleteUser((long) (1 + random.nextInt(count)));
+        }
+        System.out.printf("20k deletes  %.2f s%n", (System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        for (int i = 0; i < 100000; i++) {
+            userService.createUser(BenchmarkUsers.user(random));
+        }
+        System.out.printf("100k creates %.2f s%n", (System.nanoTime() - start) / 1e9);
+
+        for (String query : QUERIES) {
+            List<Long> found = new ArrayList<>();
+            for (User user : userService.suggest(query, LIMIT)) {
+                found.add(user.getId());
+            }
+            if (!found.equals(scan(store, query))) {
+                throw new IllegalStateException("index and scan differ for " + query);
+            }
+        }
+        System.out.println("index results match the scan after churn");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Collection<String> keys(User user) {
+        return (Collection<String>) ReflectionTestUtils.invokeMethod(UserService.class, "suggestKeys", user);
+    }
+
+    /** Every matching key of every user, sorted as the index orders them. */
+    private static List<Long> scan(OffHeapUserStore store, String query) {
+        String needle = TrigramIndex.normalize(query);
+        List<Object[]> matches = new ArrayList<>();
+        store.forEach(user -> {
+            Set<String> normalized = new HashSet<>();
+            for (String key : keys(user)) {
+                normalized.add(TrigramIndex.normalize(key));
+            }
+            for (String key : normalized) {
+                if (key.startsWith(needle)) {
+                    matches.add(new Object[] {key, user.getId()});
+                }
+            }
+        });
+        matches.sort((a, b) -> {
+            int byKey = ((String) a[0]).compareTo((String) b[0]);
+            return byKey != 0 ? byKey : Long.compare((Long) a[1], (Long) b[1]);
+        });
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Object[] match : matches) {
+            if (ids.size() == LIMIT) {
+                break;
+            }
+            ids.add((Long) match[1]);
+        }
+        return new ArrayList<>(ids);
+    }
+}
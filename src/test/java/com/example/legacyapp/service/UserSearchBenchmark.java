@@ -0,0 +1,108 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.util.OffHeapUserStore;
+import com.example.legacyapp.util.TrigramIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Username substring search over an off-heap store: the full scan that served every query
+ * before the trigram index, against {@link UserService#searchByUsername}, then the cost of
+ * keeping the index current through renames, deletes and creates.
+ *
+ * A main program, not a test, so surefire leaves it alone. Arguments: number of users
+ * (default 1000000). Build and run it with
+ * <pre>
+ * mvn -B test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt -Dmdep.includeScope=test
+ * java -Xmx2g -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.example.legacyapp.service.UserSearchBenchmark
+ * </pre>
+ */
+public class UserSearchBenchmark {
+
+    private static final String[] QUERIES = {"smith1234", "grace_wood", "king9", "ethan", "xyzq"};
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Random random = new Random(42);
+        OffHeapUserStore store = new OffHeapUserStore();
+        Date now = new Date();
+        for (int i = 1; i <= count; i++) {
+            User user = BenchmarkUsers.user(random);
+            user.setId((long) i);
+            user.setCreatedAt(now);
+            user.setUpdatedAt(now);
+            user.setVersion(1L);
+            store.put(user);
+        }
+        UserService userService = BenchmarkUsers.service(store);
+
+        System.out.printf("%-12s %8s %12s %12s%n", "query", "matches", "scan ms", "index ms");
+        for (String query : QUERIES) {
+            List<User> scanned = null;
+            List<User> found = null;
+            long scanBest = Long.MAX_VALUE;
+            long indexBest = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                scanned = scan(store, query);
+                scanBest = Math.min(scanBest, System.nanoTime() - start);
+                start = System.nanoTime();
+                found = userService.searchByUsername(query);
+                indexBest = Math.min(indexBest, System.nanoTime() - start);
+            }
+            check(query, scanned, found);
+            System.out.printf("%-12s %8d %12.3f %12.3f%n", query, found.size(), scanBest / 1e6, indexBest / 1e6);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100000; i++) {
+            long id = 1 + random.nextInt(count);
+            userService.updateUser(id, BenchmarkUsers.user(random));
+        }
+        System.out.printf("100k renames %.2f s%n", (System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        for (int i = 0; i < 20000; i++) {
+            userService.deleteUser((long) (1 + random.nextInt(count)));
+        }
+        System.out.printf("20k deletes  %.2f s%n", (System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        for (int i = 0; i < 100000; i++) {
+            userService.createUser(BenchmarkUsers.user(random));
+        }
+        System.out.printf("100k creates %.2f s%n", (System.nanoTime() - start) / 1e9);
+
+        for (String query : QUERIES) {
+            check(query, scan(store, query), userService.searchByUsername(query));
+        }
+        System.out.println("index results match the scan after churn");
+    }
+
+    /** The search as it was before the index: every user decoded and checked. */
+    private static List<User> scan(OffHeapUserStore store, String query) {
+        String needle = TrigramIndex.normalize(query);
+        List<User> matches = new ArrayList<>();
+        store.forEach(user -> {
+            if (user.getUsername() != null && TrigramIndex.normalize(user.getUsername()).contains(needle)) {
+                matches.add(user);
+            }
+        });
+        matches.sort(Comparator.comparing(User::getId));
+        return matches;
+    }
+
+    private static void check(String query, List<User> expected, List<User> actual) {
+        long[] expectedIds = expected.stream().mapToLong(User::getId).toArray();
+        long[] actualIds = actual.stream().mapToLong(User::getId).toArray();
+        if (!Arrays.equals(expectedIds, actualIds)) {
+            throw new IllegalStateException("index and scan differ for " + query);
+        }
+    }
+}
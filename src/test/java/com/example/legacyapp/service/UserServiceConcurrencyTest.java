@@ -0,0 +1,206 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.util.FileStorageService;
+import com.example.legacyapp.util.HeapUserStore;
+import com.example.legacyapp.util.Java8Features;
+import com.example.legacyapp.util.UserAttributeIndex;
+import com.example.legacyapp.util.UserWriteAheadLog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyByte;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class UserServiceConcurrencyTest {
+
+    private static final int USERS = 64;
+    private static final int THREADS = 8;
+    private static final int OPS_PER_THREAD = 2000;
+
+    private final HeapUserStore userStore = new HeapUserStore();
+    // Every record handed to the log, in the order it was queued
+    private final List<Logged> log = Collections.synchronizedList(new ArrayList<>());
+    private UserService userService;
+
+    @BeforeEach
+    void setUp() {
+        FileStorageService fileStorageService = mock(FileStorageService.class);
+        doAnswer(invocation -> {
+            byte op = invocation.getArgument(0);
+            List<User> users = invocation.getArgument(1);
+            for (User user : users) {
+                log.add(new Logged(op, user.getId(), user.getUsername(), user.getVersion()));
+            }
+            return UserWriteAheadLog.Commit.DONE;
+        }).when(fileStorageService).queueUserFiles(anyByte(), anyList());
+        userService = new UserService();
+        ReflectionTestUtils.setField(userService, "userStore", userStore);
+        ReflectionTestUtils.setField(userService, "fileStorageService", fileStorageService);
+        ReflectionTestUtils.setField(userService, "java8Features", mock(Java8Features.class));
+        ReflectionTestUtils.setField(userService, "writeBehind", mock(UserWriteBehind.class));
+        ReflectionTestUtils.setField(userService, "userJsonCache", mock(UserJsonCache.class));
+        ReflectionTestUtils.setField(userService, "idBlockSize", 1000);
+        userService.init();
+    }
+
+    @Test
+    void concurrentWritesOnOverlappingIdsKeepVersionsAndLogConsistent() throws Exception {
+        List<User> created = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            created.add(user("initial" + i));
+        }
+        userService.createUsers(created);
+        long firstId = created.get(0).getId();
+        long expectedStoreVersion = 1;
+
+        AtomicLongArray updates = new AtomicLongArray(USERS);
+        AtomicLongArray deletes = new AtomicLongArray(USERS);
+        AtomicLong storeChanges = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(pool.submit(() -> {
+                Random random = new Random(thread);
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    int pick = random.nextInt(1000);
+                    int index = random.nextInt(USERS);
+                    long id = firstId + index;
+                    if (pick < 3) {
+                        if (userService.deleteUser(id)) {
+                            deletes.incrementAndGet(index);
+                            storeChanges.incrementAndGet();
+                        }
+                    } else if (pick < 5) {
+                        int other = random.nextInt(USERS);
+                        boolean[] deleted = userService.deleteUsers(Arrays.asList(id, firstId + other));
+                        boolean any = false;
+                        if (deleted[0]) {
+                            deletes.incrementAndGet(index);
+                            any = true;
+                        }
+                        if (deleted[1]) {
+                            deletes.incrementAndGet(other);
+                            any = true;
+                        }
+                        if (any) {
+                            storeChanges.incrementAndGet();
+                        }
+                    } else if (pick < 500) {
+                        User change = user("t" + thread + "-" + i);
+                        if (userService.updateUser(id, change).isPresent()) {
+                            updates.incrementAndGet(index);
+                            storeChanges.incrementAndGet();
+                        }
+                    } else {
+                        List<User> changes = new ArrayList<>();
+                        int[] indexes = {index, random.nextInt(USERS), random.nextInt(USERS)};
+                        for (int target : indexes) {
+                            User change = user("t" + thread + "-" + i + "-" + target);
+                            change.setId(firstId + target);
+                            changes.add(change);
+                        }
+                        List<User> results = userService.updateUsers(changes);
+                        for (int k = 0; k < indexes.length; k++) {
+                            if (results.get(k) != null) {
+                                updates.incrementAndGet(indexes[k]);
+                                storeChanges.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+
+        // Replaying the log in queue order must give the store's final state
+        Map<Long, Logged> lastLogged = new HashMap<>();
+        Map<Long, Long> loggedVersion = new HashMap<>();
+        for (Logged record : log) {
+            if (record.op == UserWriteAheadLog.OP_CREATE) {
+                assertEquals(1L, record.version);
+            } else if (record.op == UserWriteAheadLog.OP_UPDATE) {
+                assertEquals(loggedVersion.get(record.id) + 1, record.version, "version order of user " + record.id);
+            }
+            loggedVersion.put(record.id, record.version);
+            lastLogged.put(record.id, record);
+        }
+
+        int live = 0;
+        for (int index = 0; index < USERS; index++) {
+            long id = firstId + index;
+            User stored = userStore.get(id);
+            Logged last = lastLogged.get(id);
+            assertTrue(deletes.get(index) <= 1, "user " + id + " deleted twice");
+            if (deletes.get(index) == 1) {
+                assertNull(stored);
+                assertEquals(UserWriteAheadLog.OP_DELETE, last.op);
+            } else {
+                live++;
+                assertNotNull(stored);
+                assertEquals(1 + updates.get(index), stored.getVersion());
+                assertEquals(stored.getUsername(), last.username);
+                assertFalse(last.op == UserWriteAheadLog.OP_DELETE);
+            }
+        }
+        assertEquals(live, userStore.size());
+        assertEquals(live, userService.getUsersAfter(0, USERS + 1).size());
+        assertEquals(live, userService.findUsers(new UserAttributeIndex.Filter(null, null, null, true), 0, USERS + 1).size());
+        assertEquals(expectedStoreVersion + storeChanges.get(), userService.getStoreVersion());
+    }
+
+    @Test
+    void deletingOnlyMissingUsersLeavesTheStoreVersion() {
+        userService.createUsers(Collections.singletonList(user("alice")));
+        long before = userService.getStoreVersion();
+        boolean[] deleted = userService.deleteUsers(Arrays.asList(999_999L, 999_998L));
+        assertFalse(deleted[0] || deleted[1]);
+        assertEquals(before, userService.getStoreVersion());
+    }
+
+    private static User user(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setEmail(username + "@example.com");
+        return user;
+    }
+
+    private static final class Logged {
+        private final byte op;
+        private final long id;
+        private final String username;
+        private final long version;
+
+        Logged(byte op, long id, String username, long version) {
+            this.op = op;
+            this.id = id;
+            this.username = username;
+            this.version = version;
+        }
+    }
+}
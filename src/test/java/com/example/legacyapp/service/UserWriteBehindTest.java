@@ -0,0 +1,140 @@
+package com.example.legacyapp.service;
+
+import com.example.legacyapp.model.User;
+import com.example.legacyapp.util.AppThreads;
+import com.example.legacyapp.util.FileStorageService;
+import com.example.legacyapp.util.Java8Features;
+import com.example.legacyapp.util.UserWriteAheadLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyByte;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class UserWriteBehindTest {
+
+    private final FileStorageService fileStorageService = mock(FileStorageService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Long> written = Collections.synchronizedList(new ArrayList<>());
+    private UserWriteBehind writeBehind;
+
+    @BeforeEach
+    void setUp() {
+        writeBehind = new UserWriteBehind();
+        ReflectionTestUtils.setField(writeBehind, "enabled", true);
+        ReflectionTestUtils.setField(writeBehind, "queueCapacity", 2);
+        ReflectionTestUtils.setField(writeBehind, "maxBatch", 1);
+        ReflectionTestUtils.setField(writeBehind, "retryIntervalMs", 10L);
+        ReflectionTestUtils.setField(writeBehind, "fileStorageService", fileStorageService);
+        ReflectionTestUtils.setField(writeBehind, "java8Features", mock(Java8Features.class));
+        ReflectionTestUtils.setField(writeBehind, "appThreads", new AppThreads());
+        ReflectionTestUtils.setField(writeBehind, "meterRegistry", meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writeBehind.shutdown();
+    }
+
+    @Test
+    void writersWaitWhenTheQueueIsFull() throws Exception {
+        CountDownLatch writerBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            writerBusy.countDown();
+            release.await();
+            written.addAll(ids(invocation.getArgument(1)));
+            return null;
+        }).when(fileStorageService).appendUserRecords(anyByte(), anyList());
+        writeBehind.init();
+
+        submit(1);
+        assertTrue(writerBusy.await(5, TimeUnit.SECONDS));
+        // The writer holds 1; 2 and 3 fill the queue; 4 has to wait for space
+        submit(2);
+        submit(3);
+        Thread blocked = new Thread(() -> submit(4));
+        blocked.start();
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            while (blocked.getState() != Thread.State.WAITING) {
+                Thread.sleep(5);
+            }
+        });
+        assertEquals(1.0, meterRegistry.counter("user.writes.stalled").count());
+        assertEquals(2.0, meterRegistry.get("user.writes.queued").gauge().value());
+
+        release.countDown();
+        blocked.join(5000);
+        writeBehind.shutdown();
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L), written);
+    }
+
+    @Test
+    void failedBatchIsKeptAndRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        doAnswer(invocation -> {
+            if (attempts.incrementAndGet() <= 2) {
+                throw new IOException("disk full");
+            }
+            written.addAll(ids(invocation.getArgument(1)));
+            return null;
+        }).when(fileStorageService).appendUserRecords(anyByte(), anyList());
+        writeBehind.init();
+
+        submit(1);
+        submit(2);
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            while (written.size() < 2) {
+                Thread.sleep(5);
+            }
+        });
+
+        assertEquals(2.0, meterRegistry.counter("user.writes.failed").count());
+        assertEquals(Arrays.asList(1L, 2L), written);
+    }
+
+    @Test
+    void rejectsUnknownOperations() {
+        writeBehind.init();
+        assertThrows(IllegalArgumentException.class,
+                () -> writeBehind.submit(UserWriteAheadLog.OP_CHECKPOINT, Collections.singletonList(user(1))));
+    }
+
+    private void submit(long id) {
+        writeBehind.submit(UserWriteAheadLog.OP_UPDATE, Collections.singletonList(user(id)));
+    }
+
+    private static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("user" + id);
+        return user;
+    }
+
+    private static List<Long> ids(List<User> users) {
+        List<Long> ids = new ArrayList<>();
+        for (User user : users) {
+            ids.add(user.getId());
+        }
+        return ids;
+    }
+}
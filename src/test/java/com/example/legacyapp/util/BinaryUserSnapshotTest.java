@@ -0,0 +1,108 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryUserSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTripsUsersAcrossBlocks() throws IOException {
+        // Enough users for several 64 KB blocks, parsed in parallel
+        List<User> users = new ArrayList<>();
+        for (long id = 1; id <= 5000; id++) {
+            User user = UserWriteAheadLogTest.user(id, "user" + id + "é,\"quoted\"");
+            user.setCreatedAt(new Date(1_600_000_000_000L + id));
+            user.setActive(id % 3 != 0);
+            user.setTenantId(id % 2 == 0 ? "tenant" + id % 7 : null);
+            user.setVersion(id % 5);
+            users.add(user);
+        }
+        Path file = dir.resolve("users.bin");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            BinaryUserSnapshot.write(users, 42L, out);
+        }
+        assertTrue(BinaryUserSnapshot.isBinary(file));
+
+        HeapUserStore loaded = new HeapUserStore();
+        UserSnapshotLoader.LoadStats stats = BinaryUserSnapshot.read(file, loaded, 4);
+        assertEquals(5000, stats.getUsers());
+        assertEquals(5000, loaded.size());
+        for (User expected : users) {
+            User actual = loaded.get(expected.getId());
+            assertEquals(expected.getUsername(), actual.getUsername());
+            assertEquals(expected.getEmail(), actual.getEmail());
+            assertEquals(expected.getCreatedAt(), actual.getCreatedAt());
+            assertEquals(expected.isActive(), actual.isActive());
+            assertEquals(expected.getTenantId(), actual.getTenantId());
+            assertEquals(expected.getVersion(), actual.getVersion());
+            assertNull(actual.getUpdatedAt());
+        }
+    }
+
+    @Test
+    void rejectsCorruptBlock() throws IOException {
+        List<User> users = new ArrayList<>();
+        for (long id = 1; id <= 10; id++) {
+            users.add(UserWriteAheadLogTest.user(id, "user" + id));
+        }
+        Path file = dir.resolve("users.bin");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            BinaryUserSnapshot.write(users, 1L, out);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // First record byte of the first block: header (22) + block header (12) + 3
+            channel.write(ByteBuffer.wrap(new byte[]{'#'}), 22 + 12 + 3);
+        }
+        assertThrows(IOException.class, () -> BinaryUserSnapshot.read(file, new HeapUserStore(), 1));
+    }
+
+    @Test
+    void writesAnOffHeapStoreInIdOrder() throws IOException {
+        OffHeapUserStore store = new OffHeapUserStore(64 * 1024);
+        for (long id = 1; id <= 3000; id++) {
+            store.put(UserWriteAheadLogTest.user(id, "user" + id));
+        }
+        Path file = dir.resolve("users.bin");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            BinaryUserSnapshot.write(store, 7L, out);
+        }
+
+        HeapUserStore loaded = new HeapUserStore(new LinkedHashMap<>());
+        assertEquals(3000, BinaryUserSnapshot.read(file, loaded, 1).getUsers());
+        long expectedId = 1;
+        for (User user : loaded.values()) {
+            assertEquals(expectedId, user.getId());
+            assertEquals("user" + expectedId, user.getUsername());
+            expectedId++;
+        }
+    }
+
+    @Test
+    void textSnapshotIsNotBinary() throws IOException {
+        Path file = dir.resolve("users.txt");
+        Files.write(file, "1,alice,alice@example.com,2024-01-01 00:00:00\n".getBytes());
+        assertFalse(BinaryUserSnapshot.isBinary(file));
+    }
+}
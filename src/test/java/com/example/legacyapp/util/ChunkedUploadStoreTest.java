@@ -0,0 +1,82 @@
+package com.example.legacyapp.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedUploadStoreTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void storesAndReadsBackRangesAndDeduplicates() throws IOException {
+        ChunkedUploadStore store = new ChunkedUploadStore(dir);
+        byte[] content = randomBytes(3 * 1024 * 1024);
+
+        ChunkedUploadStore.StoreResult first = store.store("a.bin", new ByteArrayInputStream(content), Long.MAX_VALUE);
+        assertEquals(content.length, first.getSize());
+        assertEquals(content.length, first.getNewBytes());
+        assertTrue(first.getChunks() > 1);
+
+        ChunkedUploadStore.StoreResult second = store.store("b.bin", new ByteArrayInputStream(content), Long.MAX_VALUE);
+        assertEquals(0, second.getNewBytes());
+
+        assertArrayEquals(content, read(store, "b.bin", 0, content.length));
+        assertArrayEquals(Arrays.copyOfRange(content, 12345, 1_234_567), read(store, "b.bin", 12345, 1_234_567 - 12345));
+    }
+
+    @Test
+    void rejectsUploadOverTheLimitAsTooLarge() throws IOException {
+        ChunkedUploadStore store = new ChunkedUploadStore(dir);
+        byte[] content = randomBytes(1024 * 1024);
+        assertThrows(UploadTooLargeException.class,
+                () -> store.store("big.bin", new ByteArrayInputStream(content), 64 * 1024));
+    }
+
+    @Test
+    void failsInsteadOfSpinningOnTruncatedChunk() throws IOException {
+        ChunkedUploadStore store = new ChunkedUploadStore(dir);
+        byte[] content = randomBytes(256 * 1024);
+        store.store("a.bin", new ByteArrayInputStream(content), Long.MAX_VALUE);
+        try (Stream<Path> files = Files.walk(dir.resolve("chunks"))) {
+            for (Path chunk : files.filter(Files::isRegularFile).toArray(Path[]::new)) {
+                try (FileChannel channel = FileChannel.open(chunk, StandardOpenOption.WRITE)) {
+                    channel.truncate(channel.size() / 2);
+                }
+            }
+        }
+        assertTimeoutPreemptively(Duration.ofSeconds(10),
+                () -> assertThrows(IOException.class, () -> read(store, "a.bin", 0, content.length)));
+    }
+
+    private static byte[] read(ChunkedUploadStore store, String name, long position, long count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        store.transfer(name, position, count, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
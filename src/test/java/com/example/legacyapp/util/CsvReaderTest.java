@@ -0,0 +1,112 @@
+package com.example.legacyapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CsvReaderTest {
+
+    @Test
+    void readsQuotedFieldsAndLineEnds() throws IOException {
+        String csv = "id,name,note\r\n"
+                + "1,\"Smith, Jane\",\"said \"\"hi\"\"\"\r\n"
+                + "\r\n"
+                + "2,Zoë,\"two\nlines\"\n"
+                + "3,,\n"
+                + "4,\"\",last";
+        List<String[]> records = readAll(bytes(csv), 0);
+        assertEquals(5, records.size());
+        assertArrayEquals(new String[]{"id", "name", "note"}, records.get(0));
+        assertArrayEquals(new String[]{"1", "Smith, Jane", "said \"hi\""}, records.get(1));
+        assertArrayEquals(new String[]{"2", "Zoë", "two\nlines"}, records.get(2));
+        assertArrayEquals(new String[]{"3", "", ""}, records.get(3));
+        assertArrayEquals(new String[]{"4", "", "last"}, records.get(4));
+    }
+
+    @Test
+    void resumesFromTheOffsetOfAnyRecord() throws IOException {
+        // Long enough to cross several 64 KB buffers, with multi-byte characters and CRLF
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            csv.append(i).append(",\"naïve, user ").append(i).append("\",żółw").append(i).append("\r\n");
+        }
+        byte[] data = bytes(csv.toString());
+        List<String[]> all = readAll(data, 0);
+        assertEquals(5000, all.size());
+
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(data), 0)) {
+            for (int i = 0; i < 5000; i += 1237) {
+                while (!reader.next()[0].equals(String.valueOf(i))) {
+                    // skip to record i
+                }
+                long offset = reader.getOffset();
+                List<String[]> rest = readAll(data, offset);
+                assertEquals(5000 - i - 1, rest.size(), "records after " + i);
+                if (!rest.isEmpty()) {
+                    assertArrayEquals(all.get(i + 1), rest.get(0));
+                }
+            }
+        }
+        assertEquals(data.length, offsetAfterAll(data));
+    }
+
+    @Test
+    void rejectsAnUnterminatedQuote() throws IOException {
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(bytes("1,ok\n2,\"open\n")), 0)) {
+            assertArrayEquals(new String[]{"1", "ok"}, reader.next());
+            assertThrows(IOException.class, reader::next);
+        }
+    }
+
+    @Test
+    void rejectsARecordOverTheSizeLimit() throws IOException {
+        byte[] data = new byte[1024 * 1024 + 10];
+        Arrays.fill(data, (byte) 'x');
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(data), 0)) {
+            assertThrows(IOException.class, reader::next);
+        }
+    }
+
+    @Test
+    void emptyInputHasNoRecords() throws IOException {
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(bytes("\r\n\n")), 0)) {
+            assertNull(reader.next());
+        }
+    }
+
+    private static List<String[]> readAll(byte[] data, long offset) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        InputStream in = new ByteArrayInputStream(data, (int) offset, data.length - (int) offset);
+        try (CsvReader reader = new CsvReader(in, offset)) {
+            String[] record;
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private static long offsetAfterAll(byte[] data) throws IOException {
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(data), 0)) {
+            while (reader.next() != null) {
+                // read to the end
+            }
+            return reader.getOffset();
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
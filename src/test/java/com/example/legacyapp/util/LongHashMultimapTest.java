@@ -0,0 +1,72 @@
+package com.example.legacyapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHashMultimapTest {
+
+    @Test
+    void matchesAMapOfSetsUnderRandomOperations() {
+        // Few keys with many values each make long probe runs that wrap around the table,
+        // which is where backward-shift deletion can go wrong
+        LongHashMultimap map = new LongHashMultimap();
+        Map<Long, Set<Long>> expected = new HashMap<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 300_000; i++) {
+            long key = random.nextInt(40);
+            long value = random.nextInt(200);
+            Set<Long> values = expected.computeIfAbsent(key, k -> new HashSet<>());
+            if (random.nextInt(5) < 3) {
+                assertEquals(values.add(value), map.put(key, value));
+            } else {
+                assertEquals(values.remove(value), map.remove(key, value));
+            }
+            if (i % 10_000 == 0) {
+                assertSameContents(expected, map);
+            }
+        }
+        assertSameContents(expected, map);
+    }
+
+    @Test
+    void removingEveryPairEmptiesTheMap() {
+        LongHashMultimap map = new LongHashMultimap();
+        for (long key = 0; key < 100; key++) {
+            for (long value = 0; value < 30; value++) {
+                assertTrue(map.put(key, value));
+            }
+        }
+        assertFalse(map.put(3, 3));
+        assertEquals(3000, map.size());
+        for (long value = 29; value >= 0; value--) {
+            for (long key = 0; key < 100; key++) {
+                assertTrue(map.remove(key, value));
+            }
+        }
+        assertEquals(0, map.size());
+        assertFalse(map.remove(3, 3));
+        map.forEach(3, value -> {
+            throw new AssertionError("unexpected value " + value);
+        });
+    }
+
+    private static void assertSameContents(Map<Long, Set<Long>> expected, LongHashMultimap map) {
+        int size = 0;
+        for (Map.Entry<Long, Set<Long>> entry : expected.entrySet()) {
+            Set<Long> actual = new HashSet<>();
+            map.forEach(entry.getKey(), value -> assertTrue(actual.add(value), "duplicate " + value));
+            assertEquals(entry.getValue(), actual, "values of key " + entry.getKey());
+            size += actual.size();
+        }
+        assertEquals(size, map.size());
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.Permission;
+import com.example.legacyapp.model.Role;
+import com.example.legacyapp.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OffHeapUserStoreTest {
+
+    @Test
+    void repeatedUpdatesDoNotGrowSlabs() {
+        OffHeapUserStore store = new OffHeapUserStore(1024 * 1024, 1);
+        for (long id = 1; id <= 1000; id++) {
+            store.put(user(id, 0));
+        }
+        int slabsAfterLoad = store.slabCount();
+        int maxSlabs = 0;
+        for (int round = 1; round <= 500; round++) {
+            for (long id = 1; id <= 1000; id++) {
+                store.put(user(id, round));
+            }
+            maxSlabs = Math.max(maxSlabs, store.slabCount());
+        }
+        // Compaction may leave a fresh slab next to the one being filled, never more
+        assertTrue(maxSlabs <= slabsAfterLoad + 2, "slabs grew to " + maxSlabs);
+        assertEquals(1000, store.size());
+        assertEquals("user500-1", store.get(1).getUsername());
+    }
+
+    @Test
+    void removalsAreReclaimed() {
+        OffHeapUserStore store = new OffHeapUserStore(64 * 1024, 1);
+        for (int round = 0; round < 50; round++) {
+            for (long id = 1; id <= 1000; id++) {
+                store.put(user(round * 1000L + id, round));
+            }
+            for (long id = 1; id <= 1000; id++) {
+                store.remove(round * 1000L + id);
+            }
+        }
+        assertEquals(0, store.size());
+        assertTrue(store.slabCount() <= 4, "slabs grew to " + store.slabCount());
+    }
+
+    @Test
+    void matchesAMapUnderRandomOperations() {
+        OffHeapUserStore store = new OffHeapUserStore(256 * 1024);
+        Map<Long, String> expected = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 200_000; i++) {
+            long id = 1 + random.nextInt(20_000);
+            if (random.nextInt(3) == 0) {
+                User removed = store.remove(id);
+                String name = expected.remove(id);
+                assertEquals(name, removed == null ? null : removed.getUsername());
+            } else {
+                User user = user(id, i);
+                store.put(user);
+                expected.put(id, user.getUsername());
+            }
+        }
+        assertEquals(expected.size(), store.size());
+        for (Map.Entry<Long, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), store.get(entry.getKey()).getUsername());
+        }
+        Set<Long> ids = new HashSet<>();
+        store.forEachId(ids::add);
+        assertEquals(expected.keySet(), ids);
+        assertEquals(expected.keySet().stream().mapToLong(Long::longValue).max().orElse(0L), store.maxId());
+        assertFalse(store.contains(20_001));
+        assertNull(store.get(20_001));
+    }
+
+    @Test
+    void segmentsCompactWhileOthersAreWritten() throws Exception {
+        OffHeapUserStore store = new OffHeapUserStore(64 * 1024, 8);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                long first = t * 1000L + 1;
+                writers.add(executor.submit(() -> {
+                    for (int round = 0; round < 200; round++) {
+                        for (long id = first; id < first + 1000; id++) {
+                            store.put(user(id, round));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(4000, store.size());
+        for (long id = 1; id <= 4000; id++) {
+            assertEquals("user199-" + id, store.get(id).getUsername());
+        }
+        assertEquals(4000L, store.maxId());
+    }
+
+    @Test
+    void keepsPasswordRolesAndPermissions() {
+        OffHeapUserStore store = new OffHeapUserStore(64 * 1024);
+        User user = user(1, 0);
+        user.setPassword("secret1");
+        Role role = new Role();
+        role.setId(3L);
+        role.setName("ADMIN");
+        role.setUserId(1L);
+        user.setRoles(Collections.singletonList(role));
+        Permission permission = new Permission();
+        permission.setName("users:write");
+        permission.setDescription("Edit users");
+        user.setPermissions(Collections.singletonList(permission));
+        store.put(user);
+        store.put(user(2, 0));
+
+        User stored = store.get(1);
+        assertEquals("secret1", stored.getPassword());
+        assertEquals(1, stored.getRoles().size());
+        assertEquals(Long.valueOf(3L), stored.getRoles().get(0).getId());
+        assertEquals("ADMIN", stored.getRoles().get(0).getName());
+        assertEquals(Long.valueOf(1L), stored.getRoles().get(0).getUserId());
+        assertEquals(1, stored.getPermissions().size());
+        assertNull(stored.getPermissions().get(0).getId());
+        assertEquals("users:write", stored.getPermissions().get(0).getName());
+        assertEquals("Edit users", stored.getPermissions().get(0).getDescription());
+        assertNull(store.get(2).getRoles());
+        assertEquals(user(2, 0).getUsername(), store.get(2).getUsername());
+    }
+
+    private static User user(long id, int round) {
+        User user = UserWriteAheadLogTest.user(id, "user" + round + "-" + id);
+        user.setVersion(round);
+        return user;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PrefixIndexTest {
+
+    @Test
+    void matchesASortedSetUnderRandomChanges() {
+        // Short keys over a small alphabet share long prefixes, so leaves fill, split and
+        // empty out many times
+        PrefixIndex index = new PrefixIndex();
+        Map<Long, List<String>> keysById = new HashMap<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 50_000; i++) {
+            long id = 1 + random.nextInt(2000);
+            List<String> current = keysById.get(id);
+            List<String> next = randomKeys(random);
+            if (current == null) {
+                index.add(id, next);
+                keysById.put(id, next);
+            } else if (random.nextInt(4) == 0) {
+                index.remove(id, current);
+                keysById.remove(id);
+            } else {
+                index.update(id, current, next);
+                keysById.put(id, next);
+            }
+        }
+        TreeMap<String, TreeSet<Long>> sorted = new TreeMap<>();
+        for (Map.Entry<Long, List<String>> entry : keysById.entrySet()) {
+            for (String key : entry.getValue()) {
+                sorted.computeIfAbsent(key, k -> new TreeSet<>()).add(entry.getKey());
+            }
+        }
+        for (int i = 0; i < 2000; i++) {
+            String prefix = randomKey(random, random.nextInt(4));
+            int limit = 1 + random.nextInt(300);
+            assertEquals(expected(sorted, prefix, limit), index.find(prefix, limit), "prefix " + prefix);
+        }
+    }
+
+    @Test
+    void buildGivesTheSameAnswersAsAddingOneByOne() {
+        HeapUserStore users = new HeapUserStore();
+        PrefixIndex added = new PrefixIndex();
+        Random random = new Random(9);
+        for (long id = 1; id <= 3000; id++) {
+            User user = UserWriteAheadLogTest.user(id, randomKey(random, 1 + random.nextInt(8)));
+            users.put(user);
+            added.add(id, Collections.singletonList(user.getUsername()));
+        }
+        PrefixIndex built = new PrefixIndex();
+        built.build(users, user -> Collections.singletonList(user.getUsername()));
+        for (String prefix : Arrays.asList("", "a", "ab", "dca", "bbbb", "z")) {
+            assertEquals(added.find(prefix, 500), built.find(prefix, 500), "prefix " + prefix);
+        }
+    }
+
+    @Test
+    void matchesIgnoringCaseAndKeepsNonAsciiKeys() {
+        PrefixIndex index = new PrefixIndex();
+        index.add(1, Arrays.asList("Zoë Żak", "zoe"));
+        index.add(2, Collections.singletonList("ZOË"));
+        index.add(3, Collections.singletonList("zo"));
+        assertEquals(Arrays.asList(3L, 1L, 2L), index.find("zo", 10));
+        assertEquals(Arrays.asList(2L, 1L), index.find("zoë", 10));
+        assertEquals(Collections.singletonList(1L), index.find("ZOË Ż", 10));
+        index.remove(1, Arrays.asList("Zoë Żak", "zoe"));
+        assertEquals(Arrays.asList(3L, 2L), index.find("z", 10));
+    }
+
+    private static List<String> randomKeys(Random random) {
+        Set<String> keys = new LinkedHashSet<>();
+        int count = 1 + random.nextInt(3);
+        for (int k = 0; k < count; k++) {
+            keys.add(randomKey(random, 1 + random.nextInt(6)));
+        }
+        return new ArrayList<>(keys);
+    }
+
+    private static String randomKey(Random random, int length) {
+        StringBuilder key = new StringBuilder();
+        for (int c = 0; c < length; c++) {
+            key.append((char) ('a' + random.nextInt(4)));
+        }
+        return key.toString();
+    }
+
+    private static List<Long> expected(TreeMap<String, TreeSet<Long>> sorted, String prefix, int limit) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Map.Entry<String, TreeSet<Long>> entry : sorted.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            for (long id : entry.getValue()) {
+                if (ids.size() < limit) {
+                    ids.add(id);
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.legacyapp.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SortedLongSetTest {
+
+    @Test
+    void matchesATreeSetUnderRandomOperations() {
+        SortedLongSet set = new SortedLongSet();
+        NavigableSet<Long> expected = new TreeSet<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 5000; i++) {
+            long value = random.nextInt(20_000);
+            set.addUnordered(value);
+            expected.add(value);
+        }
+        set.sort();
+        assertEquals(expected.size(), set.size());
+
+        for (int i = 0; i < 200_000; i++) {
+            long value = random.nextInt(20_000);
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    assertEquals(expected.add(value), set.add(value));
+                    break;
+                case 2:
+                    assertEquals(expected.remove(value), set.remove(value));
+                    break;
+                default:
+                    assertEquals(expected.contains(value), set.contains(value));
+            }
+        }
+        assertEquals(expected.size(), set.size());
+        assertArrayEquals(toArray(expected), toArray(set));
+        for (int i = 0; i < 1000; i++) {
+            long after = random.nextInt(21_000) - 500;
+            int limit = 1 + random.nextInt(1200);
+            assertArrayEquals(head(expected.tailSet(after, false), limit), set.after(after, limit));
+        }
+    }
+
+    @Test
+    void appendsStartNewChunksAndRemovalsDropEmptyOnes() {
+        SortedLongSet set = new SortedLongSet();
+        for (long id = 1; id <= 5000; id++) {
+            assertTrue(set.add(id));
+        }
+        assertEquals(5000, set.size());
+        assertArrayEquals(new long[]{4999, 5000}, set.after(4998, 10));
+        for (long id = 1; id <= 5000; id++) {
+            assertTrue(set.remove(id));
+        }
+        assertEquals(0, set.size());
+        assertFalse(set.contains(1));
+        assertEquals(0, set.after(0, 10).length);
+        assertTrue(set.add(7));
+        assertArrayEquals(new long[]{7}, set.after(0, 10));
+    }
+
+    @Test
+    void sortDropsDuplicates() {
+        SortedLongSet set = new SortedLongSet();
+        for (long value : new long[]{5, 3, 5, 1, 3, 9}) {
+            set.addUnordered(value);
+        }
+        set.sort();
+        assertArrayEquals(new long[]{1, 3, 5, 9}, toArray(set));
+    }
+
+    @Test
+    void cursorAnswersAscendingProbes() {
+        SortedLongSet set = new SortedLongSet();
+        for (long value = 0; value < 10_000; value += 3) {
+            set.add(value);
+        }
+        SortedLongSet.Cursor cursor = set.cursor();
+        for (long value = 1; value < 10_010; value += 2) {
+            assertEquals(value % 3 == 0 && value < 10_000, cursor.contains(value), "value " + value);
+        }
+        assertFalse(new SortedLongSet().cursor().contains(1));
+    }
+
+    private static long[] toArray(SortedLongSet set) {
+        List<Long> values = new ArrayList<>();
+        set.forEach(values::add);
+        return toArray(values);
+    }
+
+    private static long[] toArray(Iterable<Long> values) {
+        List<Long> list = new ArrayList<>();
+        values.forEach(list::add);
+        long[] array = new long[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private static long[] head(NavigableSet<Long> values, int limit) {
+        long[] all = toArray(values);
+        return all.length <= limit ? all : Arrays.copyOf(all, limit);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrigramIndexTest {
+
+    @Test
+    void candidatesCoverEveryMatchAfterRandomChanges() {
+        TrigramIndex index = new TrigramIndex();
+        Map<Long, String> values = new TreeMap<>();
+        Random random = new Random(21);
+        for (int i = 0; i < 20_000; i++) {
+            long id = 1 + random.nextInt(1500);
+            String current = values.get(id);
+            String next = randomValue(random);
+            if (current == null) {
+                index.add(id, next);
+                values.put(id, next);
+            } else if (random.nextInt(4) == 0) {
+                index.remove(id, current);
+                values.remove(id);
+            } else {
+                index.update(id, current, next);
+                values.put(id, next);
+            }
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            String query = randomValue(random).substring(0, 3 + random.nextInt(2));
+            long[] candidates = index.candidates(query);
+            assertTrue(isAscending(candidates), "candidates of " + query + " out of order");
+            List<Long> matches = matches(values, query);
+            for (long id : matches) {
+                assertTrue(contains(candidates, id), "match " + id + " missing for " + query);
+            }
+            // A candidate holds every trigram of the query, or the index kept a stale posting
+            for (long id : candidates) {
+                String value = TrigramIndex.normalize(values.get(id));
+                String needle = TrigramIndex.normalize(query);
+                for (int t = 0; t + 3 <= needle.length(); t++) {
+                    assertTrue(value.contains(needle.substring(t, t + 3)), "stale candidate " + id + " for " + query);
+                }
+            }
+        }
+    }
+
+    @Test
+    void buildGivesTheSameCandidatesAsAddingOneByOne() {
+        HeapUserStore users = new HeapUserStore();
+        TrigramIndex added = new TrigramIndex();
+        Random random = new Random(4);
+        for (long id = 1; id <= 2000; id++) {
+            User user = UserWriteAheadLogTest.user(id, randomValue(random));
+            users.put(user);
+            added.add(id, user.getUsername());
+        }
+        TrigramIndex built = new TrigramIndex();
+        built.build(users, User::getUsername);
+        for (int i = 0; i < 200; i++) {
+            String query = randomValue(random).substring(0, 3);
+            assertArrayEquals(added.candidates(query), built.candidates(query), "query " + query);
+        }
+    }
+
+    @Test
+    void shortQueriesAreNotAnswered() {
+        TrigramIndex index = new TrigramIndex();
+        index.add(1, "Alice");
+        assertNull(index.candidates("al"));
+        assertArrayEquals(new long[]{1}, index.candidates("LIC"));
+        assertEquals(0, index.candidates("xyz").length);
+    }
+
+    private static String randomValue(Random random) {
+        StringBuilder value = new StringBuilder();
+        int length = 4 + random.nextInt(8);
+        for (int c = 0; c < length; c++) {
+            char letter = (char) ('a' + random.nextInt(5));
+            value.append(random.nextInt(10) == 0 ? Character.toUpperCase(letter) : letter);
+        }
+        return value.toString();
+    }
+
+    private static List<Long> matches(Map<Long, String> values, String query) {
+        List<Long> ids = new ArrayList<>();
+        String needle = TrigramIndex.normalize(query);
+        for (Map.Entry<Long, String> entry : values.entrySet()) {
+            if (TrigramIndex.normalize(entry.getValue()).contains(needle)) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    private static boolean isAscending(long[] ids) {
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i - 1] >= ids[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contains(long[] ids, long id) {
+        return Arrays.binarySearch(ids, id) >= 0;
+    }
+}
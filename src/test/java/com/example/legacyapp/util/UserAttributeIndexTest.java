@@ -0,0 +1,52 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class UserAttributeIndexTest {
+
+    private static final long LARGE = Integer.MAX_VALUE + 10L;
+
+    @Test
+    void idsBeyondTheBitmapsAreIndexedAfterTheDenseOnes() {
+        UserStore store = new HeapUserStore();
+        store.put(user(5, "t1", "ACTIVE", true));
+        store.put(user(LARGE, "t1", "ACTIVE", true));
+        UserAttributeIndex index = new UserAttributeIndex();
+        index.build(store);
+        index.add(user(LARGE + 1, "t2", "LOCKED", false));
+
+        assertArrayEquals(new long[]{5, LARGE}, index.find(filter(null, "ACTIVE", null), 0, 10));
+        assertArrayEquals(new long[]{LARGE}, index.find(filter(null, "ACTIVE", null), 5, 10));
+        assertArrayEquals(new long[]{LARGE + 1}, index.find(filter(null, null, false), 0, 10));
+        assertArrayEquals(new long[]{LARGE + 1}, index.find(filter(null, "LOCKED", null), 0, 10));
+        assertArrayEquals(new long[]{5, LARGE}, index.find(filter("t1", null, true), 0, 10));
+        assertArrayEquals(new long[]{LARGE + 1},
+                index.find(new UserAttributeIndex.Filter("user" + (LARGE + 1) + "@example.com", null, null, null),
+                        0, 10));
+
+        index.update(user(LARGE + 1, "t2", "LOCKED", false), user(LARGE + 1, "t2", "ACTIVE", true));
+        assertArrayEquals(new long[0], index.find(filter(null, "LOCKED", null), 0, 10));
+        assertArrayEquals(new long[]{5, LARGE, LARGE + 1}, index.find(filter(null, null, true), 0, 10));
+
+        index.remove(user(LARGE, "t1", "ACTIVE", true));
+        assertArrayEquals(new long[]{5, LARGE + 1}, index.find(filter(null, "ACTIVE", true), 0, 10));
+    }
+
+    private static UserAttributeIndex.Filter filter(String tenantId, String status, Boolean active) {
+        return new UserAttributeIndex.Filter(null, tenantId, status, active);
+    }
+
+    private static User user(long id, String tenantId, String status, boolean active) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername("user" + id);
+        user.setEmail("user" + id + "@example.com");
+        user.setTenantId(tenantId);
+        user.setStatus(status);
+        user.setActive(active);
+        return user;
+    }
+}
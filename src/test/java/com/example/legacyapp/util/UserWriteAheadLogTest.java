@@ -0,0 +1,210 @@
+package com.example.legacyapp.util;
+
+import com.example.legacyapp.model.User;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UserWriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysRecordsInOrderAfterReopen() throws IOException {
+        Path file = dir.resolve("users.log");
+        try (UserWriteAheadLog log = new UserWriteAheadLog(file, DurabilityMode.GROUP_COMMIT, 0L)) {
+            log.append(UserWriteAheadLog.OP_CREATE, user(1, "alice"));
+            log.appendAll(UserWriteAheadLog.OP_CREATE, Arrays.asList(user(2, "bob"), user(3, "carol")));
+            log.append(UserWriteAheadLog.OP_UPDATE, user(1, "alice2"));
+            log.append(UserWriteAheadLog.OP_DELETE, user(2, "bob"));
+        }
+
+        List<UserWriteAheadLog.LogRecord> records = new ArrayList<>();
+        try (UserWriteAheadLog log = new UserWriteAheadLog(file)) {
+            log.replay(records::add);
+            assertEquals(5, log.getLastLsn());
+            assertEquals(5, log.getRecordCount());
+        }
+        assertEquals(5, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(i + 1, records.get(i).getLsn());
+        }
+        assertEquals(UserWriteAheadLog.OP_UPDATE, records.get(3).getOp());
+        assertEquals("alice2", records.get(3).toUser().getUsername());
+        assertEquals(UserWriteAheadLog.OP_DELETE, records.get(4).getOp());
+        assertEquals(2L, records.get(4).getId());
+    }
+
+    @Test
+    void cutsOffTornTailAndContinuesLsns() throws IOException {
+        Path file = dir.resolve("users.log");
+        try (UserWriteAheadLog log = new UserWriteAheadLog(file)) {
+            log.append(UserWriteAheadLog.OP_CREATE, user(1, "alice"));
+            log.append(UserWriteAheadLog.OP_CREATE, user(2, "bob"));
+        }
+        long intact = Files.size(file);
+        // Half a record: a frame header promising more payload than follows
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 2, 'C', 0, 0}));
+        }
+
+        try (UserWriteAheadLog log = new UserWriteAheadLog(file)) {
+            assertEquals(intact, Files.size(file));
+            assertEquals(2, log.getLastLsn());
+            log.append(UserWriteAheadLog.OP_CREATE, user(3, "carol"));
+        }
+
+        List<Long> lsns = new ArrayList<>();
+        UserWriteAheadLog.readRecords(file, record -> lsns.add(record.getLsn()));
+        assertEquals(Arrays.asList(1L, 2L, 3L), lsns);
+    }
+
+    @Test
+    void stopsAtCorruptRecord() throws IOException {
+        Path file = dir.resolve("users.log");
+        try (UserWriteAheadLog log = new UserWriteAheadLog(file)) {
+            log.append(UserWriteAheadLog.OP_CREATE, user(1, "alice"));
+            log.append(UserWriteAheadLog.OP_CREATE, user(2, "bob"));
+        }
+        long firstEnd;
+        List<Long> offsets = new ArrayList<>();
+        UserWriteAheadLog.readRecords(file, record -> offsets.add(record.getOffset()));
+        firstEnd = offsets.get(1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            // Flip a payload byte of the second record so that its CRC no longer matches
+            channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), firstEnd + 12);
+        }
+
+        try (UserWriteAheadLog log = new UserWriteAheadLog(file)) {
+            assertEquals(1, log.getLastLsn());
+            assertEquals(firstEnd, Files.size(file));
+        }
+    }
+
+    @Test
+    void markPairsOffsetWithLastLsnBeforeIt() throws IOException {
+        Path file = dir.resolve("users.log");
+        try (UserWriteAheadLog log = new UserWriteAheadLog(file, DurabilityMode.GROUP_COMMIT, 0L)) {
+            log.appendAll(UserWriteAheadLog.OP_CREATE, Arrays.asList(user(1, "alice"), user(2, "bob")));
+            UserWriteAheadLog.Mark mark = log.mark();
+            log.append(UserWriteAheadLog.OP_CREATE, user(3, "carol"));
+
+            long[] last = new long[1];
+            log.replay(mark.getOffset(), record -> last[0] = record.getLsn());
+            assertEquals(mark.getLsn(), last[0]);
+            assertEquals(2, mark.getLsn());
+        }
+    }
+
+    @Test
+    void copyPastTheEndFailsInsteadOfSpinning() throws IOException {
+        Path file = dir.resolve("users.log");
+        try (UserWriteAheadLog log = new UserWriteAheadLog(file)) {
+            log.append(UserWriteAheadLog.OP_CREATE, user(1, "alice"));
+            long size = Files.size(file);
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(IOException.class,
+                    () -> log.copyTo(0, size + 100, Channels.newChannel(new ByteArrayOutputStream()))));
+        }
+    }
+
+    @Test
+    void queuedRecordsKeepTheirOrderUntilAwaited() throws IOException {
+        Path file = dir.resolve("users.log");
+        try (UserWriteAheadLog log = new UserWriteAheadLog(file, DurabilityMode.GROUP_COMMIT, 0L)) {
+            UserWriteAheadLog.Commit first = log.queueAll(UserWriteAheadLog.OP_CREATE,
+                    Arrays.asList(user(1, "alice"), user(2, "bob")));
+            UserWriteAheadLog.Commit second = log.queueAll(UserWriteAheadLog.OP_UPDATE,
+                    Arrays.asList(user(1, "alice2")));
+            second.await();
+            first.await();
+            assertEquals(3, log.getLastLsn());
+        }
+
+        List<String> names = new ArrayList<>();
+        UserWriteAheadLog.readRecords(file, record -> names.add(record.toUser().getUsername()));
+        assertEquals(Arrays.asList("alice", "bob", "alice2"), names);
+    }
+
+    @Test
+    void rejectsAppendsAfterClose() throws IOException {
+        Path file = dir.resolve("users.log");
+        for (DurabilityMode mode : new DurabilityMode[]{DurabilityMode.GROUP_COMMIT, DurabilityMode.ASYNC}) {
+            UserWriteAheadLog log = new UserWriteAheadLog(file, mode, 10L);
+            log.append(UserWriteAheadLog.OP_CREATE, user(1, "alice"));
+            log.close();
+            assertThrows(IOException.class, () -> log.append(UserWriteAheadLog.OP_CREATE, user(2, "bob")));
+        }
+    }
+
+    @Test
+    void asyncModeWritesQueuedRecordsOnClose() throws IOException {
+        Path file = dir.resolve("users.log");
+        try (UserWriteAheadLog log = new UserWriteAheadLog(file, DurabilityMode.ASYNC, 200L)) {
+            for (int i = 1; i <= 100; i++) {
+                log.append(UserWriteAheadLog.OP_CREATE, user(i, "user" + i));
+            }
+        }
+        long[] count = new long[1];
+        UserWriteAheadLog.readRecords(file, record -> count[0]++);
+        assertEquals(100, count[0]);
+    }
+
+    @Test
+    void unexpectedWriterErrorFailsTheLogInsteadOfHanging() throws IOException {
+        Path file = dir.resolve("users.log");
+        UserWriteAheadLog log = new UserWriteAheadLog(file, DurabilityMode.GROUP_COMMIT, 0L);
+        log.append(UserWriteAheadLog.OP_CREATE, user(1, "alice"));
+        FileChannel channel = (FileChannel) ReflectionTestUtils.getField(log, "channel");
+        FileChannel broken = mock(FileChannel.class);
+        when(broken.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenThrow(new NoSuchMethodError("encode"));
+        ReflectionTestUtils.setField(log, "channel", broken);
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                IOException first = assertThrows(IOException.class,
+                        () -> log.append(UserWriteAheadLog.OP_CREATE, user(2, "bob")));
+                assertTrue(first.getCause() instanceof NoSuchMethodError);
+                // Refused up front from now on, also for records queued without waiting
+                assertThrows(IOException.class, () -> log.append(UserWriteAheadLog.OP_CREATE, user(3, "carol")));
+                assertThrows(IOException.class, () -> log.queueAll(UserWriteAheadLog.OP_CREATE,
+                        Arrays.asList(user(4, "dave"))));
+            });
+        } finally {
+            ReflectionTestUtils.setField(log, "channel", channel);
+            log.close();
+        }
+        long[] count = new long[1];
+        UserWriteAheadLog.readRecords(file, record -> count[0]++);
+        assertEquals(1, count[0]);
+    }
+
+    static User user(long id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setEmail(username + "@example.com");
+        return user;
+    }
+}